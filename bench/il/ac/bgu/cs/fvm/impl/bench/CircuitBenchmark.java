@@ -0,0 +1,42 @@
+package il.ac.bgu.cs.fvm.impl.bench;
+
+import il.ac.bgu.cs.fvm.circuits.Circuit;
+import il.ac.bgu.cs.fvm.impl.FvmFacadeImpl;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+import il.ac.bgu.cs.fvm.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unfolding of binary counter circuits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CircuitBenchmark {
+
+    @Param({"2", "4", "6"})
+    public int inputs;
+
+    @Param({"2", "4"})
+    public int registers;
+
+    private FvmFacadeImpl _fvm;
+    private Circuit _circuit;
+
+    @Setup
+    public void setup() {
+        _fvm = new FvmFacadeImpl();
+        _circuit = Generators.counterCircuit(inputs, registers);
+    }
+
+    @Benchmark
+    public TransitionSystem<Pair<Map<String,Boolean>,Map<String,Boolean>>,Map<String,Boolean>,Object> transitionSystemFromCircuit() {
+        return _fvm.transitionSystemFromCircuit(_circuit);
+    }
+}
@@ -0,0 +1,147 @@
+package il.ac.bgu.cs.fvm.impl.bench;
+
+import il.ac.bgu.cs.fvm.circuits.Circuit;
+import il.ac.bgu.cs.fvm.impl.ProgramGraphImpl;
+import il.ac.bgu.cs.fvm.impl.TransitionSystemImpl;
+import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+
+/**
+ * Synthetic models of configurable size for the benchmarks. All generators
+ * are deterministic for a given seed.
+ */
+public final class Generators {
+
+    public enum Shape { RANDOM, CHAIN, GRID, DENSE }
+
+    private Generators() {
+    }
+
+    /**
+     * A transition system of about {@code size} integer states. State 0 is
+     * initial, actions are {@code "a0".."a<actions-1>"} and state {@code i} is
+     * labelled {@code "p<i % aps>"}.
+     * <ul>
+     * <li>{@code RANDOM}: four successors per state, picked at random;</li>
+     * <li>{@code CHAIN}: {@code i -> i+1};</li>
+     * <li>{@code GRID}: a square grid with right and down moves;</li>
+     * <li>{@code DENSE}: a tenth of all states as successors of every state.</li>
+     * </ul>
+     */
+    public static TransitionSystem<Integer,String,String> transitionSystem(Shape shape, int size, int actions, int aps, long seed) {
+        Random random = new Random(seed);
+        TransitionSystem<Integer,String,String> ts = new TransitionSystemImpl<>();
+        ts.setName(shape + "-" + size);
+        int states = size;
+        int side = (int) Math.ceil(Math.sqrt(size));
+        if(shape == Shape.GRID)
+            states = side * side;
+        for(int i = 0; i < actions; i++)
+            ts.addAction("a" + i);
+        for(int i = 0; i < aps; i++)
+            ts.addAtomicProposition("p" + i);
+        for(int i = 0; i < states; i++) {
+            ts.addState(i);
+            ts.addToLabel(i, "p" + (i % aps));
+        }
+        ts.addInitialState(0);
+        for(int i = 0; i < states; i++) {
+            switch(shape) {
+                case RANDOM:
+                    for(int k = 0; k < 4; k++)
+                        ts.addTransition(new Transition<>(i, "a" + random.nextInt(actions), random.nextInt(states)));
+                    break;
+                case CHAIN:
+                    if(i + 1 < states)
+                        ts.addTransition(new Transition<>(i, "a" + (i % actions), i + 1));
+                    break;
+                case GRID:
+                    if((i + 1) % side != 0)
+                        ts.addTransition(new Transition<>(i, "a0", i + 1));
+                    if(i + side < states)
+                        ts.addTransition(new Transition<>(i, "a" + (1 % actions), i + side));
+                    break;
+                case DENSE:
+                    for(int k = 0; k < Math.max(1, states / 10); k++)
+                        ts.addTransition(new Transition<>(i, "a" + random.nextInt(actions), random.nextInt(states)));
+                    break;
+            }
+        }
+        return ts;
+    }
+
+    /**
+     * A single-location program graph over {@code counters} variables, each
+     * counting from 0 to {@code bound} and back to 0. Its transition system
+     * has {@code (bound+1)^counters} states.
+     */
+    public static ProgramGraph<String,String> counters(int counters, int bound) {
+        ProgramGraph<String,String> pg = new ProgramGraphImpl<>();
+        pg.setName("counters-" + counters + "-" + bound);
+        pg.addLocation("loop");
+        pg.addInitialLocation("loop");
+        List<String> init = new ArrayList<>();
+        for(int i = 0; i < counters; i++) {
+            String x = "x" + i;
+            init.add(x + " := 0");
+            pg.addTransition(new PGTransition<>("loop", x + " < " + bound, x + " := " + x + " + 1", "loop"));
+            pg.addTransition(new PGTransition<>("loop", x + " == " + bound, x + " := 0", "loop"));
+        }
+        pg.addInitalization(init);
+        return pg;
+    }
+
+    /**
+     * A circuit whose registers form a binary counter, incremented when input
+     * {@code x0} is on. The remaining inputs only widen the alphabet. Output
+     * {@code y} is on when all registers are.
+     */
+    public static Circuit counterCircuit(int inputs, int registers) {
+        Set<String> inputNames = names("x", inputs);
+        Set<String> registerNames = names("r", registers);
+        return new Circuit() {
+            @Override
+            public Set<String> getInputPortNames() {
+                return inputNames;
+            }
+
+            @Override
+            public Set<String> getRegisterNames() {
+                return registerNames;
+            }
+
+            @Override
+            public Set<String> getOutputPortNames() {
+                return Collections.singleton("y");
+            }
+
+            @Override
+            public Map<String,Boolean> updateRegisters(Map<String,Boolean> inputs, Map<String,Boolean> registers) {
+                Map<String,Boolean> next = new HashMap<>();
+                boolean carry = inputs.get("x0");
+                for(int i = 0; i < registerNames.size(); i++) {
+                    boolean r = registers.get("r" + i);
+                    next.put("r" + i, r ^ carry);
+                    carry &= r;
+                }
+                return next;
+            }
+
+            @Override
+            public Map<String,Boolean> computeOutputs(Map<String,Boolean> inputs, Map<String,Boolean> registers) {
+                return Collections.singletonMap("y", !registers.containsValue(false));
+            }
+        };
+    }
+
+    private static Set<String> names(String prefix, int count) {
+        Set<String> names = new LinkedHashSet<>();
+        for(int i = 0; i < count; i++)
+            names.add(prefix + i);
+        return names;
+    }
+}
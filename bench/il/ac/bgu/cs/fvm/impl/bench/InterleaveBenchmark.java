@@ -0,0 +1,52 @@
+package il.ac.bgu.cs.fvm.impl.bench;
+
+import il.ac.bgu.cs.fvm.impl.FvmFacadeImpl;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+import il.ac.bgu.cs.fvm.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interleaving of two random transition systems, with and without a
+ * handshake action.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InterleaveBenchmark {
+
+    @Param({"RANDOM", "CHAIN"})
+    public Generators.Shape shape;
+
+    @Param({"30", "100"})
+    public int size;
+
+    private FvmFacadeImpl _fvm;
+    private TransitionSystem<Integer,String,String> _ts1;
+    private TransitionSystem<Integer,String,String> _ts2;
+    private Set<String> _handShaking;
+
+    @Setup
+    public void setup() {
+        _fvm = new FvmFacadeImpl();
+        _ts1 = Generators.transitionSystem(shape, size, 4, 4, 1);
+        _ts2 = Generators.transitionSystem(shape, size, 4, 4, 2);
+        _handShaking = Collections.singleton("a0");
+    }
+
+    @Benchmark
+    public TransitionSystem<Pair<Integer,Integer>,String,String> interleave() {
+        return _fvm.interleave(_ts1, _ts2);
+    }
+
+    @Benchmark
+    public TransitionSystem<Pair<Integer,Integer>,String,String> interleaveWithHandShaking() {
+        return _fvm.interleave(_ts1, _ts2, _handShaking);
+    }
+}
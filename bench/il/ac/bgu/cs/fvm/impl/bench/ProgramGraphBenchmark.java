@@ -0,0 +1,48 @@
+package il.ac.bgu.cs.fvm.impl.bench;
+
+import il.ac.bgu.cs.fvm.impl.FvmFacadeImpl;
+import il.ac.bgu.cs.fvm.programgraph.*;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+import il.ac.bgu.cs.fvm.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unfolding of counter program graphs with the parser based definitions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProgramGraphBenchmark {
+
+    @Param({"2", "3"})
+    public int counters;
+
+    @Param({"5", "15"})
+    public int bound;
+
+    private FvmFacadeImpl _fvm;
+    private ProgramGraph<String,String> _pg;
+    private Set<ActionDef> _actionDefs;
+    private Set<ConditionDef> _conditionDefs;
+
+    @Setup
+    public void setup() {
+        _fvm = new FvmFacadeImpl();
+        _pg = Generators.counters(counters, bound);
+        _actionDefs = Collections.singleton(new ParserBasedActDef());
+        _conditionDefs = Collections.singleton(new ParserBasedCondDef());
+    }
+
+    @Benchmark
+    public TransitionSystem<Pair<String,Map<String,Object>>,String,String> transitionSystemFromProgramGraph() {
+        return _fvm.transitionSystemFromProgramGraph(_pg, _actionDefs, _conditionDefs);
+    }
+}
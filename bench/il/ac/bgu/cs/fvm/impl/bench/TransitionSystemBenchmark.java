@@ -0,0 +1,96 @@
+package il.ac.bgu.cs.fvm.impl.bench;
+
+import il.ac.bgu.cs.fvm.impl.FvmFacadeImpl;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries over a single, explicitly built transition system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransitionSystemBenchmark {
+
+    @Param({"RANDOM", "CHAIN", "GRID", "DENSE"})
+    public Generators.Shape shape;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"4"})
+    public int actions;
+
+    private FvmFacadeImpl _fvm;
+    private TransitionSystem<Integer,String,String> _ts;
+    private Integer _state;
+    private Set<Integer> _states;
+
+    @Setup
+    public void setup() {
+        _fvm = new FvmFacadeImpl();
+        _ts = Generators.transitionSystem(shape, size, actions, 8, 42);
+        Random random = new Random(7);
+        int count = _ts.getStates().size();
+        _state = random.nextInt(count);
+        _states = new HashSet<>();
+        for(int i = 0; i < 64; i++)
+            _states.add(random.nextInt(count));
+    }
+
+    @Benchmark
+    public Set<Integer> post() {
+        return _fvm.post(_ts, _state);
+    }
+
+    @Benchmark
+    public Set<Integer> postByAction() {
+        return _fvm.post(_ts, _state, "a0");
+    }
+
+    @Benchmark
+    public Set<Integer> postOfSet() {
+        return _fvm.post(_ts, _states);
+    }
+
+    @Benchmark
+    public Set<Integer> pre() {
+        return _fvm.pre(_ts, _state);
+    }
+
+    @Benchmark
+    public Set<Integer> preByAction() {
+        return _fvm.pre(_ts, _state, "a0");
+    }
+
+    @Benchmark
+    public Set<Integer> preOfSet() {
+        return _fvm.pre(_ts, _states);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Set<Integer> reach() {
+        return _fvm.reach(_ts);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean isActionDeterministic() {
+        return _fvm.isActionDeterministic(_ts);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean isAPDeterministic() {
+        return _fvm.isAPDeterministic(_ts);
+    }
+}
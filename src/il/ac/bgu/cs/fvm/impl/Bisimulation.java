@@ -0,0 +1,466 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+
+/**
+ * Minimizes transition systems up to bisimulation.
+ * <p>
+ * Two states are bisimilar when they have the same label and every successor
+ * of one is bisimilar to some successor of the other; actions are ignored, as
+ * in the usual definition over atomic propositions. The coarsest bisimulation
+ * is found by Paige-Tarjan partition refinement in {@code O(|T| log |S|)}.
+ * The partition starts with the states grouped by label and is made stable
+ * with respect to every block by splitting compound blocks, always by their
+ * smaller part. Per state counts of transitions into each block make the
+ * three-way split of a block cost only the transitions into its smaller
+ * part.
+ * <p>
+ * The quotient has one state per block, labelled like its members. It has a
+ * transition {@code B -a-> C} whenever some member of {@code B} has an
+ * {@code a}-transition to some member of {@code C}. It satisfies the same
+ * CTL* formulas over atomic propositions as the original system.
+ */
+public final class Bisimulation {
+
+    /**
+     * A quotient system and the block of every original state.
+     */
+    public static final class Quotient<S, A, P> {
+        private final CompactTransitionSystem<Set<S>, A, P> _ts;
+        private final Map<S, Set<S>> _blocks;
+
+        private Quotient(CompactTransitionSystem<Set<S>, A, P> ts, Map<S, Set<S>> blocks) {
+            _ts = ts;
+            _blocks = Collections.unmodifiableMap(blocks);
+        }
+
+        /**
+         * @return the quotient, whose states are the blocks.
+         */
+        public CompactTransitionSystem<Set<S>, A, P> getTransitionSystem() {
+            return _ts;
+        }
+
+        /**
+         * @return the block of every original state.
+         */
+        public Map<S, Set<S>> getBlocks() {
+            return _blocks;
+        }
+
+        public Set<S> blockOf(S s) {
+            return _blocks.get(s);
+        }
+    }
+
+    // an unmodifiable set of states that computes its hash once
+    private static final class Block<S> extends AbstractSet<S> {
+        private final Set<S> _members = new HashSet<>();
+        private int _hash;
+
+        @Override
+        public Iterator<S> iterator() {
+            return Collections.unmodifiableSet(_members).iterator();
+        }
+
+        @Override
+        public int size() {
+            return _members.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return _members.contains(o);
+        }
+
+        @Override
+        public int hashCode() {
+            if(_hash == 0)
+                _hash = _members.hashCode();
+            return _hash;
+        }
+    }
+
+    private Bisimulation() {
+    }
+
+    public static <S, A, P> Quotient<S, A, P> minimize(TransitionSystem<S, A, P> ts) {
+        if(ts instanceof CompactTransitionSystem)
+            return minimize((CompactTransitionSystem<S, A, P>) ts);
+        List<S> states = new ArrayList<>(ts.getStates());
+        int n = states.size();
+        Map<S, Integer> ids = new HashMap<>();
+        for(S s:states)
+            ids.put(s, ids.size());
+
+        // the initial partition: states with equal labels
+        Map<Set<P>, Integer> labels = new HashMap<>();
+        int[] classes = new int[n];
+        for(int i = 0; i < n; i++)
+            classes[i] = labels.computeIfAbsent(ts.getLabel(states.get(i)), l -> labels.size());
+
+        // transitions without their actions, once per source and target
+        Set<Long> seen = new HashSet<>();
+        int[] sources = new int[16], targets = new int[16];
+        int m = 0;
+        for(Transition<S, A> t:ts.getTransitions()) {
+            int from = ids.get(t.getFrom()), to = ids.get(t.getTo());
+            if(!seen.add((long) from * n + to))
+                continue;
+            if(m == sources.length) {
+                sources = Arrays.copyOf(sources, 2 * m);
+                targets = Arrays.copyOf(targets, 2 * m);
+            }
+            sources[m] = from;
+            targets[m++] = to;
+        }
+        seen = null;
+
+        int[] block = new Refinement(n, m, sources, targets).run(classes, labels.size());
+        return quotient(ts, states, block, m);
+    }
+
+    // the core already numbers states and their labels
+    private static <S, A, P> Quotient<S, A, P> minimize(CompactTransitionSystem<S, A, P> ts) {
+        IntTransitionSystem core = ts.core();
+        int n = core.stateCount();
+        List<S> states = new ArrayList<>(n);
+        int[] classes = new int[n];
+        for(int i = 0; i < n; i++) {
+            states.add(ts.state(i));
+            classes[i] = core.labelOf(i);
+        }
+
+        int[] sources = new int[core.transitionCount()], targets = new int[sources.length];
+        int[] lastSource = new int[n];
+        Arrays.fill(lastSource, -1);
+        int m = 0;
+        for(int s = 0; s < n; s++)
+            for(int i = core.outStart(s); i < core.outStart(s + 1); i++) {
+                int t = core.outTarget(i);
+                if(lastSource[t] == s)
+                    continue;
+                lastSource[t] = s;
+                sources[m] = s;
+                targets[m++] = t;
+            }
+
+        int[] block = new Refinement(n, m, sources, targets).run(classes, core.labelCount());
+        return quotient(ts, states, block, m);
+    }
+
+    private static <S, A, P> Quotient<S, A, P> quotient(TransitionSystem<S, A, P> ts, List<S> states, int[] block, int m) {
+        int n = states.size();
+        List<Block<S>> blocks = new ArrayList<>();
+        Map<S, Set<S>> blockOf = new HashMap<>();
+        for(int i = 0; i < n; i++) {
+            while(blocks.size() <= block[i])
+                blocks.add(new Block<>());
+            blocks.get(block[i])._members.add(states.get(i));
+        }
+        for(Block<S> b:blocks)
+            for(S s:b._members)
+                blockOf.put(s, b);
+
+        TransitionSystemBuilder<Set<S>, A, P> builder = new TransitionSystemBuilder<>(blocks.size(), m);
+        builder.name(ts.getName())
+                .addActions(ts.getActions())
+                .addAtomicPropositions(ts.getAtomicPropositions());
+        for(Block<S> b:blocks) {
+            builder.addState(b);
+            for(P p:ts.getLabel(b._members.iterator().next()))
+                builder.addToLabel(b, p);
+        }
+        for(S s:ts.getInitialStates())
+            builder.addInitialState(blockOf.get(s));
+        for(Transition<S, A> t:ts.getTransitions())
+            builder.addTransition(blockOf.get(t.getFrom()), t.getAction(), blockOf.get(t.getTo()));
+        return new Quotient<>(builder.build(), blockOf);
+    }
+
+    /**
+     * Paige-Tarjan over states and transitions numbered from 0.
+     * <p>
+     * The fine partition Q is a refinable partition: the states of a block
+     * are contiguous in {@code _elements}, and marked states are swapped to
+     * the block's front, so a block splits into its marked and unmarked parts
+     * in time proportional to the marked ones. The coarse partition X groups
+     * blocks of Q in linked lists; a compound X block holds more than one.
+     * Every transition points at the count of transitions from its source
+     * into the X block of its target.
+     */
+    private static final class Refinement {
+        private final int _n;
+        private final int[] _sources;
+        private final int[] _inStart;
+        private final int[] _inEdges;
+        private final boolean[] _hasSuccessor;
+
+        private final int[] _elements;
+        private final int[] _position;
+        private final int[] _blockOf;
+        private final int[] _first;
+        private final int[] _end;
+        private final int[] _mid;
+        private int _blocks;
+        private final int[] _touched;
+        private int _touchedCount;
+
+        private final int[] _xOf;
+        private final int[] _next;
+        private final int[] _prev;
+        private final int[] _xHead;
+        private final int[] _xSize;
+        private int _xBlocks;
+        private final ArrayDeque<Integer> _compound = new ArrayDeque<>();
+        private final boolean[] _inCompound;
+
+        private final int[] _countOfEdge;
+        private int[] _counts = new int[16];
+        private int _countsUsed;
+        private int[] _freeCounts = new int[16];
+        private int _freeCount;
+
+        Refinement(int n, int m, int[] sources, int[] targets) {
+            _n = n;
+            _sources = sources;
+            _inStart = new int[n + 1];
+            for(int e = 0; e < m; e++)
+                _inStart[targets[e] + 1]++;
+            for(int i = 0; i < n; i++)
+                _inStart[i + 1] += _inStart[i];
+            _inEdges = new int[m];
+            int[] fill = Arrays.copyOf(_inStart, n);
+            for(int e = 0; e < m; e++)
+                _inEdges[fill[targets[e]]++] = e;
+
+            int size = n + 1;
+            _elements = new int[n];
+            _position = new int[n];
+            _blockOf = new int[n];
+            _first = new int[size];
+            _end = new int[size];
+            _mid = new int[size];
+            _touched = new int[size];
+            _xOf = new int[size];
+            _next = new int[size];
+            _prev = new int[size];
+            _xHead = new int[size];
+            _xSize = new int[size];
+            _inCompound = new boolean[size];
+
+            _countOfEdge = new int[m];
+            int[] outDegree = new int[n];
+            for(int e = 0; e < m; e++)
+                outDegree[sources[e]]++;
+            _hasSuccessor = new boolean[n];
+            int[] countOf = new int[n];
+            for(int i = 0; i < n; i++) {
+                _hasSuccessor[i] = outDegree[i] > 0;
+                countOf[i] = _hasSuccessor[i] ? newCount(outDegree[i]) : -1;
+            }
+            for(int e = 0; e < m; e++)
+                _countOfEdge[e] = countOf[sources[e]];
+        }
+
+        /**
+         * @return the block of every state in the coarsest stable partition
+         * that refines {@code classes}.
+         */
+        int[] run(int[] classes, int classCount) {
+            if(_n == 0)
+                return new int[0];
+            // lay the states out grouped by class
+            int[] start = new int[classCount + 1];
+            for(int c:classes)
+                start[c + 1]++;
+            for(int c = 0; c < classCount; c++)
+                start[c + 1] += start[c];
+            for(int c = 0; c < classCount; c++) {
+                _first[c] = _mid[c] = start[c];
+                _end[c] = start[c + 1];
+            }
+            int[] fill = Arrays.copyOf(start, classCount);
+            for(int s = 0; s < _n; s++) {
+                _position[s] = fill[classes[s]]++;
+                _elements[_position[s]] = s;
+                _blockOf[s] = classes[s];
+            }
+            _blocks = classCount;
+
+            // one X block holding everything
+            _xBlocks = 1;
+            _xHead[0] = -1;
+            for(int b = 0; b < _blocks; b++)
+                link(b, 0);
+
+            // stable with respect to all states: split those with successors from the others
+            for(int s = 0; s < _n; s++)
+                if(_hasSuccessor[s])
+                    mark(s);
+            split();
+            if(_xSize[0] > 1 && !_inCompound[0]) {
+                _compound.push(0);
+                _inCompound[0] = true;
+            }
+
+            int[] countInB = new int[_n];
+            Arrays.fill(countInB, -1);
+            int[] predecessors = new int[_n];
+            int[] members = new int[_n];
+            while(!_compound.isEmpty()) {
+                int x = _compound.pop();
+                int b = _xHead[x];
+                int other = _next[b];
+                if(size(other) < size(b))
+                    b = other;
+                unlink(b);
+                if(_xSize[x] > 1)
+                    _compound.push(x);
+                else
+                    _inCompound[x] = false;
+                int xb = _xBlocks++;
+                _xHead[xb] = -1;
+                link(b, xb);
+
+                // B moves as states are marked, so walk a copy
+                int memberCount = size(b);
+                System.arraycopy(_elements, _first[b], members, 0, memberCount);
+
+                // count the transitions into B, and split by having one
+                int predecessorCount = 0;
+                for(int i = 0; i < memberCount; i++) {
+                    int y = members[i];
+                    for(int k = _inStart[y]; k < _inStart[y + 1]; k++) {
+                        int s = _sources[_inEdges[k]];
+                        if(countInB[s] < 0) {
+                            countInB[s] = newCount(0);
+                            predecessors[predecessorCount++] = s;
+                        }
+                        _counts[countInB[s]]++;
+                    }
+                }
+                for(int i = 0; i < predecessorCount; i++)
+                    mark(predecessors[i]);
+                split();
+
+                // split off those without transitions into the rest of the old X block
+                for(int i = 0; i < memberCount; i++) {
+                    int y = members[i];
+                    for(int k = _inStart[y]; k < _inStart[y + 1]; k++) {
+                        int e = _inEdges[k];
+                        int s = _sources[e];
+                        if(_counts[countInB[s]] == _counts[_countOfEdge[e]])
+                            mark(s);
+                    }
+                }
+                split();
+
+                // transitions into B now count towards B
+                for(int i = 0; i < memberCount; i++) {
+                    int y = members[i];
+                    for(int k = _inStart[y]; k < _inStart[y + 1]; k++) {
+                        int e = _inEdges[k];
+                        int c = _countOfEdge[e];
+                        if(--_counts[c] == 0)
+                            freeCount(c);
+                        _countOfEdge[e] = countInB[_sources[e]];
+                    }
+                }
+                for(int i = 0; i < predecessorCount; i++)
+                    countInB[predecessors[i]] = -1;
+            }
+            return _blockOf;
+        }
+
+        private int size(int b) {
+            return _end[b] - _first[b];
+        }
+
+        private void mark(int s) {
+            int b = _blockOf[s];
+            int i = _position[s];
+            if(i < _mid[b])
+                return;
+            int j = _mid[b]++;
+            int t = _elements[j];
+            _elements[j] = s;
+            _position[s] = j;
+            _elements[i] = t;
+            _position[t] = i;
+            if(j == _first[b])
+                _touched[_touchedCount++] = b;
+        }
+
+        /*
+         * Splits the marked part off every touched block, into a new block in
+         * the same X block.
+         */
+        private void split() {
+            for(int i = 0; i < _touchedCount; i++) {
+                int b = _touched[i];
+                if(_mid[b] == _end[b]) {
+                    _mid[b] = _first[b];
+                    continue;
+                }
+                int nb = _blocks++;
+                _first[nb] = _first[b];
+                _end[nb] = _mid[b];
+                _mid[nb] = _first[nb];
+                _first[b] = _mid[b];
+                for(int k = _first[nb]; k < _end[nb]; k++)
+                    _blockOf[_elements[k]] = nb;
+                int x = _xOf[b];
+                link(nb, x);
+                if(_xSize[x] == 2 && !_inCompound[x]) {
+                    _compound.push(x);
+                    _inCompound[x] = true;
+                }
+            }
+            _touchedCount = 0;
+        }
+
+        private void link(int b, int x) {
+            _xOf[b] = x;
+            _prev[b] = -1;
+            _next[b] = _xHead[x];
+            if(_xHead[x] >= 0)
+                _prev[_xHead[x]] = b;
+            _xHead[x] = b;
+            _xSize[x]++;
+        }
+
+        private void unlink(int b) {
+            int x = _xOf[b];
+            if(_prev[b] >= 0)
+                _next[_prev[b]] = _next[b];
+            else
+                _xHead[x] = _next[b];
+            if(_next[b] >= 0)
+                _prev[_next[b]] = _prev[b];
+            _xSize[x]--;
+        }
+
+        private int newCount(int value) {
+            int c;
+            if(_freeCount > 0) {
+                c = _freeCounts[--_freeCount];
+            } else {
+                if(_countsUsed == _counts.length)
+                    _counts = Arrays.copyOf(_counts, 2 * _countsUsed);
+                c = _countsUsed++;
+            }
+            _counts[c] = value;
+            return c;
+        }
+
+        private void freeCount(int c) {
+            if(_freeCount == _freeCounts.length)
+                _freeCounts = Arrays.copyOf(_freeCounts, 2 * _freeCount);
+            _freeCounts[_freeCount++] = c;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package il.ac.bgu.cs.fvm.impl;
+
+/**
+ * The outcome of an exploration run under an {@link ExplorationBudget}: the
+ * result, complete or partial, and why the exploration stopped early if it
+ * did.
+ */
+public final class BoundedResult<T> {
+
+    public enum StopReason { CANCELLED, TIMEOUT, STATE_LIMIT, MEMORY_LIMIT }
+
+    private final T _result;
+    private final StopReason _stopReason;
+
+    BoundedResult(T result, StopReason stopReason) {
+        _result = result;
+        _stopReason = stopReason;
+    }
+
+    /**
+     * @return the result; if incomplete, the part explored before stopping.
+     * A partial transition system is consistent: every transition it holds
+     * connects two of its states.
+     */
+    public T getResult() {
+        return _result;
+    }
+
+    public boolean isComplete() {
+        return _stopReason == null;
+    }
+
+    /**
+     * @return why the exploration stopped, or {@code null} if it completed.
+     */
+    public StopReason getStopReason() {
+        return _stopReason;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedResult{" + (isComplete() ? "complete" : "stopped: " + _stopReason) + "}";
+    }
+}
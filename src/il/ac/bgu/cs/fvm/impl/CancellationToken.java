@@ -0,0 +1,19 @@
+package il.ac.bgu.cs.fvm.impl;
+
+/**
+ * Lets another thread stop a running exploration. Explorations poll the token
+ * at every state, stop soon after {@link #cancel}, and return what they found
+ * so far. A token stays cancelled.
+ */
+public final class CancellationToken {
+
+    private volatile boolean _cancelled;
+
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+}
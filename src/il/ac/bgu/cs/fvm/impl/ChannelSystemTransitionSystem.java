@@ -0,0 +1,460 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.channelsystem.ChannelSystem;
+import il.ac.bgu.cs.fvm.channelsystem.InterleavingActDef;
+import il.ac.bgu.cs.fvm.channelsystem.ParserBasedInterleavingActDef;
+import il.ac.bgu.cs.fvm.exceptions.FVMException;
+import il.ac.bgu.cs.fvm.programgraph.ActionDef;
+import il.ac.bgu.cs.fvm.programgraph.ConditionDef;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedActDef;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedCondDef;
+import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The transition system of a channel system, evaluated lazily: the
+ * interleavings of the component program graphs are only generated from the
+ * states a search reaches.
+ * <p>
+ * States are {@code (locations, valuation)} pairs, labelled with every
+ * component location and with {@code "var = value"} for every variable. A
+ * component moves alone by any enabled action except one-sided handshake
+ * actions ({@code _C?x}, {@code _C!e}), which only move together with a
+ * matching action of another component on the same channel, joined as
+ * {@code "_C?x|_C!e"}. The steps of each component come from a
+ * {@link ProgramGraphSteps} with its own cache, so a component's steps from a
+ * location are computed once for all the states that differ only in the
+ * other components' locations.
+ * <p>
+ * Buffered channels are kept as {@link PersistentQueue}s, which successors
+ * share with their predecessors, and states are interned in a
+ * {@link StateStore}. With a capacity bound, writes to a full channel are
+ * disabled, which keeps the state space finite.
+ * <p>
+ * {@link #materializeReduced} builds a partial-order reduced state space
+ * instead of the full one.
+ */
+public class ChannelSystemTransitionSystem<L,A> extends LazyTransitionSystem<Pair<List<L>,Map<String,Object>>,A,String> {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final List<ProgramGraph<L,A>> _graphs;
+    private final List<ProgramGraphSteps<L,A>> _components = new ArrayList<>();
+    private final Set<InterleavingActDef> _interleavingDefs;
+    private final int _capacity;
+    private final Map<Object, Boolean> _oneSided = new ConcurrentHashMap<>();
+    private final Map<String, Optional<InterleavingActDef>> _joinedDefs = new ConcurrentHashMap<>();
+    // separate caches, since an action may equal a condition string
+    private final Map<A, VariableAccess> _actionAccesses = new ConcurrentHashMap<>();
+    private final Map<String, VariableAccess> _conditionAccesses = new ConcurrentHashMap<>();
+    // whether conditions and one-sided actions are NanoPromela text, whose accesses can be read off
+    private final boolean _parsedConditions;
+    private final boolean _parsedInterleavings;
+    private final Set<Pair<List<L>,Map<String,Object>>> _initial = new HashSet<>();
+    private final StateStore<List<L>> _store = new StateStore<>();
+
+    /**
+     * @param capacity  the maximal number of messages in a buffered channel,
+     *                  or {@link #UNBOUNDED}.
+     * @param cacheSize the number of {@code (location, valuation)} pairs whose
+     *                  steps are memoized per component; 0 disables the caches.
+     */
+    public ChannelSystemTransitionSystem(ChannelSystem<L,A> cs, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs,
+                                         Set<InterleavingActDef> interleavingDefs, int capacity, int cacheSize) {
+        this(cs, actionDefs, conditionDefs, interleavingDefs, capacity, cacheSize, false);
+    }
+
+    /**
+     * @param initializationsRequired whether a component without
+     *                                initializations has no initial state, as
+     *                                in the transition system of a single
+     *                                program graph. Otherwise it starts with
+     *                                its variables unset, as channel system
+     *                                components do.
+     */
+    public ChannelSystemTransitionSystem(ChannelSystem<L,A> cs, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs,
+                                         Set<InterleavingActDef> interleavingDefs, int capacity, int cacheSize,
+                                         boolean initializationsRequired) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("Channel capacity must not be negative: " + capacity);
+        _interleavingDefs = interleavingDefs;
+        _capacity = capacity;
+        _parsedConditions = !conditionDefs.isEmpty() && conditionDefs.stream().allMatch(def -> def instanceof ParserBasedCondDef);
+        _parsedInterleavings = !interleavingDefs.isEmpty() && interleavingDefs.stream().allMatch(def -> def instanceof ParserBasedInterleavingActDef);
+        List<ProgramGraph<L,A>> pgs = cs.getProgramGraphs();
+        _graphs = new ArrayList<>(pgs);
+        for(ProgramGraph<L,A> pg:pgs)
+            _components.add(new ProgramGraphSteps<>(pg, actionDefs, conditionDefs, cacheSize, a -> !isOneSided(a)));
+
+        List<List<L>> locations = Collections.singletonList(Collections.emptyList());
+        List<List<String>> initializations = Collections.singletonList(Collections.emptyList());
+        for(ProgramGraph<L,A> pg:pgs) {
+            locations = combine(locations, pg.getInitialLocations(), Collections::singletonList);
+            Set<List<String>> inits = pg.getInitalizations();
+            if(!inits.isEmpty() || initializationsRequired)
+                initializations = combine(initializations, inits, init -> init);
+        }
+        for(List<String> init:initializations) {
+            Map<String,Object> valuation = new HashMap<>();
+            for(String str:init) {
+                ActionDef a = _components.get(0).matchingDef(str);
+                if(a == null)
+                    throw new FVMException("No action definition matches initialization " + str);
+                valuation = a.effect(valuation, str);
+            }
+            valuation = persist(Collections.emptyMap(), valuation);
+            for(List<L> l:locations)
+                _initial.add(_store.intern(Collections.unmodifiableList(l), valuation));
+        }
+    }
+
+    private static <T,U> List<List<T>> combine(List<List<T>> prefixes, Collection<U> options, Function<U, List<T>> part) {
+        List<List<T>> result = new ArrayList<>(prefixes.size() * options.size());
+        for(List<T> prefix:prefixes)
+            for(U option:options) {
+                List<T> l = new ArrayList<>(prefix);
+                l.addAll(part.apply(option));
+                result.add(l);
+            }
+        return result;
+    }
+
+    @Override
+    public void transitions(Pair<List<L>,Map<String,Object>> from, Consumer<Transition<Pair<List<L>,Map<String,Object>>,A>> sink) {
+        List<L> locations = from.first;
+        Map<String,Object> valuation = from.second;
+        List<List<PGTransition<L,A>>> handshakes = null;
+        for(int i = 0; i < _components.size(); i++) {
+            ProgramGraphSteps<L,A> component = _components.get(i);
+            for(ProgramGraphSteps.Step<L,A> step:component.steps(locations.get(i), valuation)) {
+                PGTransition<L,A> t = step.getTransition();
+                Map<String,Object> next = persist(valuation, step.getValuation());
+                if(next != null)
+                    sink.accept(new Transition<>(from, t.getAction(), state(locations, i, t.getTo(), -1, null, next)));
+            }
+            for(PGTransition<L,A> t:component.outgoing(locations.get(i))) {
+                if(isOneSided(t.getAction()) && component.holds(valuation, t.getCondition())) {
+                    if(handshakes == null)
+                        handshakes = new ArrayList<>(Collections.nCopies(_components.size(), Collections.<PGTransition<L,A>>emptyList()));
+                    if(handshakes.get(i).isEmpty())
+                        handshakes.set(i, new ArrayList<>());
+                    handshakes.get(i).add(t);
+                }
+            }
+        }
+        if(handshakes != null)
+            handshake(from, handshakes, sink);
+    }
+
+    /**
+     * Builds a partial-order reduced part of this system into a new, mutable
+     * system, with ample sets.
+     * <p>
+     * A location of a component is safe when none of its outgoing transitions
+     * is a handshake, touches a variable or channel that another component
+     * ever writes, writes one that another component ever reads, writes one
+     * of the {@code observed} variables, or enters or leaves an
+     * {@code observed} location. Accesses come from {@link VariableAccess} for
+     * actions and conditions run by the parser-based definitions; those run by
+     * other definitions may touch anything, which makes their locations unsafe.
+     * From a state where a component sits at a safe location and has enabled
+     * steps, only those steps are followed, unless one of them leads to an
+     * already visited state, which would risk ignoring the other components
+     * forever; then the next component is tried, and the state is fully
+     * expanded if none qualifies.
+     * <p>
+     * The result keeps every deadlock and the truth of every stutter-invariant
+     * property (e.g. LTL without next) over the observed variables and
+     * locations, but omits states and transitions of the full system.
+     *
+     * @param observed names of variables and locations a property may refer to.
+     */
+    public TransitionSystemImpl<Pair<List<L>,Map<String,Object>>,A,String> materializeReduced(Set<String> observed) {
+        FvmMetrics.Exploration run = metrics() == null ? null : metrics().startExploration();
+        try {
+            return materializeReduced(observed, run);
+        } finally {
+            if(run != null)
+                run.close();
+        }
+    }
+
+    private TransitionSystemImpl<Pair<List<L>,Map<String,Object>>,A,String> materializeReduced(Set<String> observed, FvmMetrics.Exploration run) {
+        List<Set<L>> safe = safeLocations(observed);
+        TransitionSystemImpl<Pair<List<L>,Map<String,Object>>,A,String> ts = new TransitionSystemImpl<>();
+        ts.setName(getName());
+        Set<Pair<List<L>,Map<String,Object>>> visited = new HashSet<>();
+        ArrayDeque<Pair<List<L>,Map<String,Object>>> worklist = new ArrayDeque<>();
+        for(Pair<List<L>,Map<String,Object>> s:getInitialStates())
+            if(visited.add(s)) {
+                addState(ts, s, run);
+                worklist.add(s);
+            }
+        List<Transition<Pair<List<L>,Map<String,Object>>,A>> successors = new ArrayList<>();
+        while(!worklist.isEmpty()) {
+            Pair<List<L>,Map<String,Object>> s = worklist.poll();
+            successors.clear();
+            if(!ample(s, safe, visited, successors))
+                transitions(s, successors::add);
+            for(Transition<Pair<List<L>,Map<String,Object>>,A> t:successors) {
+                if(visited.add(t.getTo())) {
+                    addState(ts, t.getTo(), run);
+                    worklist.add(t.getTo());
+                }
+                if(run != null)
+                    run.transition();
+                ts.addAction(t.getAction());
+                ts.addTransition(t);
+            }
+        }
+        for(Pair<List<L>,Map<String,Object>> s:getInitialStates())
+            ts.addInitialState(s);
+        return ts;
+    }
+
+    @Override
+    public void setMetrics(FvmMetrics metrics) {
+        super.setMetrics(metrics);
+        for(ProgramGraphSteps<L,A> component:_components)
+            component.setMetrics(metrics);
+    }
+
+    private void addState(TransitionSystemImpl<Pair<List<L>,Map<String,Object>>,A,String> ts, Pair<List<L>,Map<String,Object>> s,
+                          FvmMetrics.Exploration run) {
+        if(run != null)
+            run.state();
+        ts.addState(s);
+        for(String p:getLabel(s)) {
+            ts.addAtomicProposition(p);
+            ts.addToLabel(s, p);
+        }
+    }
+
+    /*
+     * Adds the ample set of s to sink, if some component qualifies.
+     */
+    private boolean ample(Pair<List<L>,Map<String,Object>> s, List<Set<L>> safe, Set<Pair<List<L>,Map<String,Object>>> visited,
+                          List<Transition<Pair<List<L>,Map<String,Object>>,A>> sink) {
+        for(int i = 0; i < _components.size(); i++) {
+            L location = s.first.get(i);
+            if(!safe.get(i).contains(location))
+                continue;
+            int size = sink.size();
+            boolean fresh = true;
+            for(ProgramGraphSteps.Step<L,A> step:_components.get(i).steps(location, s.second)) {
+                Map<String,Object> next = persist(s.second, step.getValuation());
+                if(next == null)
+                    continue;
+                PGTransition<L,A> t = step.getTransition();
+                Pair<List<L>,Map<String,Object>> to = state(s.first, i, t.getTo(), -1, null, next);
+                fresh &= !visited.contains(to);
+                sink.add(new Transition<>(s, t.getAction(), to));
+            }
+            if(fresh && sink.size() > size)
+                return true;
+            sink.subList(size, sink.size()).clear();
+        }
+        return false;
+    }
+
+    private List<Set<L>> safeLocations(Set<String> observed) {
+        int n = _graphs.size();
+        List<VariableAccess> totals = new ArrayList<>(n);
+        for(ProgramGraph<L,A> pg:_graphs) {
+            VariableAccess total = VariableAccess.NONE;
+            for(PGTransition<L,A> t:pg.getTransitions())
+                total = total.union(access(t));
+            totals.add(total);
+        }
+        List<Set<L>> safe = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) {
+            VariableAccess others = VariableAccess.NONE;
+            for(int j = 0; j < n; j++)
+                if(j != i)
+                    others = others.union(totals.get(j));
+            Set<L> locations = new HashSet<>();
+            for(L l:_graphs.get(i).getLocations())
+                if(isSafe(i, l, others, observed))
+                    locations.add(l);
+            safe.add(locations);
+        }
+        return safe;
+    }
+
+    private boolean isSafe(int component, L location, VariableAccess others, Set<String> observed) {
+        if(observed.contains(location.toString()))
+            return false;
+        for(PGTransition<L,A> t:_components.get(component).outgoing(location)) {
+            VariableAccess access = access(t);
+            if(isOneSided(t.getAction()) || observed.contains(t.getTo().toString())
+                    || !access.isIndependentOf(others) || access.writesAny(observed))
+                return false;
+        }
+        return true;
+    }
+
+    private VariableAccess access(PGTransition<L,A> t) {
+        VariableAccess action = _actionAccesses.computeIfAbsent(t.getAction(), this::actionAccess);
+        return action.union(_conditionAccesses.computeIfAbsent(t.getCondition(),
+                c -> _parsedConditions ? VariableAccess.ofCondition(c) : VariableAccess.UNKNOWN));
+    }
+
+    // the tokens only tell what an action does when a parser-based definition runs it
+    private VariableAccess actionAccess(A action) {
+        if(isOneSided(action))
+            return _parsedInterleavings ? VariableAccess.ofAction(action) : VariableAccess.UNKNOWN;
+        try {
+            if(_components.get(0).matchingDef(action) instanceof ParserBasedActDef)
+                return VariableAccess.ofAction(action);
+        } catch(RuntimeException e) {
+            // a definition that cannot tell
+        }
+        return VariableAccess.UNKNOWN;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handshake(Pair<List<L>,Map<String,Object>> from, List<List<PGTransition<L,A>>> candidates,
+                           Consumer<Transition<Pair<List<L>,Map<String,Object>>,A>> sink) {
+        for(int i = 0; i < candidates.size(); i++)
+            for(PGTransition<L,A> ti:candidates.get(i))
+                for(int j = i + 1; j < candidates.size(); j++)
+                    for(PGTransition<L,A> tj:candidates.get(j)) {
+                        String ai = ti.getAction().toString();
+                        String aj = tj.getAction().toString();
+                        if(!channel(ai).equals(channel(aj)) || reads(ai) == reads(aj))
+                            continue;
+                        String joined = ai + "|" + aj;
+                        InterleavingActDef def = joinedDef(joined);
+                        if(def == null)
+                            continue;
+                        // the effect of a joined action holds only the variable it assigns
+                        if(metrics() != null)
+                            metrics().effect();
+                        Map<String,Object> assigned = def.effect(from.second, joined);
+                        if(assigned == null)
+                            continue;
+                        Map<String,Object> next = new HashMap<>(from.second);
+                        next.putAll(assigned);
+                        sink.accept(new Transition<>(from, (A) joined, state(from.first, i, ti.getTo(), j, tj.getTo(), next)));
+                    }
+    }
+
+    private boolean isOneSided(Object action) {
+        return _oneSided.computeIfAbsent(action,
+                a -> a instanceof String && InterleavingActDef.isOneSidedAction(_interleavingDefs, (String) a));
+    }
+
+    private InterleavingActDef joinedDef(String joined) {
+        return _joinedDefs.computeIfAbsent(joined,
+                a -> _interleavingDefs.stream().filter(def -> def.isMatchingAction(a)).findFirst()).orElse(null);
+    }
+
+    private static String channel(String oneSided) {
+        return oneSided.substring(0, operator(oneSided)).trim();
+    }
+
+    private static boolean reads(String oneSided) {
+        return oneSided.charAt(operator(oneSided)) == '?';
+    }
+
+    private static int operator(String oneSided) {
+        for(int i = 0; i < oneSided.length(); i++)
+            if(oneSided.charAt(i) == '?' || oneSided.charAt(i) == '!')
+                return i;
+        throw new FVMException("Not a handshake action: " + oneSided);
+    }
+
+    /*
+     * Replaces the channel contents of after by persistent queues that share
+     * what they can with the queues of before. Null if a channel overflows.
+     */
+    private Map<String,Object> persist(Map<String,Object> before, Map<String,Object> after) {
+        Map<String,Object> result = after;
+        for(Map.Entry<String,Object> e:after.entrySet()) {
+            Object value = e.getValue();
+            if(!(value instanceof List))
+                continue;
+            PersistentQueue<Object> queue = value instanceof PersistentQueue
+                    ? castQueue(value)
+                    : queue(before.get(e.getKey()), (List<?>) value);
+            if(queue.size() > _capacity)
+                return null;
+            if(queue != value) {
+                if(result == after)
+                    result = new HashMap<>(after);
+                result.put(e.getKey(), queue);
+            }
+        }
+        return result;
+    }
+
+    private static PersistentQueue<Object> queue(Object previous, List<?> contents) {
+        if(previous instanceof PersistentQueue) {
+            PersistentQueue<Object> q = castQueue(previous);
+            if(contents.size() == q.size() + 1 && contents.subList(0, q.size()).equals(q))
+                return q.enqueue(contents.get(q.size()));
+            if(contents.size() == q.size() - 1) {
+                PersistentQueue<Object> rest = q.dequeue();
+                if(rest.equals(contents))
+                    return rest;
+            }
+            if(q.equals(contents))
+                return q;
+        }
+        return PersistentQueue.of(contents);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PersistentQueue<Object> castQueue(Object queue) {
+        return (PersistentQueue<Object>) queue;
+    }
+
+    private Pair<List<L>,Map<String,Object>> state(List<L> locations, int i, L li, int j, L lj, Map<String,Object> valuation) {
+        List<L> next = new ArrayList<>(locations);
+        next.set(i, li);
+        if(j >= 0)
+            next.set(j, lj);
+        return _store.intern(Collections.unmodifiableList(next), valuation);
+    }
+
+    @Override
+    public Set<String> getLabel(Pair<List<L>,Map<String,Object>> s) {
+        Set<String> label = _store.valuationLabel(s);
+        for(L l:s.first)
+            label.add(l.toString());
+        return label;
+    }
+
+    @Override
+    public Set<Pair<List<L>,Map<String,Object>>> getInitialStates() {
+        return Collections.unmodifiableSet(_initial);
+    }
+
+    // the alphabet is whatever the reachable transitions use
+    @Override
+    public Set<A> getActions() {
+        return materialized().getActions();
+    }
+
+    @Override
+    public Set<String> getAtomicPropositions() {
+        return materialized().getAtomicPropositions();
+    }
+
+    @Override
+    protected Set<A> declaredActions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    protected Set<String> declaredAtomicPropositions() {
+        return Collections.emptySet();
+    }
+}
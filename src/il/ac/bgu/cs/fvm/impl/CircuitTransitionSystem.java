@@ -0,0 +1,425 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.circuits.Circuit;
+import il.ac.bgu.cs.fvm.exceptions.FVMException;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The transition system of a circuit, evaluated lazily.
+ * <p>
+ * Inputs and registers are encoded as bits of {@code long} words, and
+ * {@link Circuit#updateRegisters} and {@link Circuit#computeOutputs} are called
+ * at most once per {@code (input, register)} word pair. States and actions are
+ * handed out as read-only map views over those words, so no per-state
+ * {@code HashMap} is built unless the caller copies one.
+ * <p>
+ * Since every state has one successor per input word, the reachable states
+ * are all inputs paired with the reachable register words. {@link #getStates}
+ * and {@link #getInitialStates} are views over that product and are
+ * computed without generating any transition.
+ */
+public class CircuitTransitionSystem extends LazyTransitionSystem<Pair<Map<String,Boolean>,Map<String,Boolean>>,Map<String,Boolean>,Object> {
+
+    private final Circuit _circuit;
+    private final Words _inputs;
+    private final Words _registers;
+    private final Words _outputs;
+    private final long _inputCount;
+
+    private final WordCache _next = new WordCache();
+    private final WordCache _outputWords = new WordCache();
+    private Set<Long> _reachableRegisters;
+    private Set<Object> _atomicPropositions;
+
+    public CircuitTransitionSystem(Circuit c) {
+        _circuit = c;
+        _inputs = new Words(c.getInputPortNames());
+        _registers = new Words(c.getRegisterNames());
+        _outputs = new Words(c.getOutputPortNames());
+        if(_inputs.size() + _registers.size() > 62)
+            throw new FVMException("Circuit has too many inputs and registers to encode: "
+                    + _inputs.size() + " + " + _registers.size());
+        if(_outputs.size() > 63)
+            throw new FVMException("Circuit has too many outputs to encode: " + _outputs.size());
+        _inputCount = 1L << _inputs.size();
+    }
+
+    private long key(long in, long reg) {
+        return reg << _inputs.size() | in;
+    }
+
+    private long nextRegisters(long in, long reg) {
+        return _next.computeIfAbsent(key(in, reg),
+                k -> _registers.encodeTrue(_circuit.updateRegisters(_inputs.map(in), _registers.map(reg))));
+    }
+
+    private long outputs(long in, long reg) {
+        return _outputWords.computeIfAbsent(key(in, reg),
+                k -> _outputs.encodeTrue(_circuit.computeOutputs(_inputs.map(in), _registers.map(reg))));
+    }
+
+    private Pair<Map<String,Boolean>,Map<String,Boolean>> state(long in, long reg) {
+        return new Pair<>(_inputs.map(in), _registers.map(reg));
+    }
+
+    @Override
+    public void transitions(Pair<Map<String,Boolean>,Map<String,Boolean>> from, Consumer<Transition<Pair<Map<String,Boolean>,Map<String,Boolean>>,Map<String,Boolean>>> sink) {
+        long reg = nextRegisters(_inputs.encodeStrict(from.first), _registers.encodeStrict(from.second));
+        Map<String,Boolean> registers = _registers.map(reg);
+        for(long in = 0; in < _inputCount; in++) {
+            Map<String,Boolean> input = _inputs.map(in);
+            sink.accept(new Transition<>(from, input, new Pair<>(input, registers)));
+        }
+    }
+
+    @Override
+    public Set<Object> getLabel(Pair<Map<String,Boolean>,Map<String,Boolean>> s) {
+        long in = _inputs.encodeStrict(s.first);
+        long reg = _registers.encodeStrict(s.second);
+        Set<Object> label = new HashSet<>();
+        _inputs.addTrue(in, label);
+        _registers.addTrue(reg, label);
+        _outputs.addTrue(outputs(in, reg), label);
+        return label;
+    }
+
+    /**
+     * The register words reachable from the all-false registers, found by an
+     * iterative search over register words alone.
+     */
+    public synchronized Set<Long> reachableRegisters() {
+        if(_reachableRegisters == null) {
+            Set<Long> visited = new HashSet<>();
+            ArrayDeque<Long> stack = new ArrayDeque<>();
+            visited.add(0L);
+            stack.push(0L);
+            while(!stack.isEmpty()) {
+                long reg = stack.pop();
+                for(long in = 0; in < _inputCount; in++) {
+                    long next = nextRegisters(in, reg);
+                    if(visited.add(next))
+                        stack.push(next);
+                }
+            }
+            _reachableRegisters = Collections.unmodifiableSet(visited);
+        }
+        return _reachableRegisters;
+    }
+
+    @Override
+    public Set<Pair<Map<String,Boolean>,Map<String,Boolean>>> getInitialStates() {
+        return new StateView(Collections.singleton(0L));
+    }
+
+    @Override
+    public Set<Pair<Map<String,Boolean>,Map<String,Boolean>>> getStates() {
+        return new StateView(reachableRegisters());
+    }
+
+    @Override
+    public Set<Map<String,Boolean>> getActions() {
+        return new AbstractSet<Map<String,Boolean>>() {
+            @Override
+            public Iterator<Map<String,Boolean>> iterator() {
+                return new WordIterator<>(_inputCount, _inputs::map);
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Map && _inputs.encode((Map<?,?>) o) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(_inputCount, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * The names that are true in at least one reachable state. Computing them
+     * evaluates the outputs of every reachable state, but generates no
+     * transition.
+     */
+    @Override
+    public synchronized Set<Object> getAtomicPropositions() {
+        if(_atomicPropositions == null) {
+            Set<Object> aps = new HashSet<>();
+            long outputs = 0;
+            long registers = 0;
+            for(long reg:reachableRegisters()) {
+                registers |= reg;
+                for(long in = 0; in < _inputCount; in++)
+                    outputs |= outputs(in, reg);
+            }
+            _inputs.addTrue(_inputCount - 1, aps);
+            _registers.addTrue(registers, aps);
+            _outputs.addTrue(outputs, aps);
+            _atomicPropositions = Collections.unmodifiableSet(aps);
+        }
+        return _atomicPropositions;
+    }
+
+    // the states made of the given register words and any input word
+    private class StateView extends AbstractSet<Pair<Map<String,Boolean>,Map<String,Boolean>>> {
+        private final Set<Long> _regs;
+
+        StateView(Set<Long> regs) {
+            _regs = regs;
+        }
+
+        @Override
+        public Iterator<Pair<Map<String,Boolean>,Map<String,Boolean>>> iterator() {
+            Iterator<Long> regs = _regs.iterator();
+            return new Iterator<Pair<Map<String,Boolean>,Map<String,Boolean>>>() {
+                private long _reg;
+                private long _in = _inputCount;
+
+                @Override
+                public boolean hasNext() {
+                    return _in < _inputCount || regs.hasNext();
+                }
+
+                @Override
+                public Pair<Map<String,Boolean>,Map<String,Boolean>> next() {
+                    if(_in == _inputCount) {
+                        _reg = regs.next();
+                        _in = 0;
+                    }
+                    return state(_in++, _reg);
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Pair))
+                return false;
+            Pair<?,?> p = (Pair<?,?>) o;
+            if(!(p.first instanceof Map) || !(p.second instanceof Map))
+                return false;
+            long reg = _registers.encode((Map<?,?>) p.second);
+            return _inputs.encode((Map<?,?>) p.first) >= 0 && reg >= 0 && _regs.contains(reg);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(_inputCount * _regs.size(), Integer.MAX_VALUE);
+        }
+    }
+
+    private static class WordIterator<T> implements Iterator<T> {
+        private final long _count;
+        private final LongFunction<T> _decode;
+        private long _next;
+
+        WordIterator(long count, LongFunction<T> decode) {
+            _count = count;
+            _decode = decode;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _next < _count;
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            return _decode.apply(_next++);
+        }
+    }
+
+    /**
+     * Assigns a bit to every name of a fixed set of names.
+     */
+    private static class Words {
+        private final String[] _names;
+        private final Map<String,Integer> _bits = new HashMap<>();
+
+        Words(Set<String> names) {
+            _names = names.toArray(new String[names.size()]);
+            for(int i = 0; i < _names.length; i++)
+                _bits.put(_names[i], i);
+        }
+
+        int size() {
+            return _names.length;
+        }
+
+        /**
+         * @return the word of a map assigning a boolean to exactly these
+         * names, or -1 for any other map.
+         */
+        long encode(Map<?,?> values) {
+            if(values instanceof WordMap && ((WordMap) values)._words == this)
+                return ((WordMap) values)._word;
+            if(values.size() != _names.length)
+                return -1;
+            long word = 0;
+            for(int i = 0; i < _names.length; i++) {
+                Object value = values.get(_names[i]);
+                if(!(value instanceof Boolean))
+                    return -1;
+                if((Boolean) value)
+                    word |= 1L << i;
+            }
+            return word;
+        }
+
+        // the word of the names mapped to true, as the circuit reports them
+        long encodeTrue(Map<String,Boolean> values) {
+            long word = 0;
+            for(int i = 0; i < _names.length; i++)
+                if(Boolean.TRUE.equals(values.get(_names[i])))
+                    word |= 1L << i;
+            return word;
+        }
+
+        long encodeStrict(Map<?,?> values) {
+            long word = encode(values);
+            if(word < 0)
+                throw new FVMException("Not a valuation of " + _bits.keySet() + ": " + values);
+            return word;
+        }
+
+        Map<String,Boolean> map(long word) {
+            return new WordMap(this, word);
+        }
+
+        void addTrue(long word, Collection<Object> names) {
+            for(int i = 0; i < _names.length; i++)
+                if((word & 1L << i) != 0)
+                    names.add(_names[i]);
+        }
+    }
+
+    /**
+     * A read-only map view of a word.
+     */
+    private static final class WordMap extends AbstractMap<String,Boolean> {
+        private final Words _words;
+        private final long _word;
+        private final int _hash;
+
+        WordMap(Words words, long word) {
+            _words = words;
+            _word = word;
+            int hash = 0;
+            for(int i = 0; i < words._names.length; i++)
+                hash += words._names[i].hashCode() ^ Boolean.hashCode((word & 1L << i) != 0);
+            _hash = hash;
+        }
+
+        @Override
+        public Boolean get(Object key) {
+            Integer bit = _words._bits.get(key);
+            return bit == null ? null : (_word & 1L << bit) != 0;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return _words._bits.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return _words._names.length;
+        }
+
+        @Override
+        public Set<Entry<String,Boolean>> entrySet() {
+            return new AbstractSet<Entry<String,Boolean>>() {
+                @Override
+                public Iterator<Entry<String,Boolean>> iterator() {
+                    return new WordIterator<>(_words._names.length,
+                            i -> new SimpleImmutableEntry<>(_words._names[(int) i], (_word & 1L << i) != 0));
+                }
+
+                @Override
+                public int size() {
+                    return _words._names.length;
+                }
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(o instanceof WordMap && ((WordMap) o)._words == _words)
+                return ((WordMap) o)._word == _word;
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+    }
+
+    /**
+     * An open-addressing map from non-negative {@code long} keys to
+     * {@code long} values.
+     */
+    private static class WordCache {
+        private static final long EMPTY = -1;
+
+        private long[] _keys = newKeys(64);
+        private long[] _values = new long[64];
+        private int _size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        long computeIfAbsent(long key, LongUnaryOperator compute) {
+            synchronized(this) {
+                int slot = find(_keys, key);
+                if(_keys[slot] == key)
+                    return _values[slot];
+            }
+            // computed outside the lock; a racing thread computes the same value
+            long value = compute.applyAsLong(key);
+            synchronized(this) {
+                int slot = find(_keys, key);
+                if(_keys[slot] != key) {
+                    _keys[slot] = key;
+                    _values[slot] = value;
+                    if(++_size * 2 > _keys.length)
+                        grow();
+                }
+            }
+            return value;
+        }
+
+        private static int find(long[] keys, long key) {
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while(keys[slot] != EMPTY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            long[] keys = newKeys(_keys.length * 2);
+            long[] values = new long[keys.length];
+            for(int i = 0; i < _keys.length; i++) {
+                if(_keys[i] != EMPTY) {
+                    int slot = find(keys, _keys[i]);
+                    keys[slot] = _keys[i];
+                    values[slot] = _values[i];
+                }
+            }
+            _keys = keys;
+            _values = values;
+        }
+    }
+}
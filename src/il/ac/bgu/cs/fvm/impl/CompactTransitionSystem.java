@@ -0,0 +1,464 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.exceptions.StateNotFoundException;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * An immutable transition system, built by {@link TransitionSystemBuilder}.
+ * <p>
+ * States, actions and propositions are numbered densely, and the numbered
+ * system is kept in an {@link IntTransitionSystem}, which algorithms can use
+ * directly through {@link #core}. All getters return read-only views that
+ * translate between the core and the objects.
+ * <p>
+ * All mutators except {@link #setName} throw {@link UnsupportedOperationException}.
+ */
+public class CompactTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> {
+
+    private String _name;
+    private final Map<STATE, Integer> _stateIds;
+    private final List<STATE> _states;
+    private final Map<ACTION, Integer> _actionIds;
+    private final List<ACTION> _actions;
+    private final Map<ATOMIC_PROPOSITION, Integer> _apIds;
+    private final List<ATOMIC_PROPOSITION> _aps;
+    private final IntTransitionSystem _core;
+    private int _hash;
+
+    CompactTransitionSystem(String name, Map<STATE, Integer> stateIds, List<STATE> states,
+                            Map<ACTION, Integer> actionIds, List<ACTION> actions,
+                            Map<ATOMIC_PROPOSITION, Integer> apIds, List<ATOMIC_PROPOSITION> aps,
+                            int[] transitions, int[] initial, int[] labels) {
+        _name = name;
+        _stateIds = stateIds;
+        _states = states;
+        _actionIds = actionIds;
+        _actions = actions;
+        _apIds = apIds;
+        _aps = aps;
+        _core = new IntTransitionSystem(states.size(), actions.size(), aps.size(), transitions, initial, labels);
+    }
+
+    /**
+     * @return the int core this system presents; its state, action and
+     * proposition numbers are those of {@link #stateId}, {@link #actionId}
+     * and {@link #apId}.
+     */
+    public IntTransitionSystem core() {
+        return _core;
+    }
+
+    /**
+     * @return the number of {@code s}, or -1 if it is not a state.
+     */
+    public int stateId(Object s) {
+        Integer id = _stateIds.get(s);
+        return id == null ? -1 : id;
+    }
+
+    public int actionId(Object a) {
+        Integer id = _actionIds.get(a);
+        return id == null ? -1 : id;
+    }
+
+    public int apId(Object p) {
+        Integer id = _apIds.get(p);
+        return id == null ? -1 : id;
+    }
+
+    public STATE state(int id) {
+        return _states.get(id);
+    }
+
+    public ACTION action(int id) {
+        return _actions.get(id);
+    }
+
+    public ATOMIC_PROPOSITION ap(int id) {
+        return _aps.get(id);
+    }
+
+    /**
+     * @return a read-only view of the states numbered in {@code ids}.
+     */
+    public Set<STATE> states(BitSet ids) {
+        return new AbstractSet<STATE>() {
+            @Override
+            public Iterator<STATE> iterator() {
+                return ids.stream().mapToObj(_states::get).iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                int id = stateId(o);
+                return id >= 0 && ids.get(id);
+            }
+
+            @Override
+            public int size() {
+                return ids.cardinality();
+            }
+        };
+    }
+
+    /**
+     * @return the numbers of those of {@code states} that are states here.
+     */
+    public BitSet stateIds(Collection<?> states) {
+        BitSet ids = new BitSet(_states.size());
+        for(Object s:states) {
+            int id = stateId(s);
+            if(id >= 0)
+                ids.set(id);
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> outgoing(STATE s) {
+        int id = stateId(s);
+        if(id < 0)
+            return Collections.emptySet();
+        return new Slice<>(_core.outStart(id), _core.outStart(id + 1),
+                i -> new Transition<>(s, _actions.get(_core.outAction(i)), _states.get(_core.outTarget(i))));
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> incoming(STATE s) {
+        int id = stateId(s);
+        if(id < 0)
+            return Collections.emptySet();
+        return new Slice<>(_core.inStart(id), _core.inStart(id + 1),
+                i -> new Transition<>(_states.get(_core.inSource(i)), _actions.get(_core.inAction(i)), s));
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        int id = stateId(s);
+        int action = actionId(a);
+        if(id < 0 || action < 0)
+            return Collections.emptySet();
+        return new Slice<>(_core.outStart(id, action), _core.outStart(id, action + 1), i -> _states.get(_core.outTarget(i)));
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        int id = stateId(s);
+        int action = actionId(a);
+        if(id < 0 || action < 0)
+            return Collections.emptySet();
+        return new Slice<>(_core.inStart(id, action), _core.inStart(id, action + 1), i -> _states.get(_core.inSource(i)));
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public void setName(String name) {
+        _name = name;
+    }
+
+    @Override
+    public Set<ACTION> getActions() {
+        return new IdSet<>(_actionIds, _actions);
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getAtomicPropositions() {
+        return new IdSet<>(_apIds, _aps);
+    }
+
+    @Override
+    public Set<STATE> getStates() {
+        return new IdSet<>(_stateIds, _states);
+    }
+
+    @Override
+    public Set<STATE> getInitialStates() {
+        return states(_core.initialStates());
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> getTransitions() {
+        return new AbstractSet<Transition<STATE,ACTION>>() {
+            @Override
+            public Iterator<Transition<STATE,ACTION>> iterator() {
+                return new Iterator<Transition<STATE,ACTION>>() {
+                    private int _state;
+                    private int _next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return _next < _core.transitionCount();
+                    }
+
+                    @Override
+                    public Transition<STATE,ACTION> next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        while(_core.outStart(_state + 1) <= _next)
+                            _state++;
+                        int i = _next++;
+                        return new Transition<>(_states.get(_state), _actions.get(_core.outAction(i)), _states.get(_core.outTarget(i)));
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if(!(o instanceof Transition))
+                    return false;
+                Transition<?,?> t = (Transition<?,?>) o;
+                int from = stateId(t.getFrom());
+                int to = stateId(t.getTo());
+                int action = actionId(t.getAction());
+                return from >= 0 && to >= 0 && action >= 0 && _core.hasTransition(from, action, to);
+            }
+
+            @Override
+            public int size() {
+                return _core.transitionCount();
+            }
+        };
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getLabel(STATE s) {
+        int id = stateId(s);
+        if(id < 0)
+            throw new StateNotFoundException(s);
+        return label(id);
+    }
+
+    private Set<ATOMIC_PROPOSITION> label(int id) {
+        return new AbstractSet<ATOMIC_PROPOSITION>() {
+            @Override
+            public Iterator<ATOMIC_PROPOSITION> iterator() {
+                List<ATOMIC_PROPOSITION> label = new ArrayList<>(size());
+                _core.forEachLabel(id, p -> label.add(_aps.get(p)));
+                return Collections.unmodifiableList(label).iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                int p = apId(o);
+                return p >= 0 && _core.hasLabel(id, p);
+            }
+
+            @Override
+            public int size() {
+                return _core.labelSize(id);
+            }
+        };
+    }
+
+    @Override
+    public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
+        return new AbstractMap<STATE, Set<ATOMIC_PROPOSITION>>() {
+            @Override
+            public Set<Entry<STATE, Set<ATOMIC_PROPOSITION>>> entrySet() {
+                return new AbstractSet<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                    @Override
+                    public Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>> iterator() {
+                        Iterator<STATE> states = _states.iterator();
+                        return new Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                            private int _next;
+
+                            @Override
+                            public boolean hasNext() {
+                                return states.hasNext();
+                            }
+
+                            @Override
+                            public Entry<STATE, Set<ATOMIC_PROPOSITION>> next() {
+                                return new SimpleImmutableEntry<>(states.next(), label(_next++));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return _states.size();
+                    }
+                };
+            }
+
+            @Override
+            public Set<ATOMIC_PROPOSITION> get(Object key) {
+                int id = stateId(key);
+                return id < 0 ? null : label(id);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return stateId(key) >= 0;
+            }
+        };
+    }
+
+    @Override
+    public void addAction(ACTION action) {
+        throw immutable();
+    }
+
+    @Override
+    public void addInitialState(STATE state) {
+        throw immutable();
+    }
+
+    @Override
+    public void addState(STATE state) {
+        throw immutable();
+    }
+
+    @Override
+    public void addTransition(Transition<STATE,ACTION> t) {
+        throw immutable();
+    }
+
+    @Override
+    public void addAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw immutable();
+    }
+
+    @Override
+    public void addToLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeAction(ACTION action) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeInitialState(STATE state) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeState(STATE state) {
+        throw immutable();
+    }
+
+    @Override
+    public void removeTransition(Transition<STATE,ACTION> t) {
+        throw immutable();
+    }
+
+    private UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException("CompactTransitionSystem is immutable");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o == this)
+            return true;
+        if(!(o instanceof TransitionSystem))
+            return false;
+        if(TransitionSystemImpl.hasCachedHash(o) && hashCode() != o.hashCode())
+            return false;
+        TransitionSystem<?,?,?> ts = (TransitionSystem<?,?,?>) o;
+        return Objects.equals(getLabelingFunction(), ts.getLabelingFunction())
+                && Objects.equals(getTransitions(), ts.getTransitions())
+                && Objects.equals(getStates(), ts.getStates())
+                && Objects.equals(getInitialStates(), ts.getInitialStates())
+                && Objects.equals(getActions(), ts.getActions())
+                && Objects.equals(getAtomicPropositions(), ts.getAtomicPropositions())
+                && Objects.equals(_name, ts.getName());
+    }
+
+    // same combination as TransitionSystemImpl, so equal systems hash alike
+    @Override
+    public int hashCode() {
+        if(_hash == 0) {
+            final int prime = 17;
+            int result = 1;
+            result = prime * result + getLabelingFunction().hashCode();
+            result = prime * result + getTransitions().hashCode();
+            result = prime * result + getStates().hashCode();
+            result = prime * result + getInitialStates().hashCode();
+            result = prime * result + getActions().hashCode();
+            result = prime * result + getAtomicPropositions().hashCode();
+            _hash = result;
+        }
+        return 17 * _hash + (_name == null ? 0 : _name.hashCode());
+    }
+
+    private static class Slice<T> extends AbstractSet<T> {
+        private final int _from;
+        private final int _to;
+        private final IntFunction<T> _decode;
+
+        Slice(int from, int to, IntFunction<T> decode) {
+            _from = from;
+            _to = to;
+            _decode = decode;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int _next = _from;
+
+                @Override
+                public boolean hasNext() {
+                    return _next < _to;
+                }
+
+                @Override
+                public T next() {
+                    if(!hasNext())
+                        throw new NoSuchElementException();
+                    return _decode.apply(_next++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return _to - _from;
+        }
+    }
+
+    private static class IdSet<T> extends AbstractSet<T> {
+        private final Map<T, Integer> _ids;
+        private final List<T> _objects;
+
+        IdSet(Map<T, Integer> ids, List<T> objects) {
+            _ids = ids;
+            _objects = objects;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Collections.unmodifiableList(_objects).iterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return _ids.containsKey(o);
+        }
+
+        @Override
+        public int size() {
+            return _objects.size();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaLexer;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser.BoolexprContext;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser.IntexprContext;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser.StmtContext;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.*;
+
+/**
+ * NanoPromela conditions and actions compiled to closures over slot arrays:
+ * every variable and channel name gets an index, a valuation is loaded into
+ * an {@code Object[]} once per state, and the compiled code reads and writes
+ * array cells instead of interpreting text against a map.
+ * <p>
+ * The semantics are those of {@link il.ac.bgu.cs.fvm.nanopromela.Evaluator},
+ * quirks included: {@code ^} is exclusive or, {@code a % b} is
+ * {@code (a + b) % b}, unset variables read as 0, the assignments of an
+ * {@code atomic} block all read the valuation before the block, reading from
+ * an empty channel is disabled, and compound statements have no effect
+ * definition. Channels held as {@link PersistentQueue}s are updated in place
+ * of being copied.
+ * <p>
+ * Compile everything before loading valuations, since loading only fills the
+ * slots known at that time. Compiled code is thread safe.
+ */
+public final class CompiledNanoPromela {
+
+    public interface Condition {
+        boolean test(Object[] slots);
+    }
+
+    public interface Action {
+        /**
+         * @return the slots after the action, {@code slots} itself if it
+         * changes nothing, or {@code null} if it is disabled.
+         */
+        Object[] apply(Object[] slots);
+    }
+
+    private interface IntExpression {
+        int eval(Object[] slots);
+    }
+
+    private static final Condition TRUE = s -> true;
+    private static final Action SKIP = s -> s;
+    private static final Action DISABLED = s -> null;
+
+    private final Map<String, Integer> _slots = new HashMap<>();
+    private final List<String> _names = new ArrayList<>();
+
+    /**
+     * @return the compiled form of {@code condition}, or {@code null} if it is
+     * not a NanoPromela boolean expression.
+     */
+    public Condition condition(String condition) {
+        if(condition.isEmpty())
+            return TRUE;
+        NanoPromelaParser parser = parser(condition);
+        try {
+            BoolexprContext ctx = parser.boolexpr();
+            // the interpreter ignores trailing text; leave such conditions to it
+            if(parser.getCurrentToken().getType() != Token.EOF)
+                return null;
+            return bool(ctx);
+        } catch(ParseCancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the compiled form of {@code action}, or {@code null} if it is
+     * not a NanoPromela statement.
+     */
+    public Action action(Object action) {
+        if(!(action instanceof String))
+            return null;
+        if(action.equals(""))
+            return SKIP;
+        try {
+            return statement(parser((String) action).spec().stmt());
+        } catch(ParseCancellationException e) {
+            return null;
+        }
+    }
+
+    public Object[] load(Map<String, Object> valuation) {
+        Object[] slots = new Object[_names.size()];
+        for(int i = 0; i < slots.length; i++)
+            slots[i] = valuation.get(_names.get(i));
+        return slots;
+    }
+
+    /**
+     * @return {@code valuation} with the slots that changed from
+     * {@code before} to {@code after} written back.
+     */
+    public Map<String, Object> store(Map<String, Object> valuation, Object[] before, Object[] after) {
+        if(after == before)
+            return valuation;
+        Map<String, Object> result = new HashMap<>(valuation);
+        for(int i = 0; i < after.length; i++)
+            if(after[i] != before[i])
+                result.put(_names.get(i), after[i]);
+        return result;
+    }
+
+    private static NanoPromelaParser parser(String text) {
+        NanoPromelaLexer lexer = new NanoPromelaLexer(new ANTLRInputStream(text));
+        lexer.removeErrorListeners();
+        NanoPromelaParser parser = new NanoPromelaParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        return parser;
+    }
+
+    private int slot(String name) {
+        return _slots.computeIfAbsent(name, n -> {
+            _names.add(n);
+            return _names.size() - 1;
+        });
+    }
+
+    private Action statement(StmtContext stmt) {
+        if(stmt.skipstmt() != null)
+            return SKIP;
+        if(stmt.assstmt() != null) {
+            int target = slot(stmt.assstmt().VARNAME().getText());
+            IntExpression value = integer(stmt.assstmt().intexpr());
+            return s -> {
+                Object[] next = s.clone();
+                next[target] = value.eval(s);
+                return next;
+            };
+        }
+        if(stmt.atomicstmt() != null) {
+            int[] targets = new int[stmt.atomicstmt().VARNAME().size()];
+            IntExpression[] values = new IntExpression[targets.length];
+            for(int i = 0; i < targets.length; i++) {
+                targets[i] = slot(stmt.atomicstmt().VARNAME(i).getText());
+                values[i] = integer(stmt.atomicstmt().intexpr(i));
+            }
+            return s -> {
+                Object[] next = s.clone();
+                for(int i = 0; i < targets.length; i++)
+                    next[targets[i]] = values[i].eval(s);
+                return next;
+            };
+        }
+        if(stmt.chanwritestmt() != null) {
+            int channel = slot(stmt.chanwritestmt().CHANNAME().getText());
+            IntExpression value = integer(stmt.chanwritestmt().intexpr());
+            return s -> {
+                Object[] next = s.clone();
+                next[channel] = enqueue(s[channel], value.eval(s));
+                return next;
+            };
+        }
+        if(stmt.chanreadstmt() != null) {
+            int channel = slot(stmt.chanreadstmt().CHANNAME().getText());
+            int target = slot(stmt.chanreadstmt().VARNAME().getText());
+            return s -> {
+                List<?> contents = (List<?>) s[channel];
+                if(contents == null || contents.isEmpty())
+                    return null;
+                Object[] next = s.clone();
+                if(contents instanceof PersistentQueue) {
+                    PersistentQueue<?> queue = (PersistentQueue<?>) contents;
+                    next[channel] = queue.dequeue();
+                    next[target] = (Integer) queue.peek();
+                } else {
+                    Vector<Object> rest = new Vector<>(contents);
+                    next[target] = (Integer) rest.remove(0);
+                    next[channel] = rest;
+                }
+                return next;
+            };
+        }
+        return DISABLED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object enqueue(Object channel, int value) {
+        if(channel instanceof PersistentQueue)
+            return ((PersistentQueue<Object>) channel).enqueue(value);
+        Vector<Object> contents = channel == null ? new Vector<>() : new Vector<>((List<?>) channel);
+        contents.add(value);
+        return contents;
+    }
+
+    private Condition bool(BoolexprContext e) {
+        if(e.NOT() != null) {
+            Condition operand = bool(e.boolexpr(0));
+            return s -> !operand.test(s);
+        }
+        if(e.AND() != null) {
+            Condition left = bool(e.boolexpr(0)), right = bool(e.boolexpr(1));
+            return s -> left.test(s) && right.test(s);
+        }
+        if(e.OR() != null) {
+            Condition left = bool(e.boolexpr(0)), right = bool(e.boolexpr(1));
+            return s -> left.test(s) || right.test(s);
+        }
+        if(e.TRUE() != null)
+            return TRUE;
+        if(e.FALSE() != null)
+            return s -> false;
+        if(e.intexpr().size() == 2) {
+            IntExpression left = integer(e.intexpr(0)), right = integer(e.intexpr(1));
+            if(e.LTEQ() != null)
+                return s -> left.eval(s) <= right.eval(s);
+            if(e.GTEQ() != null)
+                return s -> left.eval(s) >= right.eval(s);
+            if(e.LT() != null)
+                return s -> left.eval(s) < right.eval(s);
+            if(e.GT() != null)
+                return s -> left.eval(s) > right.eval(s);
+            if(e.EQ() != null)
+                return s -> left.eval(s) == right.eval(s);
+            return s -> left.eval(s) != right.eval(s);
+        }
+        return bool(e.boolexpr(0));
+    }
+
+    private IntExpression integer(IntexprContext e) {
+        if(e.POW() != null) {
+            IntExpression left = integer(e.intexpr(0)), right = integer(e.intexpr(1));
+            return s -> left.eval(s) ^ right.eval(s);
+        }
+        if(e.intexpr().size() == 2) {
+            IntExpression left = integer(e.intexpr(0)), right = integer(e.intexpr(1));
+            if(e.MULT() != null)
+                return s -> left.eval(s) * right.eval(s);
+            if(e.DIV() != null)
+                return s -> left.eval(s) / right.eval(s);
+            if(e.MOD() != null)
+                return s -> {
+                    int divisor = right.eval(s);
+                    return (left.eval(s) + divisor) % divisor;
+                };
+            if(e.PLUS() != null)
+                return s -> left.eval(s) + right.eval(s);
+            return s -> left.eval(s) - right.eval(s);
+        }
+        if(e.MINUS() != null) {
+            IntExpression operand = integer(e.intexpr(0));
+            return s -> -operand.eval(s);
+        }
+        if(e.INT() != null) {
+            int value = Integer.parseInt(e.getText());
+            return s -> value;
+        }
+        if(e.VARNAME() != null) {
+            int slot = slot(e.getText());
+            return s -> s[slot] == null ? 0 : (Integer) s[slot];
+        }
+        if(e.CHANNAME() != null) {
+            int slot = slot(e.CHANNAME().getText());
+            return s -> s[slot] == null ? 0 : ((List<?>) s[slot]).size();
+        }
+        return integer(e.intexpr(0));
+    }
+}
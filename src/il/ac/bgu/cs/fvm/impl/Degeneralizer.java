@@ -0,0 +1,63 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.automata.Automaton;
+import il.ac.bgu.cs.fvm.automata.MultiColorAutomaton;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+
+/**
+ * Turns a generalized Büchi automaton into a Büchi automaton with the
+ * counter construction.
+ * <p>
+ * State {@code <q,i>} waits for colour number {@code i}: it moves like
+ * {@code q}, to copy {@code i+1} (modulo the number of colours) when
+ * {@code q} has that colour and to copy {@code i} otherwise. The accepting
+ * states are the states of copy 0 that have the first colour. Without
+ * colours every infinite run accepts, and every state of the result is
+ * accepting. Only copies reachable from an initial state are built.
+ */
+public final class Degeneralizer {
+
+    private Degeneralizer() {
+    }
+
+    public static <S, L> Automaton<Pair<S, Integer>, L> degeneralize(MultiColorAutomaton<S, L> gnba) {
+        List<Integer> order = new ArrayList<>(gnba.getColors());
+        Collections.sort(order);
+        List<Set<S>> colours = new ArrayList<>(order.size());
+        for(int c:order)
+            colours.add(gnba.getAcceptingStates(c));
+        int copies = Math.max(1, colours.size());
+
+        Automaton<Pair<S, Integer>, L> nba = new Automaton<>();
+        Map<S, Map<Set<L>, Set<S>>> delta = gnba.getTransitions();
+        Set<Pair<S, Integer>> seen = new HashSet<>();
+        ArrayDeque<Pair<S, Integer>> worklist = new ArrayDeque<>();
+        for(S q:gnba.getInitialStates()) {
+            Pair<S, Integer> initial = new Pair<>(q, 0);
+            nba.setInitial(initial);
+            if(seen.add(initial))
+                worklist.add(initial);
+        }
+        while(!worklist.isEmpty()) {
+            Pair<S, Integer> from = worklist.poll();
+            nba.addState(from);
+            boolean coloured = colours.isEmpty() || colours.get(from.second).contains(from.first);
+            if(coloured && from.second == 0)
+                nba.setAccepting(from);
+            int copy = coloured ? (from.second + 1) % copies : from.second;
+            Map<Set<L>, Set<S>> moves = delta.get(from.first);
+            if(moves == null)
+                continue;
+            for(Map.Entry<Set<L>, Set<S>> move:moves.entrySet())
+                for(S q:move.getValue()) {
+                    Pair<S, Integer> to = new Pair<>(q, copy);
+                    nba.addTransition(from, move.getKey(), to);
+                    if(seen.add(to))
+                        worklist.add(to);
+                }
+        }
+        return nba;
+    }
+}
@@ -0,0 +1,573 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.exceptions.StateNotFoundException;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The reachable part of a {@link LazyTransitionSystem}, explored once and kept
+ * in memory-mapped files rather than on the heap, for state spaces larger
+ * than the heap.
+ * <p>
+ * States are numbered in discovery order and stored encoded by a
+ * {@link StateCodec}. Files under the given directory hold the encoded
+ * records, an index from number to record and outgoing transitions, an
+ * open-addressing table from state hash to number, and the transitions as
+ * {@code (source, action, target)} numbers. Only the initial states, the
+ * actions, the propositions and the {@code hotCacheSize} most recently used
+ * states stay on the heap. Labels are recomputed by the source when asked for.
+ * <p>
+ * The exploration is a sequential breadth-first search. Every getter returns
+ * a read-only view over the files. {@link #outgoing} reads a contiguous run of
+ * transitions, but {@link #incoming} and {@link #pre} scan them all. Close
+ * the system to delete its files.
+ * <p>
+ * All mutators except {@link #setName} throw
+ * {@link UnsupportedOperationException}. Not thread safe.
+ */
+public class DiskTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>
+        implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>, Closeable {
+
+    private static final long INITIAL_TABLE_CAPACITY = 1 << 16;
+    // per state: record offset, first transition, out-degree, padding
+    private static final int INDEX_ENTRY = 24;
+    private static final int TRANSITION_ENTRY = 12;
+
+    private String _name;
+    private final LazyTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> _source;
+    private final StateCodec<STATE> _codec;
+    private final Path _directory;
+
+    private final MappedFile _records;
+    private final MappedFile _index;
+    private final MappedFile _transitions;
+    private MappedFile _table;
+    private long _tableCapacity = INITIAL_TABLE_CAPACITY;
+    private long _recordsEnd;
+    private int _stateCount;
+    private long _transitionCount;
+
+    private final Map<Integer, STATE> _hotStates;
+    private final Map<STATE, Integer> _hotIds;
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+    private final DataOutputStream _out = new DataOutputStream(_buffer);
+
+    private final Set<STATE> _initial = new HashSet<>();
+    private final Map<ACTION, Integer> _actionIds = new HashMap<>();
+    private final List<ACTION> _actions = new ArrayList<>();
+    private final Set<ATOMIC_PROPOSITION> _aps = new HashSet<>();
+    private int _hash;
+
+    /**
+     * Explores {@code source} into files created under {@code directory}.
+     *
+     * @param hotCacheSize the number of recently used states kept decoded on
+     *                     the heap.
+     */
+    public DiskTransitionSystem(LazyTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> source, StateCodec<STATE> codec,
+                                Path directory, int hotCacheSize) {
+        _source = source;
+        _codec = codec;
+        _directory = directory;
+        _name = source.getName();
+        _hotStates = new ProgramGraphSteps.LruMap<>(hotCacheSize);
+        _hotIds = new ProgramGraphSteps.LruMap<>(hotCacheSize);
+        _records = new MappedFile(directory, "states");
+        _index = new MappedFile(directory, "index");
+        _transitions = new MappedFile(directory, "transitions");
+        _table = new MappedFile(directory, "table");
+        FvmMetrics.Exploration run = source.metrics() == null ? null : source.metrics().startExploration();
+        try {
+            explore(run);
+        } catch(RuntimeException | Error e) {
+            close();
+            throw e;
+        } finally {
+            if(run != null)
+                run.close();
+        }
+    }
+
+    private void explore(FvmMetrics.Exploration run) {
+        for(ACTION a:_source.declaredActions())
+            action(a);
+        _aps.addAll(_source.declaredAtomicPropositions());
+        for(STATE s:_source.getInitialStates()) {
+            _initial.add(s);
+            intern(s, run);
+        }
+        // the (action, target) pairs written for the current source, as a source may repeat a transition
+        Set<Long> written = new HashSet<>();
+        // numbers are handed out in discovery order, so they double as the queue
+        for(int id = 0; id < _stateCount; id++) {
+            STATE from = state(id);
+            long first = _transitionCount;
+            int source = id;
+            written.clear();
+            _source.transitions(from, t -> {
+                if(run != null)
+                    run.transition();
+                int action = action(t.getAction());
+                int target = intern(t.getTo(), run);
+                if(!written.add((long) action << 32 | (target & 0xFFFFFFFFL)))
+                    return;
+                long at = _transitionCount++ * TRANSITION_ENTRY;
+                _transitions.putInt(at, source);
+                _transitions.putInt(at + 4, action);
+                _transitions.putInt(at + 8, target);
+            });
+            _index.putLong((long) id * INDEX_ENTRY + 8, first);
+            _index.putInt((long) id * INDEX_ENTRY + 16, (int) (_transitionCount - first));
+            _aps.addAll(_source.getLabel(from));
+        }
+    }
+
+    private int action(ACTION a) {
+        return _actionIds.computeIfAbsent(a, k -> {
+            _actions.add(k);
+            return _actions.size() - 1;
+        });
+    }
+
+    private byte[] encode(STATE s) {
+        _buffer.reset();
+        try {
+            _codec.write(s, _out);
+            _out.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return _buffer.toByteArray();
+    }
+
+    // FNV-1a
+    private static int hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for(byte b:bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private long slotPosition(long slot) {
+        return slot * 8;
+    }
+
+    /*
+     * The table slot holding bytes, or the empty slot where it belongs.
+     */
+    private long find(byte[] bytes, int hash) {
+        long mask = _tableCapacity - 1;
+        for(long slot = (hash & 0xFFFFFFFFL) & mask; ; slot = (slot + 1) & mask) {
+            long entry = _table.getLong(slotPosition(slot));
+            if(entry == 0)
+                return slot;
+            if((int) (entry >>> 32) == hash && Arrays.equals(bytes, record((int) entry - 1)))
+                return slot;
+        }
+    }
+
+    private byte[] record(int id) {
+        long offset = _index.getLong((long) id * INDEX_ENTRY);
+        byte[] bytes = new byte[_records.getInt(offset)];
+        _records.get(offset + 4, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the number of {@code s}, or -1 if it is not a state of this
+     * system.
+     */
+    public int id(Object s) {
+        @SuppressWarnings("unchecked")
+        STATE state = (STATE) s;
+        Integer hot = _hotIds.get(state);
+        if(hot != null)
+            return hot;
+        byte[] bytes;
+        try {
+            bytes = encode(state);
+        } catch(ClassCastException | IllegalArgumentException e) {
+            return -1;
+        }
+        long entry = _table.getLong(slotPosition(find(bytes, hash(bytes))));
+        return entry == 0 ? -1 : (int) entry - 1;
+    }
+
+    private int intern(STATE s, FvmMetrics.Exploration run) {
+        Integer hot = _hotIds.get(s);
+        if(hot != null)
+            return hot;
+        byte[] bytes = encode(s);
+        int hash = hash(bytes);
+        long slot = find(bytes, hash);
+        long entry = _table.getLong(slotPosition(slot));
+        int id;
+        if(entry != 0) {
+            id = (int) entry - 1;
+        } else {
+            if(_stateCount == Integer.MAX_VALUE - 1)
+                throw new IllegalStateException("Too many states");
+            id = _stateCount++;
+            if(run != null)
+                run.state();
+            _index.putLong((long) id * INDEX_ENTRY, _recordsEnd);
+            _records.putInt(_recordsEnd, bytes.length);
+            _records.put(_recordsEnd + 4, bytes);
+            // keep records int aligned
+            _recordsEnd += 4 + ((bytes.length + 3) & ~3);
+            _table.putLong(slotPosition(slot), (long) hash << 32 | (id + 1));
+            if(2L * _stateCount > _tableCapacity)
+                grow();
+        }
+        _hotIds.put(s, id);
+        _hotStates.put(id, s);
+        return id;
+    }
+
+    private void grow() {
+        MappedFile old = _table;
+        long oldCapacity = _tableCapacity;
+        _table = new MappedFile(_directory, "table");
+        _tableCapacity *= 2;
+        long mask = _tableCapacity - 1;
+        for(long i = 0; i < oldCapacity; i++) {
+            long entry = old.getLong(slotPosition(i));
+            if(entry == 0)
+                continue;
+            long slot = (entry >>> 32) & mask;
+            while(_table.getLong(slotPosition(slot)) != 0)
+                slot = (slot + 1) & mask;
+            _table.putLong(slotPosition(slot), entry);
+        }
+        old.close();
+    }
+
+    /**
+     * @return the state numbered {@code id}.
+     */
+    public STATE state(int id) {
+        STATE s = _hotStates.get(id);
+        if(s == null) {
+            try {
+                s = _codec.read(new DataInputStream(new ByteArrayInputStream(record(id))));
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            _hotStates.put(id, s);
+            _hotIds.put(s, id);
+        }
+        return s;
+    }
+
+    private Transition<STATE,ACTION> transition(long i) {
+        long at = i * TRANSITION_ENTRY;
+        return new Transition<>(state(_transitions.getInt(at)), _actions.get(_transitions.getInt(at + 4)),
+                state(_transitions.getInt(at + 8)));
+    }
+
+    private Iterator<Transition<STATE,ACTION>> transitions(long from, long to) {
+        return new Iterator<Transition<STATE,ACTION>>() {
+            private long _next = from;
+
+            @Override
+            public boolean hasNext() {
+                return _next < to;
+            }
+
+            @Override
+            public Transition<STATE,ACTION> next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return transition(_next++);
+            }
+        };
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> outgoing(STATE s) {
+        int id = id(s);
+        if(id < 0)
+            return Collections.emptySet();
+        long first = _index.getLong((long) id * INDEX_ENTRY + 8);
+        int degree = _index.getInt((long) id * INDEX_ENTRY + 16);
+        Set<Transition<STATE,ACTION>> result = new HashSet<>();
+        transitions(first, first + degree).forEachRemaining(result::add);
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> incoming(STATE s) {
+        int id = id(s);
+        if(id < 0)
+            return Collections.emptySet();
+        Set<Transition<STATE,ACTION>> result = new HashSet<>();
+        for(long i = 0; i < _transitionCount; i++)
+            if(_transitions.getInt(i * TRANSITION_ENTRY + 8) == id)
+                result.add(transition(i));
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        Set<STATE> result = new HashSet<>();
+        for(Transition<STATE,ACTION> t:outgoing(s))
+            if(t.getAction().equals(a))
+                result.add(t.getTo());
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        Set<STATE> result = new HashSet<>();
+        for(Transition<STATE,ACTION> t:incoming(s))
+            if(t.getAction().equals(a))
+                result.add(t.getFrom());
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<STATE> getStates() {
+        return new AbstractSet<STATE>() {
+            @Override
+            public Iterator<STATE> iterator() {
+                return new Iterator<STATE>() {
+                    private int _next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return _next < _stateCount;
+                    }
+
+                    @Override
+                    public STATE next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        return state(_next++);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return id(o) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return _stateCount;
+            }
+        };
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> getTransitions() {
+        return new AbstractSet<Transition<STATE,ACTION>>() {
+            @Override
+            public Iterator<Transition<STATE,ACTION>> iterator() {
+                return transitions(0, _transitionCount);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return o instanceof Transition && outgoing(((Transition<STATE,ACTION>) o).getFrom()).contains(o);
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(_transitionCount, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    @Override
+    public Set<STATE> getInitialStates() {
+        return Collections.unmodifiableSet(_initial);
+    }
+
+    @Override
+    public Set<ACTION> getActions() {
+        return Collections.unmodifiableSet(_actionIds.keySet());
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getAtomicPropositions() {
+        return Collections.unmodifiableSet(_aps);
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getLabel(STATE s) {
+        if(id(s) < 0)
+            throw new StateNotFoundException(s);
+        return Collections.unmodifiableSet(_source.getLabel(s));
+    }
+
+    @Override
+    public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
+        return new AbstractMap<STATE, Set<ATOMIC_PROPOSITION>>() {
+            @Override
+            public Set<Entry<STATE, Set<ATOMIC_PROPOSITION>>> entrySet() {
+                return new AbstractSet<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                    @Override
+                    public Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>> iterator() {
+                        Iterator<STATE> states = getStates().iterator();
+                        return new Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return states.hasNext();
+                            }
+
+                            @Override
+                            public Entry<STATE, Set<ATOMIC_PROPOSITION>> next() {
+                                STATE s = states.next();
+                                return new SimpleImmutableEntry<>(s, _source.getLabel(s));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return _stateCount;
+                    }
+                };
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return id(key) >= 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Set<ATOMIC_PROPOSITION> get(Object key) {
+                return id(key) >= 0 ? _source.getLabel((STATE) key) : null;
+            }
+        };
+    }
+
+    /**
+     * Deletes the files behind this system, after which it must not be used.
+     */
+    @Override
+    public void close() {
+        _records.close();
+        _index.close();
+        _transitions.close();
+        _table.close();
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public void setName(String name) {
+        _name = name;
+    }
+
+    @Override
+    public void addAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addToLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException(getClass().getSimpleName() + " is read-only");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o == this)
+            return true;
+        if(!(o instanceof TransitionSystem))
+            return false;
+        if(TransitionSystemImpl.hasCachedHash(o) && hashCode() != o.hashCode())
+            return false;
+        TransitionSystem<?,?,?> ts = (TransitionSystem<?,?,?>) o;
+        return Objects.equals(getStates(), ts.getStates())
+                && Objects.equals(getTransitions(), ts.getTransitions())
+                && Objects.equals(getLabelingFunction(), ts.getLabelingFunction())
+                && Objects.equals(getInitialStates(), ts.getInitialStates())
+                && Objects.equals(getActions(), ts.getActions())
+                && Objects.equals(getAtomicPropositions(), ts.getAtomicPropositions())
+                && Objects.equals(_name, ts.getName());
+    }
+
+    // same combination as TransitionSystemImpl, so equal systems hash alike
+    @Override
+    public int hashCode() {
+        if(_hash == 0) {
+            final int prime = 17;
+            int result = 1;
+            result = prime * result + getLabelingFunction().hashCode();
+            result = prime * result + getTransitions().hashCode();
+            result = prime * result + getStates().hashCode();
+            result = prime * result + getInitialStates().hashCode();
+            result = prime * result + getActions().hashCode();
+            result = prime * result + getAtomicPropositions().hashCode();
+            _hash = result;
+        }
+        return 17 * _hash + (_name == null ? 0 : _name.hashCode());
+    }
+}
@@ -0,0 +1,84 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds on an exploration: wall-clock time, number of states, and heap use.
+ * Immutable; every {@code with} method returns a new budget.
+ */
+public final class ExplorationBudget {
+
+    private static final ExplorationBudget UNLIMITED = new ExplorationBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long _maxStates;
+    private final long _timeoutNanos;
+    private final long _maxHeapBytes;
+
+    private ExplorationBudget(long maxStates, long timeoutNanos, long maxHeapBytes) {
+        _maxStates = maxStates;
+        _timeoutNanos = timeoutNanos;
+        _maxHeapBytes = maxHeapBytes;
+    }
+
+    public static ExplorationBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * @param maxStates the most states to find; a stopped exploration returns
+     *                  no more than these. A parallel exploration may stop a
+     *                  few short, as threads that find the same state at once
+     *                  each count it.
+     */
+    public ExplorationBudget withMaxStates(long maxStates) {
+        if(maxStates < 0)
+            throw new IllegalArgumentException("Negative state limit: " + maxStates);
+        return new ExplorationBudget(maxStates, _timeoutNanos, _maxHeapBytes);
+    }
+
+    public ExplorationBudget withTimeout(long timeout, TimeUnit unit) {
+        if(timeout < 0)
+            throw new IllegalArgumentException("Negative timeout: " + timeout);
+        return new ExplorationBudget(_maxStates, unit.toNanos(timeout), _maxHeapBytes);
+    }
+
+    /**
+     * @param maxHeapBytes the heap the JVM may still hold live after a
+     *                     garbage collection.
+     */
+    public ExplorationBudget withMaxHeap(long maxHeapBytes) {
+        if(maxHeapBytes < 0)
+            throw new IllegalArgumentException("Negative heap limit: " + maxHeapBytes);
+        return new ExplorationBudget(_maxStates, _timeoutNanos, maxHeapBytes);
+    }
+
+    /**
+     * Like {@link #withMaxHeap}, as a fraction of the maximal heap size.
+     */
+    public ExplorationBudget withMaxHeapFraction(double fraction) {
+        if(fraction <= 0 || fraction > 1)
+            throw new IllegalArgumentException("Heap fraction must be in (0, 1]: " + fraction);
+        return withMaxHeap((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    public long getMaxStates() {
+        return _maxStates;
+    }
+
+    public long getTimeoutNanos() {
+        return _timeoutNanos;
+    }
+
+    public long getMaxHeapBytes() {
+        return _maxHeapBytes;
+    }
+
+    /**
+     * Starts counting against this budget.
+     *
+     * @param token may be {@code null}.
+     */
+    ExplorationLimit start(CancellationToken token) {
+        return new ExplorationLimit(this, token);
+    }
+}
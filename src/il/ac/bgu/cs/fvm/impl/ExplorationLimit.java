@@ -0,0 +1,113 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One exploration's consumption of an {@link ExplorationBudget}. Explorers
+ * call {@link #state} for every new state and {@link #check} for every state
+ * they expand; both throw {@link Stopped} once the budget runs out, and keep
+ * throwing it. The explorer catches it and returns what it has, and the
+ * caller reads {@link #stopReason}. Thread safe.
+ */
+final class ExplorationLimit {
+
+    /**
+     * Unwinds an exploration whose budget ran out.
+     */
+    static final class Stopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Stopped() {
+            super("Exploration budget exhausted", null, false, false);
+        }
+    }
+
+    private static final Stopped STOPPED = new Stopped();
+    // the clock and the heap are consulted every so many states
+    private static final int CLOCK_MASK = 63;
+    private static final int HEAP_MASK = 1023;
+
+    private final long _maxStates;
+    private final long _deadline;
+    private final long _maxHeapBytes;
+    private final CancellationToken _token;
+    private final AtomicLong _states = new AtomicLong();
+    private final AtomicLong _checks = new AtomicLong();
+    private volatile BoundedResult.StopReason _stopReason;
+
+    ExplorationLimit(ExplorationBudget budget, CancellationToken token) {
+        _maxStates = budget.getMaxStates();
+        long timeout = budget.getTimeoutNanos();
+        _deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeout;
+        _maxHeapBytes = budget.getMaxHeapBytes();
+        _token = token;
+    }
+
+    /**
+     * Accounts for a newly discovered state.
+     */
+    void state() {
+        long n = _states.incrementAndGet();
+        if(n > _maxStates)
+            stop(BoundedResult.StopReason.STATE_LIMIT);
+        poll(n);
+    }
+
+    /**
+     * Accounts for expanding a state, which may take long without discovering
+     * anything new.
+     */
+    void check() {
+        poll(_checks.incrementAndGet());
+    }
+
+    private void poll(long n) {
+        if(_stopReason != null)
+            throw STOPPED;
+        if(_token != null && _token.isCancelled())
+            stop(BoundedResult.StopReason.CANCELLED);
+        if((n & CLOCK_MASK) == 0 && _deadline != Long.MAX_VALUE && System.nanoTime() - _deadline > 0)
+            stop(BoundedResult.StopReason.TIMEOUT);
+        if((n & HEAP_MASK) == 0 && _maxHeapBytes != Long.MAX_VALUE && overHeap())
+            stop(BoundedResult.StopReason.MEMORY_LIMIT);
+    }
+
+    /*
+     * Garbage counts towards the current usage, so a high reading is
+     * confirmed against what survived the last collection of each pool.
+     */
+    private boolean overHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        if(runtime.totalMemory() - runtime.freeMemory() <= _maxHeapBytes)
+            return false;
+        long live = 0;
+        for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() != MemoryType.HEAP)
+                continue;
+            MemoryUsage usage = pool.getCollectionUsage();
+            live += usage == null ? pool.getUsage().getUsed() : usage.getUsed();
+        }
+        return live > _maxHeapBytes;
+    }
+
+    private void stop(BoundedResult.StopReason reason) {
+        if(_stopReason == null)
+            _stopReason = reason;
+        throw STOPPED;
+    }
+
+    /**
+     * @return why the exploration was stopped, or {@code null} if it was not.
+     */
+    BoundedResult.StopReason stopReason() {
+        return _stopReason;
+    }
+
+    <T> BoundedResult<T> result(T result) {
+        return new BoundedResult<>(result, _stopReason);
+    }
+}
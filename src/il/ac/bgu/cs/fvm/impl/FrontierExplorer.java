@@ -0,0 +1,232 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Explores the state space spanned by a {@link TransitionGenerator}, reporting
+ * every discovered state and generated transition to a {@link Visitor}.
+ * <p>
+ * Without a pool the exploration is a sequential worklist search. With a pool
+ * it is a level-synchronous BFS: each frontier is split over the pool's
+ * workers (which steal work from each other), newly found states are claimed
+ * through a shared concurrent visited set, and the visitor is then called for
+ * the whole level on the calling thread. Visitors therefore never need to be
+ * thread safe, but generators do.
+ * <p>
+ * Under an {@link ExplorationLimit} the exploration stops early once the
+ * budget runs out, having reported a consistent part of the state space.
+ *
+ * @param <S> state type
+ * @param <A> action type
+ */
+public class FrontierExplorer<S,A> {
+
+    /**
+     * Generates the outgoing transitions of a state.
+     */
+    @FunctionalInterface
+    public interface TransitionGenerator<S,A> {
+        void transitions(S from, Consumer<Transition<S,A>> sink);
+    }
+
+    /**
+     * Receives the explored state space. Every state is passed to
+     * {@link #newState} exactly once, before any transition that reaches it is
+     * passed to {@link #transition}.
+     */
+    public interface Visitor<S,A> {
+        void newState(S s);
+
+        void transition(Transition<S,A> t);
+    }
+
+    // frontiers smaller than this are expanded by a single task
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final TransitionGenerator<S,A> _generator;
+    private final ForkJoinPool _pool;
+    // null when unbounded
+    private ExplorationLimit _limit;
+
+    /**
+     * @param pool the pool used for parallel exploration, or {@code null} for a
+     *             sequential one.
+     */
+    public FrontierExplorer(TransitionGenerator<S,A> generator, ForkJoinPool pool) {
+        _generator = generator;
+        _pool = pool;
+    }
+
+    void setLimit(ExplorationLimit limit) {
+        _limit = limit;
+    }
+
+    /**
+     * @return the set of states reachable from {@code roots}, roots included,
+     * or those found before the limit stopped the exploration.
+     */
+    public Set<S> explore(Collection<? extends S> roots, Visitor<S,A> visitor) {
+        return _pool == null ? sequential(roots, visitor) : parallel(roots, visitor);
+    }
+
+    /**
+     * Plain reachability: like {@link #explore} with a visitor that ignores
+     * everything, but without buffering transitions between levels.
+     */
+    public Set<S> reach(Collection<? extends S> roots) {
+        return explore(roots, null);
+    }
+
+    /*
+     * Counts a new state against the limit before recording it, so a stopped
+     * exploration holds only counted states. Threads racing to the same new
+     * state may each count it.
+     */
+    private boolean add(Set<S> visited, S s) {
+        if(_limit == null)
+            return visited.add(s);
+        if(visited.contains(s))
+            return false;
+        _limit.state();
+        return visited.add(s);
+    }
+
+    private Set<S> sequential(Collection<? extends S> roots, Visitor<S,A> visitor) {
+        Set<S> visited = new HashSet<>();
+        ArrayDeque<S> stack = new ArrayDeque<>();
+        if(visitor == null)
+            visitor = ignoring();
+        Visitor<S,A> v = visitor;
+        ExplorationLimit limit = _limit;
+        Consumer<Transition<S,A>> sink = t -> {
+            if(add(visited, t.getTo())) {
+                v.newState(t.getTo());
+                stack.push(t.getTo());
+            }
+            v.transition(t);
+        };
+        try {
+            for(S s:roots) {
+                if(add(visited, s)) {
+                    v.newState(s);
+                    stack.push(s);
+                }
+            }
+            while(!stack.isEmpty()) {
+                if(limit != null)
+                    limit.check();
+                _generator.transitions(stack.pop(), sink);
+            }
+        } catch(ExplorationLimit.Stopped e) {
+            // return what was found
+        }
+        return visited;
+    }
+
+    private Set<S> parallel(Collection<? extends S> roots, Visitor<S,A> visitor) {
+        Set<S> visited = ConcurrentHashMap.newKeySet();
+        List<S> frontier = new ArrayList<>();
+        try {
+            for(S s:roots) {
+                if(add(visited, s)) {
+                    if(visitor != null)
+                        visitor.newState(s);
+                    frontier.add(s);
+                }
+            }
+        } catch(ExplorationLimit.Stopped e) {
+            return visited;
+        }
+        boolean keepTransitions = visitor != null;
+        while(!frontier.isEmpty()) {
+            Queue<Chunk<S,A>> chunks = new ConcurrentLinkedQueue<>();
+            _pool.invoke(new Expand(frontier, 0, frontier.size(), visited, chunks, keepTransitions));
+
+            List<S> next = new ArrayList<>();
+            for(Chunk<S,A> chunk:chunks) {
+                if(visitor != null)
+                    chunk.discovered.forEach(visitor::newState);
+                next.addAll(chunk.discovered);
+            }
+            if(visitor != null)
+                for(Chunk<S,A> chunk:chunks)
+                    chunk.transitions.forEach(visitor::transition);
+            // a stopped level still reports what it found
+            if(_limit != null && _limit.stopReason() != null)
+                return visited;
+            frontier = next;
+        }
+        return visited;
+    }
+
+    private static class Chunk<S,A> {
+        final List<S> discovered = new ArrayList<>();
+        final List<Transition<S,A>> transitions = new ArrayList<>();
+    }
+
+    private class Expand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<S> _frontier;
+        private final int _from;
+        private final int _to;
+        private final Set<S> _visited;
+        private final Queue<Chunk<S,A>> _chunks;
+        private final boolean _keepTransitions;
+
+        Expand(List<S> frontier, int from, int to, Set<S> visited, Queue<Chunk<S,A>> chunks, boolean keepTransitions) {
+            _frontier = frontier;
+            _from = from;
+            _to = to;
+            _visited = visited;
+            _chunks = chunks;
+            _keepTransitions = keepTransitions;
+        }
+
+        @Override
+        protected void compute() {
+            if(_to - _from > SPLIT_THRESHOLD) {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Expand(_frontier, _from, mid, _visited, _chunks, _keepTransitions),
+                          new Expand(_frontier, mid, _to, _visited, _chunks, _keepTransitions));
+                return;
+            }
+            Chunk<S,A> chunk = new Chunk<>();
+            Consumer<Transition<S,A>> sink = t -> {
+                if(add(_visited, t.getTo()))
+                    chunk.discovered.add(t.getTo());
+                if(_keepTransitions)
+                    chunk.transitions.add(t);
+            };
+            try {
+                for(int i = _from; i < _to; i++) {
+                    if(_limit != null)
+                        _limit.check();
+                    _generator.transitions(_frontier.get(i), sink);
+                }
+            } catch(ExplorationLimit.Stopped e) {
+                // stop here, but keep what this part of the level found
+            }
+            _chunks.add(chunk);
+        }
+    }
+
+    private static <S,A> Visitor<S,A> ignoring() {
+        return new Visitor<S,A>() {
+            @Override
+            public void newState(S s) {
+            }
+
+            @Override
+            public void transition(Transition<S,A> t) {
+            }
+        };
+    }
+}
@@ -1,30 +1,40 @@
 package il.ac.bgu.cs.fvm.impl;
 
-import com.sun.org.apache.xpath.internal.operations.Bool;
 import il.ac.bgu.cs.fvm.FvmFacade;
 import il.ac.bgu.cs.fvm.automata.Automaton;
 import il.ac.bgu.cs.fvm.automata.MultiColorAutomaton;
 import il.ac.bgu.cs.fvm.channelsystem.ChannelSystem;
+import il.ac.bgu.cs.fvm.channelsystem.InterleavingActDef;
+import il.ac.bgu.cs.fvm.channelsystem.ParserBasedInterleavingActDef;
 import il.ac.bgu.cs.fvm.circuits.Circuit;
 import il.ac.bgu.cs.fvm.exceptions.ActionNotFoundException;
+import il.ac.bgu.cs.fvm.exceptions.FVMException;
+import il.ac.bgu.cs.fvm.impl.bdd.BddManager;
 import il.ac.bgu.cs.fvm.exceptions.StateNotFoundException;
 import il.ac.bgu.cs.fvm.ltl.AP;
 import il.ac.bgu.cs.fvm.ltl.LTL;
 import il.ac.bgu.cs.fvm.programgraph.ActionDef;
 import il.ac.bgu.cs.fvm.programgraph.ConditionDef;
 import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedActDef;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedCondDef;
 import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
 import il.ac.bgu.cs.fvm.transitionsystem.AlternatingSequence;
 import il.ac.bgu.cs.fvm.transitionsystem.Transition;
 import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
 import il.ac.bgu.cs.fvm.util.Pair;
+import il.ac.bgu.cs.fvm.verification.VerificationFailed;
 import il.ac.bgu.cs.fvm.verification.VerificationResult;
+import il.ac.bgu.cs.fvm.verification.VerificationSucceeded;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
-import static java.lang.Boolean.FALSE;
-import static java.lang.Boolean.TRUE;
 
 /**
  * Implement the methods in this class. You may add additional classes as you
@@ -33,15 +43,156 @@ import static java.lang.Boolean.TRUE;
  */
 public class FvmFacadeImpl implements FvmFacade {
 
+    // per-component step caches of channel systems; states differing only in other components share entries
+    private static final int CHANNEL_STEP_CACHE_SIZE = 1 << 12;
+
+    // compiled NanoPromela sources kept for reuse
+    private static final int NANO_PROMELA_CACHE_SIZE = 64;
+    private static final int DISK_HOT_CACHE_SIZE = 1 << 16;
+
+    // null when exploring sequentially
+    private ForkJoinPool _pool;
+    private boolean _symbolicCircuits;
+    private boolean _compact;
+    private int _channelCapacity = ChannelSystemTransitionSystem.UNBOUNDED;
+    // null when building full state spaces
+    private Set<String> _observed;
+    // null when not instrumented
+    private FvmMetrics _metrics;
+    private final NanoPromelaCompiler _nanoPromela = new NanoPromelaCompiler(NANO_PROMELA_CACHE_SIZE);
+    // shared by all LTL2NBA calls, so formulas reuse each other's nodes and closures; guarded by itself
+    private final LtlTranslator<Object> _ltl = new LtlTranslator<>();
+
+    /**
+     * Sets the number of worker threads used by {@code reach} and by the
+     * state-space builders behind {@code interleave} and
+     * {@code transitionSystemFromProgramGraph}, and by the emptiness check of
+     * {@code verifyAnOmegaRegularProperty}, which runs a swarm of randomized
+     * nested searches (see {@link SwarmNestedDepthFirstSearch}). 1, the
+     * default, explores sequentially. Both modes yield the same results,
+     * though a parallel verification may report a different counterexample.
+     */
+    public void setParallelism(int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + threads);
+        if(_pool != null)
+            _pool.shutdown();
+        _pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
+    public int getParallelism() {
+        return _pool == null ? 1 : _pool.getParallelism();
+    }
+
+    /**
+     * When set, {@code transitionSystemFromCircuit} returns a read-only
+     * {@link SymbolicCircuitTransitionSystem} instead of an explicit system,
+     * and fails on circuits with more than
+     * {@link SymbolicCircuitTransitionSystem#MAX_STATE_BITS} inputs and
+     * registers.
+     */
+    public void setSymbolicCircuits(boolean symbolic) {
+        _symbolicCircuits = symbolic;
+    }
+
+    /**
+     * When set, {@code interleave}, {@code transitionSystemFromProgramGraph},
+     * {@code transitionSystemFromCircuit}, {@code product} and the channel
+     * system builders return an immutable {@link CompactTransitionSystem},
+     * built through a {@link TransitionSystemBuilder}, instead of a mutable
+     * {@link TransitionSystemImpl}. {@code reach}, {@code post} and
+     * {@code pre} then run on its int core. Partial-order reduced and
+     * symbolic systems are not affected.
+     */
+    public void setCompactTransitionSystems(boolean compact) {
+        _compact = compact;
+    }
+
+    /**
+     * Bounds the number of messages a buffered channel may hold in
+     * {@code transitionSystemFromChannelSystem}; writes to a full channel are
+     * disabled. Unbounded by default.
+     */
+    public void setChannelCapacity(int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("Channel capacity must not be negative: " + capacity);
+        _channelCapacity = capacity;
+    }
+
+    /**
+     * Makes {@code transitionSystemFromChannelSystem} and
+     * {@code transitionSystemFromProgramGraphs} build a partial-order reduced
+     * state space, which keeps deadlocks and stutter-invariant properties over
+     * the {@code observed} variables and locations (see
+     * {@link ChannelSystemTransitionSystem#materializeReduced}). The reduction
+     * runs sequentially. {@code null}, the default, builds the full space.
+     * Other builders, e.g. {@code transitionSystemFromProgramGraph} over
+     * {@code interleave}d graphs, always build the full space; use
+     * {@code transitionSystemFromProgramGraphs} to reduce an interleaving.
+     */
+    public void setPartialOrderReduction(Set<String> observed) {
+        _observed = observed == null ? null : new HashSet<>(observed);
+    }
+
+    /**
+     * Counts states, transitions, {@code post}/{@code pre} calls, condition
+     * evaluations and action effects into {@code metrics}, and times every
+     * operation that explores a state space. Lazy systems created afterwards
+     * keep counting into it. {@code null}, the default, turns counting off.
+     */
+    public void setMetrics(FvmMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    public FvmMetrics getMetrics() {
+        return _metrics;
+    }
+
+    private <T> T timed(String phase, Supplier<T> operation) {
+        if(_metrics == null)
+            return operation.get();
+        FvmMetrics.Phase p = _metrics.phase(phase);
+        try {
+            return operation.get();
+        } finally {
+            p.close();
+        }
+    }
+
+    private <T extends LazyTransitionSystem<?, ?, ?>> T instrumented(T ts) {
+        ts.setMetrics(_metrics);
+        return ts;
+    }
+
+    private void countPost() {
+        if(_metrics != null)
+            _metrics.post();
+    }
+
+    private void countPre() {
+        if(_metrics != null)
+            _metrics.pre();
+    }
+
     @Override
     public <S, A, P> TransitionSystem<S, A, P> createTransitionSystem() {
         return new TransitionSystemImpl<S ,A ,P>();
     }
 
+    /**
+     * A builder for large systems, which validates once when building and
+     * yields an immutable {@link CompactTransitionSystem}.
+     */
+    public <S, A, P> TransitionSystemBuilder<S, A, P> createTransitionSystemBuilder(int expectedStates, int expectedTransitions) {
+        return new TransitionSystemBuilder<>(expectedStates, expectedTransitions);
+    }
+
     @Override
     public <S, A, P> boolean isActionDeterministic(TransitionSystem<S, A, P> ts) {
         if(ts.getInitialStates().size()>1)
             return false;
+        if(ts instanceof CompactTransitionSystem)
+            return ((CompactTransitionSystem<S, A, P>) ts).core().hasDeterministicActions();
         HashMap<S,Set<A>> stateToActions = new HashMap<>();
         for(S state:ts.getStates()) {
             stateToActions.put(state, new HashSet<>());
@@ -58,6 +209,8 @@ public class FvmFacadeImpl implements FvmFacade {
     public <S, A, P> boolean isAPDeterministic(TransitionSystem<S, A, P> ts) {
         if(ts.getInitialStates().size()>1)
             return false;
+        if(ts instanceof CompactTransitionSystem)
+            return ((CompactTransitionSystem<S, A, P>) ts).core().hasDeterministicLabels();
         HashMap<S,Set<Set<P>>> stateToAP = new HashMap<>();
         for(S state:ts.getStates()) {
             stateToAP.put(state, new HashSet<>());
@@ -121,188 +274,326 @@ public class FvmFacadeImpl implements FvmFacade {
 
     @Override
     public <S> Set<S> post(TransitionSystem<S, ?, ?> ts, S s) {
+        countPost();
+        if(ts instanceof CompactTransitionSystem)
+            return corePost((CompactTransitionSystem<S, ?, ?>) ts, Collections.singleton(s));
+        if(ts instanceof IndexedTransitionSystem)
+            return targets(((IndexedTransitionSystem<S, ?, ?>) ts).outgoing(s));
         return ts.getTransitions().parallelStream().filter(transition -> transition.getFrom().equals(s))
                 .map(Transition::getTo).collect(Collectors.toSet());
     }
 
     @Override
     public <S> Set<S> post(TransitionSystem<S, ?, ?> ts, Set<S> c) {
+        countPost();
+        if(ts instanceof SymbolicTransitionSystem) {
+            SymbolicTransitionSystem<S, ?, ?> sts = (SymbolicTransitionSystem<S, ?, ?>) ts;
+            return new HashSet<>(sts.states(sts.image(stateSet(sts, c))));
+        }
+        if(ts instanceof CompactTransitionSystem)
+            return corePost((CompactTransitionSystem<S, ?, ?>) ts, c);
+        if(ts instanceof IndexedTransitionSystem) {
+            Set<S> result = new HashSet<>();
+            for(S s:c)
+                for(Transition<S, ?> t:((IndexedTransitionSystem<S, ?, ?>) ts).outgoing(s))
+                    result.add(t.getTo());
+            return result;
+        }
         return ts.getTransitions().parallelStream().filter(transition -> c.contains(transition.getFrom()))
                 .map(Transition::getTo).collect(Collectors.toSet());
     }
 
     @Override
     public <S, A> Set<S> post(TransitionSystem<S, A, ?> ts, S s, A a) {
+        countPost();
+        if(ts instanceof IndexedTransitionSystem)
+            return new HashSet<>(((IndexedTransitionSystem<S, A, ?>) ts).post(s, a));
         return ts.getTransitions().parallelStream().filter(transition -> transition.getFrom().equals(s) && transition.getAction().equals(a))
                 .map(Transition::getTo).collect(Collectors.toSet());
     }
 
     @Override
     public <S, A> Set<S> post(TransitionSystem<S, A, ?> ts, Set<S> c, A a) {
+        countPost();
+        if(ts instanceof SymbolicTransitionSystem) {
+            SymbolicTransitionSystem<S, A, ?> sts = (SymbolicTransitionSystem<S, A, ?>) ts;
+            return new HashSet<>(sts.states(sts.image(stateSet(sts, c), a)));
+        }
+        if(ts instanceof IndexedTransitionSystem) {
+            Set<S> result = new HashSet<>();
+            for(S s:c)
+                result.addAll(((IndexedTransitionSystem<S, A, ?>) ts).post(s, a));
+            return result;
+        }
         return ts.getTransitions().parallelStream().filter(transition -> c.contains(transition.getFrom()) && transition.getAction().equals(a))
                 .map(Transition::getTo).collect(Collectors.toSet());
     }
 
     @Override
     public <S> Set<S> pre(TransitionSystem<S, ?, ?> ts, S s) {
+        countPre();
+        if(ts instanceof CompactTransitionSystem)
+            return corePre((CompactTransitionSystem<S, ?, ?>) ts, Collections.singleton(s));
+        if(ts instanceof IndexedTransitionSystem)
+            return sources(((IndexedTransitionSystem<S, ?, ?>) ts).incoming(s));
         return ts.getTransitions().parallelStream().filter(transition -> transition.getTo().equals(s))
                 .map(Transition::getFrom).collect(Collectors.toSet());
     }
 
     @Override
     public <S> Set<S> pre(TransitionSystem<S, ?, ?> ts, Set<S> c) {
+        countPre();
+        if(ts instanceof SymbolicTransitionSystem) {
+            SymbolicTransitionSystem<S, ?, ?> sts = (SymbolicTransitionSystem<S, ?, ?>) ts;
+            return new HashSet<>(sts.states(sts.getManager().and(sts.reachable(), sts.preimage(stateSet(sts, c)))));
+        }
+        if(ts instanceof CompactTransitionSystem)
+            return corePre((CompactTransitionSystem<S, ?, ?>) ts, c);
+        if(ts instanceof IndexedTransitionSystem) {
+            Set<S> result = new HashSet<>();
+            for(S s:c)
+                for(Transition<S, ?> t:((IndexedTransitionSystem<S, ?, ?>) ts).incoming(s))
+                    result.add(t.getFrom());
+            return result;
+        }
         return ts.getTransitions().parallelStream().filter(transition -> c.contains(transition.getTo()))
                 .map(Transition::getFrom).collect(Collectors.toSet());
     }
 
     @Override
     public <S, A> Set<S> pre(TransitionSystem<S, A, ?> ts, S s, A a) {
+        countPre();
+        if(ts instanceof IndexedTransitionSystem)
+            return new HashSet<>(((IndexedTransitionSystem<S, A, ?>) ts).pre(s, a));
         return ts.getTransitions().parallelStream().filter(transition -> transition.getTo().equals(s) && transition.getAction().equals(a))
                 .map(Transition::getFrom).collect(Collectors.toSet());
     }
 
     @Override
     public <S, A> Set<S> pre(TransitionSystem<S, A, ?> ts, Set<S> c, A a) {
+        countPre();
+        if(ts instanceof SymbolicTransitionSystem) {
+            SymbolicTransitionSystem<S, A, ?> sts = (SymbolicTransitionSystem<S, A, ?>) ts;
+            return new HashSet<>(sts.states(sts.getManager().and(sts.reachable(), sts.preimage(stateSet(sts, c), a))));
+        }
+        if(ts instanceof IndexedTransitionSystem) {
+            Set<S> result = new HashSet<>();
+            for(S s:c)
+                result.addAll(((IndexedTransitionSystem<S, A, ?>) ts).pre(s, a));
+            return result;
+        }
         return ts.getTransitions().parallelStream().filter(transition -> c.contains(transition.getTo()) && transition.getAction().equals(a))
                 .map(Transition::getFrom).collect(Collectors.toSet());
     }
 
-    @Override
-    public <S, A> Set<S> reach(TransitionSystem<S, A, ?> ts) {
-        HashSet<S> reachable = new HashSet<>();
-        for(S s:ts.getInitialStates())
-            travelStates(ts,s,reachable);
-        return reachable;
-    }
-
-    private <S, A> void travelStates(TransitionSystem<S, A, ?> ts, S s, HashSet<S> reachable)
-    {
-        if(!reachable.contains(s))
-        {
-            reachable.add(s);
-            for(S state:post(ts,s))
-                travelStates(ts,state,reachable);
-        }
+    // the BDD of a set of states, one image computation instead of one per state
+    private <S> int stateSet(SymbolicTransitionSystem<S, ?, ?> ts, Set<S> c) {
+        int result = BddManager.FALSE;
+        for(S s:c)
+            result = ts.getManager().or(result, ts.state(s));
+        return result;
     }
 
-    private <S1, S2, A, P> Set<Pair<S1,S2>> initializeTs(TransitionSystem<Pair<S1,S2>,A,P> ts, TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2, Set<A> handShakingActions)
-    {
-        Set<S1> ts1States = ts1.getStates();
-        Set<S2> ts2States = ts2.getStates();
+    // on the int core, without building transitions
+    private <S> Set<S> corePost(CompactTransitionSystem<S, ?, ?> ts, Collection<S> c) {
+        return new HashSet<>(ts.states(ts.core().post(ts.stateIds(c))));
+    }
 
-        Set<A> actionsProduct = new HashSet<>(ts1.getActions());
-        actionsProduct.addAll(ts2.getActions());
-        ts.addAllActions(actionsProduct);
+    private <S> Set<S> corePre(CompactTransitionSystem<S, ?, ?> ts, Collection<S> c) {
+        return new HashSet<>(ts.states(ts.core().pre(ts.stateIds(c))));
+    }
 
-        Set<P> apProduct = new HashSet<>(ts1.getAtomicPropositions());
-        apProduct.addAll(ts2.getAtomicPropositions());
-        ts.addAllAtomicPropositions(apProduct);
+    private <S> Set<S> targets(Set<? extends Transition<S, ?>> transitions) {
+        Set<S> result = new HashSet<>();
+        for(Transition<S, ?> t:transitions)
+            result.add(t.getTo());
+        return result;
+    }
 
-        Set<Pair<S1,S2>> statesProduct = new HashSet<>();
-        for(S1 s1:ts1States)
-            for(S2 s2:ts2States) {
-                statesProduct.add(new Pair<>(s1,s2));
-            }
+    private <S> Set<S> sources(Set<? extends Transition<S, ?>> transitions) {
+        Set<S> result = new HashSet<>();
+        for(Transition<S, ?> t:transitions)
+            result.add(t.getFrom());
+        return result;
+    }
 
-        Set<S1> initials1 = ts1.getInitialStates();
-        Set<S2> initials2 = ts2.getInitialStates();
-        Set<Pair<S1,S2>> initialProduct = statesProduct.parallelStream().filter(product -> initials1.contains(product.first) && initials2.contains(product.second))
-                .collect(Collectors.toSet());
-
-        Set<Transition<S1,A>> transitions1 = ts1.getTransitions();
-        Set<Transition<S2,A>> transitions2 = ts2.getTransitions();
-        Map<S1,Set<A>> s2a1 = transitions1.parallelStream().collect(Collectors.toMap(Transition<S1,A>::getFrom,
-                transition -> new HashSet<A>(Collections.singleton(transition.getAction())),
-                (x,y) -> {x.addAll(y); return x;}));
-        Map<S2,Set<A>> s2a2 = transitions2.parallelStream().collect(Collectors.toMap(Transition<S2,A>::getFrom,
-                transition -> new HashSet<A>(Collections.singleton(transition.getAction())),
-                (x,y) -> {x.addAll(y); return x;}));
-        Map<Pair<S1,A>,Set<S1>> sa2s1 = transitions1.parallelStream().collect(Collectors.toMap(t -> new Pair<>(t.getFrom(),t.getAction()),
-                t -> new HashSet<S1>(Collections.singleton(t.getTo())),
-                (x,y) -> {x.addAll(y); return x;}));
-        Map<Pair<S2,A>,Set<S2>> sa2s2 = transitions2.parallelStream().collect(Collectors.toMap(t -> new Pair<>(t.getFrom(),t.getAction()),
-                t -> new HashSet<S2>(Collections.singleton(t.getTo())),
-                (x,y) -> {x.addAll(y); return x;}));
-        for(Pair<S1,S2> s:initialProduct) {
-            ts.addState(s);
-            ts.addInitialState(s);
-            travelTS(ts,s,s2a1,s2a2,sa2s1,sa2s2,handShakingActions, new HashSet<>());
+    @Override
+    public <S, A> Set<S> reach(TransitionSystem<S, A, ?> ts) {
+        return timed("reach", () -> {
+            // circuit states are known without following transitions
+            if(ts instanceof CircuitTransitionSystem || ts instanceof SymbolicTransitionSystem)
+                return ts.getStates();
+            if(ts instanceof CompactTransitionSystem) {
+                CompactTransitionSystem<S, A, ?> cts = (CompactTransitionSystem<S, A, ?>) ts;
+                return new HashSet<>(cts.states(cts.core().reach()));
+            }
+            if(_pool != null)
+                return new FrontierExplorer<>(transitionGenerator(indexed(ts)), _pool).reach(ts.getInitialStates());
+            return new ReachabilityEngine<>(successorFunction(indexed(ts))).explore(ts.getInitialStates());
+        });
+    }
+
+    /**
+     * Like {@link #reach(TransitionSystem)}, but stops once {@code budget}
+     * runs out or {@code token} (may be {@code null}) is cancelled, with the
+     * states found so far.
+     */
+    public <S, A> BoundedResult<Set<S>> reach(TransitionSystem<S, A, ?> ts, ExplorationBudget budget, CancellationToken token) {
+        ExplorationLimit limit = budget.start(token);
+        return timed("reach", () -> {
+            if(ts instanceof CircuitTransitionSystem || ts instanceof SymbolicTransitionSystem)
+                return limit.result(ts.getStates());
+            if(ts instanceof CompactTransitionSystem) {
+                CompactTransitionSystem<S, A, ?> cts = (CompactTransitionSystem<S, A, ?>) ts;
+                return limit.result(new HashSet<>(cts.states(cts.core().reach(limit))));
+            }
+            IndexedTransitionSystem<S, A, ?> indexed;
+            try {
+                // indexing is bounded too, as it touches every transition
+                indexed = ts instanceof IndexedTransitionSystem ? (IndexedTransitionSystem<S, A, ?>) ts : new OutgoingIndex<>(ts, limit);
+            } catch(ExplorationLimit.Stopped e) {
+                return limit.result(new HashSet<>());
+            }
+            if(_pool != null) {
+                FrontierExplorer<S, A> explorer = new FrontierExplorer<>(transitionGenerator(indexed), _pool);
+                explorer.setLimit(limit);
+                return limit.result(explorer.reach(ts.getInitialStates()));
+            }
+            ReachabilityEngine<S> engine = new ReachabilityEngine<>(successorFunction(indexed));
+            engine.setLimit(limit);
+            return limit.result(engine.explore(ts.getInitialStates()));
+        });
+    }
+
+    /**
+     * Counts the states reachable in {@code ts} with a visited set of
+     * {@code memoryBytes} holding only fingerprints of states, so that some
+     * states may be missed; the result estimates the probability of that
+     * (see {@link ProbabilisticReachability}).
+     * <p>
+     * Only the visited set is bounded by {@code memoryBytes}: the search
+     * stack holds full states, and the states that {@code ts} itself keeps
+     * come on top. It pays off on a {@link LazyTransitionSystem}, which keeps
+     * none.
+     *
+     * @throws IllegalArgumentException if {@code ts} is not an
+     *                                  {@link IndexedTransitionSystem}, as finding its successors would mean
+     *                                  indexing all of its transitions first.
+     */
+    public <S, A> ProbabilisticReachability.Result probabilisticReach(TransitionSystem<S, A, ?> ts, ToLongFunction<? super S> fingerprint,
+                                                                    ProbabilisticReachability.Mode mode, long memoryBytes) {
+        ReachabilityEngine.SuccessorFunction<S> successors;
+        if(ts instanceof LazyTransitionSystem) {
+            LazyTransitionSystem<S, A, ?> lazy = (LazyTransitionSystem<S, A, ?>) ts;
+            successors = (s, sink) -> lazy.transitions(s, t -> sink.accept(t.getTo()));
+        } else if(ts instanceof IndexedTransitionSystem) {
+            successors = successorFunction((IndexedTransitionSystem<S, A, ?>) ts);
+        } else {
+            throw new IllegalArgumentException("Probabilistic reachability needs an indexed or lazy transition system, not " + ts.getClass().getName());
         }
+        return timed("probabilisticReach", () -> new ProbabilisticReachability<>(successors, fingerprint, mode,
+                memoryBytes, ProbabilisticReachability.DEFAULT_HASHES).explore(ts.getInitialStates()));
+    }
 
+    /**
+     * {@link #probabilisticReach(TransitionSystem, ToLongFunction, ProbabilisticReachability.Mode, long)}
+     * over the transition system of {@code pg}, whose states are generated
+     * on the fly and never kept.
+     */
+    public <L, A> ProbabilisticReachability.Result probabilisticReach(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs,
+                                                                    ProbabilisticReachability.Mode mode, long memoryBytes) {
+        ProgramGraphTransitionSystem<L, A> ts = instrumented(new ProgramGraphTransitionSystem<>(pg, actionDefs, conditionDefs, 0, false));
+        return probabilisticReach(ts, ProbabilisticReachability.fingerprints(new ProgramGraphStateCodec<>()), mode, memoryBytes);
+    }
 
-        for(Pair<S1,S2> states:statesProduct) {
-            HashSet<P> ap = new HashSet<>(ts1.getLabel(states.first));
-            ap.addAll(ts2.getLabel(states.second));
-            for(P p:ap)
-                ts.addToLabel(states,p);
-        }
-        return statesProduct;
+    /**
+     * Like {@link #reach(TransitionSystem)}, with a choice of traversal order,
+     * an optional depth bound ({@link ReachabilityEngine#UNBOUNDED} for none) and
+     * an optional progress listener (may be {@code null}). Always sequential.
+     */
+    public <S, A> Set<S> reach(TransitionSystem<S, A, ?> ts, ReachabilityEngine.Order order, int maxDepth,
+                               ReachabilityEngine.ProgressListener listener, long reportInterval) {
+        ReachabilityEngine<S> engine = new ReachabilityEngine<>(successorFunction(indexed(ts)));
+        engine.setOrder(order);
+        engine.setMaxDepth(maxDepth);
+        if(listener != null)
+            engine.setProgressListener(listener, reportInterval);
+        return timed("reach", () -> engine.explore(ts.getInitialStates()));
     }
 
-    @Override
-    public <S1, S2, A, P> TransitionSystem<Pair<S1, S2>, A, P> interleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2) {
-        TransitionSystem<Pair<S1, S2>, A, P> ts = new TransitionSystemImpl<>();
-        Set<Pair<S1,S2>> statesProduct = initializeTs(ts,ts1,ts2, null);
-        return ts;
+    // systems without adjacency indexes get a one-pass index of their outgoing transitions, not a copy
+    private <S, A, P> IndexedTransitionSystem<S, A, P> indexed(TransitionSystem<S, A, P> ts) {
+        if(ts instanceof IndexedTransitionSystem)
+            return (IndexedTransitionSystem<S, A, P>) ts;
+        return new OutgoingIndex<>(ts);
+    }
 
+    private <S, A> ReachabilityEngine.SuccessorFunction<S> successorFunction(IndexedTransitionSystem<S, A, ?> ts) {
+        return (s, sink) -> {
+            for(Transition<S, A> t:ts.outgoing(s))
+                sink.accept(t.getTo());
+        };
     }
-    private <T> Set<T> addSets(Set<T> s1, Set<T> s2) {
-        Set<T> s3 = new HashSet<>(s1);
-        s3.addAll(s2);
-        return s3;
+
+    private <S, A> FrontierExplorer.TransitionGenerator<S, A> transitionGenerator(IndexedTransitionSystem<S, A, ?> ts) {
+        return (s, sink) -> ts.outgoing(s).forEach(sink);
     }
+
+    @Override
+    public <S1, S2, A, P> TransitionSystem<Pair<S1, S2>, A, P> interleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2) {
+        return timed("interleave", () -> materialize(lazyInterleave(ts1, ts2, null), null));
+    }
+
     @Override
     public <S1, S2, A, P> TransitionSystem<Pair<S1, S2>, A, P> interleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2, Set<A> handShakingActions) {
-        TransitionSystem<Pair<S1, S2>, A, P> ts = new TransitionSystemImpl<>();
-        Set<Pair<S1,S2>> statesProduct = initializeTs(ts,ts1,ts2,handShakingActions);
-        return ts;
+        return timed("interleave", () -> materialize(lazyInterleave(ts1, ts2, handShakingActions), null));
     }
 
-    private <S1,S2,A,P> void travelTS(TransitionSystem<Pair<S1, S2>, A, P> ts, Pair<S1,S2> states, Map<S1,Set<A>> s2a1,
-                                      Map<S2,Set<A>> s2a2, Map<Pair<S1,A>,Set<S1>> sa2s1, Map<Pair<S2,A>,Set<S2>> sa2s2,
-                                      Set<A> handShakingActions, Set<Pair<S1,S2>> visited) {
-        Pair<S1,S2> next;
-        if(visited.contains(states))
-            return;
-        visited.add(states);
-        boolean isHandshakeAction;
-        if(s2a1.containsKey(states.first)) {
-            for (A action : s2a1.get(states.first)) {
-                isHandshakeAction = handShakingActions != null && handShakingActions.contains(action);
-
-                if (isHandshakeAction && s2a2.containsKey(states.second) && s2a2.get(states.second).contains(action)) {
-                    for (S1 to1 : sa2s1.get(new Pair<S1, A>(states.first, action))) {
-                        for (S2 to2 : sa2s2.get(new Pair<S2, A>(states.second, action))) {
-                            next = new Pair<>(to1, to2);
-                            ts.addState(next);
-                            ts.addTransition(new Transition<>(states, action, next));
-                            travelTS(ts, next, s2a1, s2a2, sa2s1, sa2s2, handShakingActions,visited);
-                        }
-                    }
-                } else if (!isHandshakeAction) {
-                    for (S1 to : sa2s1.get(new Pair<S1, A>(states.first, action))) {
-                        next = new Pair<>(to, states.second);
-                        ts.addState(next);
-                        ts.addTransition(new Transition<>(states, action, next));
-                        travelTS(ts, next, s2a1, s2a2, sa2s1, sa2s2, handShakingActions,visited);
-                    }
-                }
-            }
-        }
-        if(s2a2.containsKey(states.second)) {
-            for (A action : s2a2.get(states.second)) {
-                isHandshakeAction = handShakingActions != null && handShakingActions.contains(action);
-                if (!isHandshakeAction) {
-                    for (S2 to : sa2s2.get(new Pair<S2, A>(states.second, action))) {
-                        next = new Pair<>(states.first,to);
-                        ts.addState(next);
-                        ts.addTransition(new Transition<>(states, action, next));
-                        travelTS(ts, next, s2a1, s2a2, sa2s1, sa2s2, handShakingActions,visited);
-                    }
-                }
-            }
-        }
+    /**
+     * Like {@link #interleave(TransitionSystem, TransitionSystem, Set)}
+     * (handshake actions may be {@code null}), but stops once {@code budget}
+     * runs out or {@code token} (may be {@code null}) is cancelled, with the
+     * part built so far.
+     */
+    public <S1, S2, A, P> BoundedResult<TransitionSystem<Pair<S1, S2>, A, P>> interleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2, Set<A> handShakingActions,
+                                                                                      ExplorationBudget budget, CancellationToken token) {
+        return bounded("interleave", lazyInterleave(ts1, ts2, handShakingActions), budget, token);
+    }
 
+    private <S, A, P> BoundedResult<TransitionSystem<S, A, P>> bounded(String phase, LazyTransitionSystem<S, A, P> ts,
+                                                                       ExplorationBudget budget, CancellationToken token) {
+        ExplorationLimit limit = budget.start(token);
+        return timed(phase, () -> limit.result(materialize(ts, limit)));
+    }
+
+    // the reachable part of ts, compact when setCompactTransitionSystems is set
+    private <S, A, P> TransitionSystem<S, A, P> materialize(LazyTransitionSystem<S, A, P> ts, ExplorationLimit limit) {
+        return _compact ? ts.materializeCompact(_pool, limit) : ts.materialize(_pool, limit);
+    }
+
+    /**
+     * The interleaving of {@code ts1} and {@code ts2} as a read-only view that
+     * computes product states on demand, instead of building all reachable
+     * ones up front like {@link #interleave(TransitionSystem, TransitionSystem)}.
+     */
+    public <S1, S2, A, P> InterleavedTransitionSystem<S1, S2, A, P> lazyInterleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2) {
+        return lazyInterleave(ts1, ts2, null);
+    }
+
+    /**
+     * Like {@link #lazyInterleave(TransitionSystem, TransitionSystem)}, with
+     * handshake actions ({@code null} for none).
+     */
+    public <S1, S2, A, P> InterleavedTransitionSystem<S1, S2, A, P> lazyInterleave(TransitionSystem<S1, A, P> ts1, TransitionSystem<S2, A, P> ts2, Set<A> handShakingActions) {
+        return instrumented(new InterleavedTransitionSystem<>(indexed(ts1), indexed(ts2), handShakingActions));
+    }
+
+    /**
+     * The quotient of {@code ts} by its coarsest bisimulation over atomic
+     * propositions, with the block of every state (see {@link Bisimulation}).
+     */
+    public <S, A, P> Bisimulation.Quotient<S, A, P> minimize(TransitionSystem<S, A, P> ts) {
+        return timed("minimize", () -> Bisimulation.minimize(ts));
     }
 
     @Override
@@ -350,183 +641,190 @@ public class FvmFacadeImpl implements FvmFacade {
     }
 
 
-    private void generateBinary(List<List<Boolean>> l, List<Boolean> input, int index) {
-        if(index>=input.size()) {
-            l.add(input);
-            return;
-        }
-
-        List<Boolean> newInput = new ArrayList<>(input);
-        newInput.set(index,FALSE);
-        generateBinary(l, newInput, index+1);
-        newInput = new ArrayList<>(input);
-        newInput.set(index,TRUE);
-        generateBinary(l, newInput, index+1);
-    }
-
-    private List<Map<String,Boolean>> generateInputs(List<String> inputNames) {
-        List<Boolean> initialInput = inputNames.parallelStream().map(s -> FALSE).collect(Collectors.toList());
-        List<List<Boolean>> l = new ArrayList<>();
-        generateBinary(l,initialInput,0); // l contains all binary combinations
-        List<Map<String,Boolean>> listOfMaps = new ArrayList<>();
-        for(List<Boolean> input:l) {
-            Map<String,Boolean> map = new HashMap<>();
-            for(int i=0; i<input.size(); i++) {
-                map.put(inputNames.get(i),input.get(i));
-            }
-            listOfMaps.add(map);
-        }
-        return listOfMaps;
-    }
-
-    private void visitCircuit(TransitionSystem<Pair<Map<String, Boolean>, Map<String, Boolean>>, Map<String, Boolean>, Object> ts,
-                              Circuit c, Map<String, Boolean> inputs, Map<String, Boolean> registers,
-                              List<Map<String,Boolean>> allInputs) {
-        Pair<Map<String,Boolean>,Map<String,Boolean>> p1 = new Pair<>(inputs,registers);
-
-        if(ts.getStates().contains(p1))
-            return;
-
-        ts.addState(p1);
-        for(String s:inputs.entrySet().parallelStream().filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toList())) {
-            ts.addAtomicProposition(s);
-            ts.addToLabel(p1,s);
-        }
-        for(String s:registers.entrySet().parallelStream().filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toList())) {
-            ts.addAtomicProposition(s);
-            ts.addToLabel(p1,s);
-        }
-        for(String s:c.computeOutputs(inputs,registers).entrySet().parallelStream().filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toList())) {
-            ts.addAtomicProposition(s);
-            ts.addToLabel(p1,s);
-        }
-
-        for(Map<String,Boolean> newInput:allInputs) {
-            ts.addAction(newInput);
-            Map<String,Boolean> newRegister = c.updateRegisters(inputs,registers);
-            visitCircuit(ts,c,newInput,newRegister,allInputs);
-            Pair<Map<String,Boolean>,Map<String,Boolean>> p2 = new Pair<>(newInput,newRegister);
-            ts.addTransition(new Transition<>(p1,newInput,p2));
-        }
-
-
-
-    }
     @Override
     public TransitionSystem<Pair<Map<String, Boolean>, Map<String, Boolean>>, Map<String, Boolean>, Object> transitionSystemFromCircuit(Circuit c) {
-        TransitionSystem<Pair<Map<String, Boolean>, Map<String, Boolean>>, Map<String, Boolean>, Object> ts = new TransitionSystemImpl<>();
-        List<String> inputNames = new ArrayList<>(c.getInputPortNames());
-        Set<String> registers = c.getRegisterNames();
-        Map<String,Boolean> registerValues = new HashMap<>();
-
-        for(String s:registers) {
-            registerValues.put(s, FALSE);
-        }
-
-        List<Map<String,Boolean>> allInputs = generateInputs(inputNames);
-        for(Map<String,Boolean> input:allInputs) {
-            Pair<Map<String,Boolean>,Map<String,Boolean>> p = new Pair<>(input,registerValues);
-            visitCircuit(ts,c,input,registerValues,allInputs);
-            ts.addInitialState(p);
-        }
-
-        return ts;
+        if(_symbolicCircuits)
+            return symbolicTransitionSystemFromCircuit(c);
+        return timed("transitionSystemFromCircuit", () -> materialize(lazyTransitionSystemFromCircuit(c), null));
+    }
+
+    /**
+     * Like {@code transitionSystemFromCircuit}, but stops once {@code budget}
+     * runs out or {@code token} (may be {@code null}) is cancelled, with the
+     * part built so far. Symbolic circuits are built in full.
+     */
+    public BoundedResult<TransitionSystem<Pair<Map<String, Boolean>, Map<String, Boolean>>, Map<String, Boolean>, Object>> transitionSystemFromCircuit(Circuit c,
+                                                                                                                                                 ExplorationBudget budget, CancellationToken token) {
+        if(_symbolicCircuits)
+            return new BoundedResult<>(symbolicTransitionSystemFromCircuit(c), null);
+        return bounded("transitionSystemFromCircuit", lazyTransitionSystemFromCircuit(c), budget, token);
+    }
+
+    /**
+     * The transition system of {@code c} as a read-only view over encoded
+     * input and register words. Its states can be enumerated without
+     * generating any transition, which keeps circuits with many inputs
+     * tractable.
+     */
+    public CircuitTransitionSystem lazyTransitionSystemFromCircuit(Circuit c) {
+        return instrumented(new CircuitTransitionSystem(c));
+    }
+
+    /**
+     * The transition system of {@code c}, kept as BDDs. Its states are never
+     * enumerated unless the caller iterates over them.
+     *
+     * @throws FVMException if {@code c} has more than
+     *                      {@link SymbolicCircuitTransitionSystem#MAX_STATE_BITS}
+     *                      inputs and registers.
+     */
+    public SymbolicCircuitTransitionSystem symbolicTransitionSystemFromCircuit(Circuit c) {
+        return new SymbolicCircuitTransitionSystem(c);
     }
 
-    private <L, A> void addStateToTs(TransitionSystem<Pair<L, Map<String, Object>>, A, String> ts, Pair<L,Map<String, Object>> p) {
-        ts.addState(p);
-        String str;
-        str = p.first.toString();
-        ts.addAtomicProposition(str);
-        ts.addToLabel(p,str);
-        for(Map.Entry<String,Object> e:p.second.entrySet()) {
-            str = String.format("%s = %s",e.getKey(),e.getValue());
-            ts.addAtomicProposition(str);
-            ts.addToLabel(p,str);
-        }
+    @Override
+    public <L, A> TransitionSystem<Pair<L, Map<String, Object>>, A, String> transitionSystemFromProgramGraph(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs) {
+        // every state is expanded exactly once here, so memoizing successors would not pay off;
+        // states are not interned, as a StateStore saves too little to pay for what it retains
+        return timed("transitionSystemFromProgramGraph",
+                () -> materialize(instrumented(new ProgramGraphTransitionSystem<>(pg, actionDefs, conditionDefs, 0)), null));
+    }
+
+    /**
+     * Like {@code transitionSystemFromProgramGraph}, but stops once
+     * {@code budget} runs out or {@code token} (may be {@code null}) is
+     * cancelled, with the part built so far.
+     */
+    public <L, A> BoundedResult<TransitionSystem<Pair<L, Map<String, Object>>, A, String>> transitionSystemFromProgramGraph(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs,
+                                                                                                                       ExplorationBudget budget, CancellationToken token) {
+        return bounded("transitionSystemFromProgramGraph",
+                instrumented(new ProgramGraphTransitionSystem<>(pg, actionDefs, conditionDefs, 0)), budget, token);
+    }
+
+    /**
+     * {@code transitionSystemFromProgramGraph}, with the visited states and
+     * the transitions kept in memory-mapped files under {@code directory}
+     * rather than on the heap. Close the result to delete the files.
+     */
+    public <L, A> DiskTransitionSystem<Pair<L, Map<String, Object>>, A, String> transitionSystemFromProgramGraphOnDisk(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, Path directory) {
+        return timed("transitionSystemFromProgramGraphOnDisk",
+                () -> new DiskTransitionSystem<>(instrumented(new ProgramGraphTransitionSystem<>(pg, actionDefs, conditionDefs, 0, false)),
+                        new ProgramGraphStateCodec<>(), directory, DISK_HOT_CACHE_SIZE));
+    }
+
+    /**
+     * The transition system of {@code pg} as a read-only view that computes
+     * successors on demand, memoizing those of the {@code cacheSize} most
+     * recently expanded states.
+     */
+    public <L, A> ProgramGraphTransitionSystem<L, A> lazyTransitionSystemFromProgramGraph(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, int cacheSize) {
+        return instrumented(new ProgramGraphTransitionSystem<>(pg, actionDefs, conditionDefs, cacheSize));
     }
 
-    private <L,A> void visitState(TransitionSystem<Pair<L, Map<String, Object>>, A, String> ts, ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, Pair<L, Map<String, Object>> curr) {
-        if(ts.getStates().contains(curr))
-            return;
-        addStateToTs(ts,curr);
-
-        for(PGTransition<L,A> t1:pg.getTransitions().parallelStream().filter(t -> t.getFrom().equals(curr.first)).collect(Collectors.toSet())) {
-            for(ConditionDef cd:conditionDefs) {
-                if(cd.evaluate(curr.second,t1.getCondition())) {
-                    List<ActionDef> a = actionDefs.parallelStream().filter(action -> action.isMatchingAction(t1.getAction())).collect(Collectors.toList());
-                    Map<String,Object> map;
-                    if(a.size()>0)
-                        map = a.get(0).effect(curr.second,t1.getAction());
-                    else
-                        map = curr.second;
-                    Pair<L,Map<String,Object>> p = new Pair<L,Map<String,Object>>(t1.getTo(),map);
-                    visitState(ts,pg,actionDefs,conditionDefs,p);
-                    ts.addAction(t1.getAction());
-                    ts.addTransition(new Transition<>(curr,t1.getAction(),p));
-                }
-            }
-        }
+    @Override
+    public <L, A> TransitionSystem<Pair<List<L>, Map<String, Object>>, A, String> transitionSystemFromChannelSystem(ChannelSystem<L, A> cs) {
+        return timed("transitionSystemFromChannelSystem",
+                () -> materialize(lazyTransitionSystemFromChannelSystem(cs, CHANNEL_STEP_CACHE_SIZE)));
     }
 
-    @Override
-    public <L, A> TransitionSystem<Pair<L, Map<String, Object>>, A, String> transitionSystemFromProgramGraph(ProgramGraph<L, A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs) {
-        TransitionSystem<Pair<L, Map<String, Object>>, A, String> ts = new TransitionSystemImpl<>();
-
-        for(L l:pg.getInitialLocations()) {
-            for(List<String> lstr:pg.getInitalizations()) {
-                Map<String,Object> newMap = new HashMap<>();
-                for(String str:lstr) {
-                    ActionDef a = actionDefs.stream().filter(action -> action.isMatchingAction(str)).collect(Collectors.toList()).get(0);
-                    newMap = a.effect(newMap,str);
-                }
-                Pair<L,Map<String, Object>> p = new Pair<>(l,newMap);
-                visitState(ts,pg,actionDefs,conditionDefs,p);
-                ts.addInitialState(p);
-            }
-        }
+    /**
+     * The transition system of the interleaving of {@code pgs}, like
+     * {@code transitionSystemFromProgramGraph} applied to repeated
+     * {@code interleave}s, but without building the interleaved graph, and
+     * reduced when {@link #setPartialOrderReduction} is set. Its states hold
+     * one location per graph. As there, a graph without initializations
+     * leaves the system without initial states.
+     */
+    public <L, A> TransitionSystem<Pair<List<L>, Map<String, Object>>, A, String> transitionSystemFromProgramGraphs(List<ProgramGraph<L, A>> pgs, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs) {
+        return timed("transitionSystemFromProgramGraphs",
+                () -> materialize(instrumented(new ChannelSystemTransitionSystem<>(new ChannelSystem<>(pgs), actionDefs, conditionDefs,
+                        Collections.emptySet(), _channelCapacity, CHANNEL_STEP_CACHE_SIZE, true))));
+    }
 
-        return ts;
+    private <L, A> TransitionSystem<Pair<List<L>, Map<String, Object>>, A, String> materialize(ChannelSystemTransitionSystem<L, A> ts) {
+        return _observed == null ? materialize(ts, null) : ts.materializeReduced(_observed);
     }
 
-    @Override
-    public <L, A> TransitionSystem<Pair<List<L>, Map<String, Object>>, A, String> transitionSystemFromChannelSystem(ChannelSystem<L, A> cs) {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement product
+    /**
+     * The transition system of {@code cs} as a read-only view that computes
+     * interleavings on demand, memoizing the steps of the {@code cacheSize}
+     * most recently used {@code (location, valuation)} pairs of every
+     * component. Honours {@link #setChannelCapacity}.
+     */
+    public <L, A> ChannelSystemTransitionSystem<L, A> lazyTransitionSystemFromChannelSystem(ChannelSystem<L, A> cs, int cacheSize) {
+        Set<ActionDef> actionDefs = Collections.singleton(new ParserBasedActDef());
+        Set<ConditionDef> conditionDefs = Collections.singleton(new ParserBasedCondDef());
+        Set<InterleavingActDef> interleavingDefs = Collections.singleton(new ParserBasedInterleavingActDef());
+        return instrumented(new ChannelSystemTransitionSystem<>(cs, actionDefs, conditionDefs, interleavingDefs, _channelCapacity, cacheSize));
     }
 
     @Override
     public <Sts, Saut, A, P> TransitionSystem<Pair<Sts, Saut>, A, Saut> product(TransitionSystem<Sts, A, P> ts, Automaton<Saut, P> aut) {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement product
+        return timed("product", () -> materialize(lazyProduct(ts, aut), null));
+    }
+
+    /**
+     * The product of {@code ts} and {@code aut} as a read-only view that
+     * computes product states on demand.
+     */
+    public <Sts, Saut, A, P> ProductTransitionSystem<Sts, Saut, A, P> lazyProduct(TransitionSystem<Sts, A, P> ts, Automaton<Saut, P> aut) {
+        return instrumented(new ProductTransitionSystem<>(indexed(ts), aut));
     }
 
     @Override
     public ProgramGraph<String, String> programGraphFromNanoPromela(String filename) throws Exception {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement programGraphFromNanoPromela
+        try(InputStream in = new FileInputStream(filename)) {
+            return programGraphFromNanoPromela(in);
+        }
     }
 
     @Override
     public ProgramGraph<String, String> programGraphFromNanoPromelaString(String nanopromela) throws Exception {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement programGraphFromNanoPromelaString
+        return _nanoPromela.compile(nanopromela);
     }
 
     @Override
     public ProgramGraph<String, String> programGraphFromNanoPromela(InputStream inputStream) throws Exception {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement programGraphFromNanoPromela
+        return _nanoPromela.compile(inputStream);
     }
 
     @Override
     public <S, A, P, Saut> VerificationResult<S> verifyAnOmegaRegularProperty(TransitionSystem<S, A, P> ts, Automaton<Saut, P> aut) {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement verifyAnOmegaRegularProperty
-    }
-
+        return timed("verifyAnOmegaRegularProperty", () -> verify(ts, aut));
+    }
+
+    private <S, A, P, Saut> VerificationResult<S> verify(TransitionSystem<S, A, P> ts, Automaton<Saut, P> aut) {
+        // aut accepts the bad behaviors, so any accepting cycle of the product is a counterexample
+        ProductTransitionSystem<S, Saut, A, P> product = lazyProduct(ts, aut);
+        NestedDepthFirstSearch.Lasso<Pair<S, Saut>> lasso = _pool == null
+                ? new NestedDepthFirstSearch<Pair<S, Saut>>(product::successors, product::isAccepting).search(product.getInitialStates())
+                : new SwarmNestedDepthFirstSearch<Pair<S, Saut>>(product::successors, product::isAccepting, _pool, 0).search(product.getInitialStates());
+        if(lasso == null)
+            return new VerificationSucceeded<>();
+        VerificationFailed<S> failed = new VerificationFailed<>();
+        failed.setPrefix(lasso.getPrefix().stream().map(p -> p.first).collect(Collectors.toList()));
+        failed.setCycle(lasso.getCycle().stream().map(p -> p.first).collect(Collectors.toList()));
+        return failed;
+    }
+
+    /**
+     * Translates through one translator kept by this facade, so subformulas
+     * shared between formulas are built once; it keeps the nodes of every
+     * formula it was given for the lifetime of the facade.
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public <L> Automaton<?, L> LTL2NBA(LTL<L> ltl) {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement LTL2NBA
+        MultiColorAutomaton<Integer, Object> gnba;
+        synchronized(_ltl) {
+            gnba = _ltl.translate((LTL<Object>) (LTL<?>) ltl);
+        }
+        return GNBA2NBA((MultiColorAutomaton<Integer, L>) (MultiColorAutomaton<Integer, ?>) gnba);
     }
 
     @Override
     public <L> Automaton<?, L> GNBA2NBA(MultiColorAutomaton<?, L> mulAut) {
-        throw new UnsupportedOperationException("Not supported yet."); // TODO: Implement GNBA2NBA
+        return Degeneralizer.degeneralize(mulAut);
     }
 
    
@@ -0,0 +1,286 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of the hot paths behind {@link FvmFacadeImpl}: states
+ * and transitions found by explorations, {@code post}/{@code pre} calls,
+ * condition evaluations and action effects of program graphs, and the time
+ * spent in each facade operation.
+ * <p>
+ * Instrumented code holds a reference that is {@code null} when metrics are
+ * off, so the cost of turning them off is a null check per event. Counters
+ * are {@link LongAdder}s, so parallel explorations do not contend on them.
+ * Read them through {@link #snapshot} or, after {@link #register}, through
+ * JMX.
+ */
+public final class FvmMetrics implements FvmMetricsMXBean {
+
+    /**
+     * One running exploration, fed by its visitor and closed when it is done.
+     */
+    public final class Exploration implements AutoCloseable {
+        private final long _start = System.nanoTime();
+        private long _states;
+
+        private Exploration() {
+            _running.add(this);
+        }
+
+        public void state() {
+            _states++;
+            _statesDiscovered.increment();
+            long visited = _visited.incrementAndGet();
+            if(visited > _peakVisited.get())
+                _peakVisited.accumulateAndGet(visited, Math::max);
+        }
+
+        public void transition() {
+            _transitionsGenerated.increment();
+        }
+
+        @Override
+        public void close() {
+            if(_running.remove(this)) {
+                _visited.addAndGet(-_states);
+                _explorationNanos.add(System.nanoTime() - _start);
+            }
+        }
+    }
+
+    /**
+     * The time spent in a facade operation, recorded when closed.
+     */
+    public final class Phase implements AutoCloseable {
+        private final String _name;
+        private final long _start = System.nanoTime();
+
+        private Phase(String name) {
+            _name = name;
+        }
+
+        @Override
+        public void close() {
+            _phaseNanos.computeIfAbsent(_name, n -> new LongAdder()).add(System.nanoTime() - _start);
+        }
+    }
+
+    /**
+     * The counters at one point in time.
+     */
+    public static final class Snapshot {
+        private final long _statesDiscovered;
+        private final long _transitionsGenerated;
+        private final long _postCalls;
+        private final long _preCalls;
+        private final long _conditionEvaluations;
+        private final long _actionEffects;
+        private final long _visitedStates;
+        private final long _peakVisitedStates;
+        private final double _statesPerSecond;
+        private final Map<String, Long> _phaseMillis;
+
+        private Snapshot(FvmMetrics m) {
+            _statesDiscovered = m.getStatesDiscovered();
+            _transitionsGenerated = m.getTransitionsGenerated();
+            _postCalls = m.getPostCalls();
+            _preCalls = m.getPreCalls();
+            _conditionEvaluations = m.getConditionEvaluations();
+            _actionEffects = m.getActionEffects();
+            _visitedStates = m.getVisitedStates();
+            _peakVisitedStates = m.getPeakVisitedStates();
+            _statesPerSecond = m.getStatesPerSecond();
+            _phaseMillis = Collections.unmodifiableMap(m.getPhaseMillis());
+        }
+
+        public long getStatesDiscovered() {
+            return _statesDiscovered;
+        }
+
+        public long getTransitionsGenerated() {
+            return _transitionsGenerated;
+        }
+
+        public long getPostCalls() {
+            return _postCalls;
+        }
+
+        public long getPreCalls() {
+            return _preCalls;
+        }
+
+        public long getConditionEvaluations() {
+            return _conditionEvaluations;
+        }
+
+        public long getActionEffects() {
+            return _actionEffects;
+        }
+
+        public long getVisitedStates() {
+            return _visitedStates;
+        }
+
+        public long getPeakVisitedStates() {
+            return _peakVisitedStates;
+        }
+
+        public double getStatesPerSecond() {
+            return _statesPerSecond;
+        }
+
+        public Map<String, Long> getPhaseMillis() {
+            return _phaseMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("states=%d transitions=%d post=%d pre=%d conditions=%d effects=%d visited=%d (peak %d) %.1f states/s phases=%s",
+                    _statesDiscovered, _transitionsGenerated, _postCalls, _preCalls, _conditionEvaluations,
+                    _actionEffects, _visitedStates, _peakVisitedStates, _statesPerSecond, _phaseMillis);
+        }
+    }
+
+    private final LongAdder _statesDiscovered = new LongAdder();
+    private final LongAdder _transitionsGenerated = new LongAdder();
+    private final LongAdder _postCalls = new LongAdder();
+    private final LongAdder _preCalls = new LongAdder();
+    private final LongAdder _conditionEvaluations = new LongAdder();
+    private final LongAdder _actionEffects = new LongAdder();
+    private final AtomicLong _visited = new AtomicLong();
+    private final AtomicLong _peakVisited = new AtomicLong();
+    private final LongAdder _explorationNanos = new LongAdder();
+    private final Set<Exploration> _running = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongAdder> _phaseNanos = new ConcurrentHashMap<>();
+
+    public Exploration startExploration() {
+        return new Exploration();
+    }
+
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    public void post() {
+        _postCalls.increment();
+    }
+
+    public void pre() {
+        _preCalls.increment();
+    }
+
+    public void condition() {
+        _conditionEvaluations.increment();
+    }
+
+    public void effect() {
+        _actionEffects.increment();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@code il.ac.bgu.cs.fvm:type=FvmMetrics,name=<name>}.
+     *
+     * @return the name registered, for {@link #unregister}.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("il.ac.bgu.cs.fvm:type=FvmMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch(JMException e) {
+            throw new IllegalStateException("Cannot register metrics " + name, e);
+        }
+    }
+
+    public void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch(JMException e) {
+            throw new IllegalStateException("Cannot unregister metrics " + name, e);
+        }
+    }
+
+    @Override
+    public long getStatesDiscovered() {
+        return _statesDiscovered.sum();
+    }
+
+    @Override
+    public long getTransitionsGenerated() {
+        return _transitionsGenerated.sum();
+    }
+
+    @Override
+    public long getPostCalls() {
+        return _postCalls.sum();
+    }
+
+    @Override
+    public long getPreCalls() {
+        return _preCalls.sum();
+    }
+
+    @Override
+    public long getConditionEvaluations() {
+        return _conditionEvaluations.sum();
+    }
+
+    @Override
+    public long getActionEffects() {
+        return _actionEffects.sum();
+    }
+
+    @Override
+    public long getVisitedStates() {
+        return _visited.get();
+    }
+
+    @Override
+    public long getPeakVisitedStates() {
+        return _peakVisited.get();
+    }
+
+    @Override
+    public double getStatesPerSecond() {
+        long now = System.nanoTime();
+        long nanos = _explorationNanos.sum();
+        for(Exploration e:_running)
+            nanos += now - e._start;
+        return nanos == 0 ? 0 : _statesDiscovered.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        Map<String, Long> result = new TreeMap<>();
+        _phaseNanos.forEach((name, nanos) -> result.put(name, nanos.sum() / 1_000_000));
+        return result;
+    }
+
+    /**
+     * Zeroes the counters. Running explorations keep counting and still
+     * count as visited.
+     */
+    @Override
+    public void reset() {
+        _statesDiscovered.reset();
+        _transitionsGenerated.reset();
+        _postCalls.reset();
+        _preCalls.reset();
+        _conditionEvaluations.reset();
+        _actionEffects.reset();
+        _peakVisited.set(_visited.get());
+        _explorationNanos.reset();
+        _phaseNanos.clear();
+    }
+}
@@ -0,0 +1,43 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link FvmMetrics}. Counts are totals since creation or the
+ * last {@link #reset}.
+ */
+public interface FvmMetricsMXBean {
+
+    long getStatesDiscovered();
+
+    long getTransitionsGenerated();
+
+    long getPostCalls();
+
+    long getPreCalls();
+
+    long getConditionEvaluations();
+
+    long getActionEffects();
+
+    /**
+     * @return the number of states held by the visited sets of the
+     * explorations running now.
+     */
+    long getVisitedStates();
+
+    long getPeakVisitedStates();
+
+    /**
+     * @return states discovered per second of exploration, running
+     * explorations included.
+     */
+    double getStatesPerSecond();
+
+    /**
+     * @return the time spent in each facade operation, in milliseconds.
+     */
+    Map<String, Long> getPhaseMillis();
+
+    void reset();
+}
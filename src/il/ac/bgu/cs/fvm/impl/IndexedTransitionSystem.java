@@ -0,0 +1,26 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.Set;
+
+/**
+ * A transition system that can answer adjacency queries without scanning all of
+ * its transitions. {@link FvmFacadeImpl} uses these methods for {@code post}
+ * and {@code pre} whenever it is handed such a system.
+ * <p>
+ * Returned sets are read-only views and are empty (never {@code null}) for
+ * unknown states.
+ */
+public interface IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> extends TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> {
+
+    Set<Transition<STATE,ACTION>> outgoing(STATE s);
+
+    Set<Transition<STATE,ACTION>> incoming(STATE s);
+
+    Set<STATE> post(STATE s, ACTION a);
+
+    Set<STATE> pre(STATE s, ACTION a);
+
+}
@@ -0,0 +1,406 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * The int core of a transition system. States, actions and propositions are
+ * numbers from 0, and {@link CompactTransitionSystem} maps them to and from
+ * objects.
+ * <p>
+ * Transitions are kept twice, as sorted {@code (action, target)} and
+ * {@code (action, source)} keys grouped by state in compressed sparse rows,
+ * so that the transitions of a state, or of a state and an action, are a
+ * contiguous range of indices. Labels are dictionary encoded: every state
+ * has the number of its label, and every distinct label is a bitset of
+ * {@code long} words, unless there are so many propositions and so few
+ * labelled ones that sorted proposition ids take less room.
+ * <p>
+ * Immutable, and therefore thread safe.
+ */
+public final class IntTransitionSystem {
+
+    private final int _stateCount;
+    private final int _actionCount;
+    private final int _apCount;
+    private final BitSet _initial = new BitSet();
+    private final Rows _out;
+    private final Rows _in;
+    private final int[] _labelOf;
+    private final int _labelCount;
+    // words per label, when labels are bitsets
+    private final int _words;
+    private final long[] _labelBits;
+    // sorted proposition ids per label, when they are not
+    private final Rows _labelIds;
+
+    /**
+     * @param transitions {@code (source, action, target)} triples.
+     * @param labels      {@code (state, proposition)} pairs.
+     */
+    IntTransitionSystem(int stateCount, int actionCount, int apCount, int[] transitions, int[] initial, int[] labels) {
+        _stateCount = stateCount;
+        _actionCount = actionCount;
+        _apCount = apCount;
+        for(int s:initial)
+            _initial.set(s);
+
+        int count = transitions.length / 3;
+        int[] sources = new int[count];
+        int[] targets = new int[count];
+        long[] outKeys = new long[count];
+        long[] inKeys = new long[count];
+        for(int i = 0; i < count; i++) {
+            int from = transitions[3 * i], action = transitions[3 * i + 1], to = transitions[3 * i + 2];
+            sources[i] = from;
+            targets[i] = to;
+            outKeys[i] = key(action, to);
+            inKeys[i] = key(action, from);
+        }
+        _out = new Rows(stateCount, sources, outKeys);
+        _in = new Rows(stateCount, targets, inKeys);
+
+        int[] labelled = new int[labels.length / 2];
+        long[] labelKeys = new long[labelled.length];
+        for(int i = 0; i < labelled.length; i++) {
+            labelled[i] = labels[2 * i];
+            labelKeys[i] = labels[2 * i + 1];
+        }
+        Rows perState = new Rows(stateCount, labelled, labelKeys);
+
+        // number the distinct labels
+        _labelOf = new int[stateCount];
+        Map<LongArray, Integer> labelIds = new HashMap<>();
+        List<long[]> distinct = new ArrayList<>();
+        for(int s = 0; s < stateCount; s++) {
+            long[] ids = Arrays.copyOfRange(perState._keys, perState._start[s], perState._start[s + 1]);
+            Integer id = labelIds.get(new LongArray(ids));
+            if(id == null) {
+                id = distinct.size();
+                labelIds.put(new LongArray(ids), id);
+                distinct.add(ids);
+            }
+            _labelOf[s] = id;
+        }
+        _labelCount = distinct.size();
+        int words = (apCount + 63) >>> 6;
+        long entries = 0;
+        for(long[] ids:distinct)
+            entries += ids.length;
+        // a bitset word holds 64 propositions, a sorted id takes a word of its own
+        if((long) words * _labelCount <= Math.max(entries, _labelCount)) {
+            _words = words;
+            _labelBits = new long[words * _labelCount];
+            for(int l = 0; l < _labelCount; l++)
+                for(long p:distinct.get(l))
+                    _labelBits[l * words + (int) (p >>> 6)] |= 1L << p;
+            _labelIds = null;
+        } else {
+            _words = 0;
+            _labelBits = null;
+            int[] owners = new int[(int) entries];
+            long[] keys = new long[(int) entries];
+            int n = 0;
+            for(int l = 0; l < _labelCount; l++)
+                for(long p:distinct.get(l)) {
+                    owners[n] = l;
+                    keys[n++] = p;
+                }
+            _labelIds = new Rows(_labelCount, owners, keys);
+        }
+    }
+
+    private static long key(int high, int low) {
+        return (long) high << 32 | (low & 0xFFFFFFFFL);
+    }
+
+    private static int high(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int low(long key) {
+        return (int) key;
+    }
+
+    public int stateCount() {
+        return _stateCount;
+    }
+
+    public int actionCount() {
+        return _actionCount;
+    }
+
+    public int apCount() {
+        return _apCount;
+    }
+
+    public int transitionCount() {
+        return _out._keys.length;
+    }
+
+    public boolean isInitial(int s) {
+        return _initial.get(s);
+    }
+
+    public BitSet initialStates() {
+        return (BitSet) _initial.clone();
+    }
+
+    /**
+     * @return the first index of the outgoing transitions of {@code s}; they
+     * end at {@code outStart(s + 1)}, and are sorted by action, then target.
+     */
+    public int outStart(int s) {
+        return _out._start[s];
+    }
+
+    /**
+     * @return the first index of the outgoing {@code action} transitions of
+     * {@code s}, which end at {@code outStart(s, action + 1)}.
+     */
+    public int outStart(int s, int action) {
+        return _out.lowerBound(s, key(action, 0));
+    }
+
+    public int outAction(int i) {
+        return high(_out._keys[i]);
+    }
+
+    public int outTarget(int i) {
+        return low(_out._keys[i]);
+    }
+
+    /**
+     * Like {@link #outStart(int)}, for incoming transitions, sorted by action,
+     * then source.
+     */
+    public int inStart(int s) {
+        return _in._start[s];
+    }
+
+    public int inStart(int s, int action) {
+        return _in.lowerBound(s, key(action, 0));
+    }
+
+    public int inAction(int i) {
+        return high(_in._keys[i]);
+    }
+
+    public int inSource(int i) {
+        return low(_in._keys[i]);
+    }
+
+    public boolean hasTransition(int from, int action, int to) {
+        return _out.contains(from, key(action, to));
+    }
+
+    /**
+     * @return the number of the label of {@code s}; states with equal labels
+     * have equal numbers.
+     */
+    public int labelOf(int s) {
+        return _labelOf[s];
+    }
+
+    public int labelCount() {
+        return _labelCount;
+    }
+
+    public boolean hasLabel(int s, int ap) {
+        int l = _labelOf[s];
+        if(_labelBits != null)
+            return (_labelBits[l * _words + (ap >>> 6)] & 1L << ap) != 0;
+        return _labelIds.contains(l, ap);
+    }
+
+    public void forEachLabel(int s, IntConsumer sink) {
+        int l = _labelOf[s];
+        if(_labelBits != null) {
+            for(int w = 0; w < _words; w++)
+                for(long bits = _labelBits[l * _words + w]; bits != 0; bits &= bits - 1)
+                    sink.accept(w << 6 | Long.numberOfTrailingZeros(bits));
+        } else {
+            for(int i = _labelIds._start[l]; i < _labelIds._start[l + 1]; i++)
+                sink.accept((int) _labelIds._keys[i]);
+        }
+    }
+
+    public int labelSize(int s) {
+        int l = _labelOf[s];
+        if(_labelIds != null)
+            return _labelIds._start[l + 1] - _labelIds._start[l];
+        int size = 0;
+        for(int w = 0; w < _words; w++)
+            size += Long.bitCount(_labelBits[l * _words + w]);
+        return size;
+    }
+
+    /**
+     * @return the states reachable from the initial ones.
+     */
+    public BitSet reach() {
+        return reach(null);
+    }
+
+    /**
+     * Like {@link #reach()}, stopping early once {@code limit} (may be
+     * {@code null}) runs out, with the states found so far.
+     */
+    BitSet reach(ExplorationLimit limit) {
+        BitSet visited = new BitSet(_stateCount);
+        int[] queue = new int[Math.max(1, _initial.cardinality())];
+        int head = 0, tail = 0;
+        try {
+            for(int s = _initial.nextSetBit(0); s >= 0; s = _initial.nextSetBit(s + 1)) {
+                if(limit != null)
+                    limit.state();
+                visited.set(s);
+                queue[tail++] = s;
+            }
+            while(head < tail) {
+                if(limit != null)
+                    limit.check();
+                int s = queue[head++];
+                for(int i = _out._start[s]; i < _out._start[s + 1]; i++) {
+                    int t = low(_out._keys[i]);
+                    if(!visited.get(t)) {
+                        if(limit != null)
+                            limit.state();
+                        visited.set(t);
+                        if(tail == queue.length)
+                            queue = Arrays.copyOf(queue, Math.min(2 * tail, _stateCount));
+                        queue[tail++] = t;
+                    }
+                }
+            }
+        } catch(ExplorationLimit.Stopped e) {
+            // return what was found
+        }
+        return visited;
+    }
+
+    /**
+     * @return the successors of the states in {@code states}.
+     */
+    public BitSet post(BitSet states) {
+        return image(_out, states);
+    }
+
+    /**
+     * @return the predecessors of the states in {@code states}.
+     */
+    public BitSet pre(BitSet states) {
+        return image(_in, states);
+    }
+
+    private static BitSet image(Rows rows, BitSet states) {
+        BitSet result = new BitSet();
+        for(int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1))
+            for(int i = rows._start[s]; i < rows._start[s + 1]; i++)
+                result.set(low(rows._keys[i]));
+        return result;
+    }
+
+    /**
+     * @return whether no state has two transitions with the same action.
+     */
+    public boolean hasDeterministicActions() {
+        for(int s = 0; s < _stateCount; s++)
+            for(int i = _out._start[s] + 1; i < _out._start[s + 1]; i++)
+                if(high(_out._keys[i]) == high(_out._keys[i - 1]))
+                    return false;
+        return true;
+    }
+
+    /**
+     * @return whether no state has two transitions into states with equal
+     * labels.
+     */
+    public boolean hasDeterministicLabels() {
+        int[] seen = new int[_labelCount];
+        Arrays.fill(seen, -1);
+        for(int s = 0; s < _stateCount; s++)
+            for(int i = _out._start[s]; i < _out._start[s + 1]; i++) {
+                int l = _labelOf[low(_out._keys[i])];
+                if(seen[l] == s)
+                    return false;
+                seen[l] = s;
+            }
+        return true;
+    }
+
+    /**
+     * Sorted, duplicate-free keys grouped by owner: the keys of owner
+     * {@code i} are {@code _keys[_start[i] .. _start[i+1])}.
+     */
+    private static class Rows {
+        private final int[] _start;
+        private final long[] _keys;
+
+        Rows(int owners, int[] owner, long[] keys) {
+            int[] start = new int[owners + 1];
+            for(int o:owner)
+                start[o + 1]++;
+            for(int i = 0; i < owners; i++)
+                start[i + 1] += start[i];
+            long[] grouped = new long[keys.length];
+            int[] fill = Arrays.copyOf(start, owners);
+            for(int i = 0; i < keys.length; i++)
+                grouped[fill[owner[i]]++] = keys[i];
+
+            // sort every row and drop duplicates in place
+            int size = 0;
+            for(int i = 0; i < owners; i++) {
+                int from = start[i];
+                int to = start[i + 1];
+                Arrays.sort(grouped, from, to);
+                start[i] = size;
+                for(int j = from; j < to; j++)
+                    if(j == from || grouped[j] != grouped[j - 1])
+                        grouped[size++] = grouped[j];
+            }
+            start[owners] = size;
+            _start = start;
+            _keys = size == grouped.length ? grouped : Arrays.copyOf(grouped, size);
+        }
+
+        int lowerBound(int owner, long key) {
+            int from = _start[owner];
+            int to = _start[owner + 1];
+            while(from < to) {
+                int mid = (from + to) >>> 1;
+                if(_keys[mid] < key)
+                    from = mid + 1;
+                else
+                    to = mid;
+            }
+            return from;
+        }
+
+        boolean contains(int owner, long key) {
+            int i = lowerBound(owner, key);
+            return i < _start[owner + 1] && _keys[i] == key;
+        }
+    }
+
+    // a long[] compared by content, as a map key
+    private static final class LongArray {
+        private final long[] _values;
+        private final int _hash;
+
+        LongArray(long[] values) {
+            _values = values;
+            _hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LongArray && Arrays.equals(_values, ((LongArray) o)._values);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+    }
+}
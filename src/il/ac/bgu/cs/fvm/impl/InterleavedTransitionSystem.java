@@ -0,0 +1,86 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The interleaving {@code ts1 ||| ts2} (or {@code ts1 ||_H ts2} when handshake
+ * actions are given) as a lazy view: product states are only created when a
+ * search reaches them.
+ */
+public class InterleavedTransitionSystem<S1,S2,A,P> extends LazyTransitionSystem<Pair<S1,S2>,A,P> {
+
+    private final IndexedTransitionSystem<S1,A,P> _ts1;
+    private final IndexedTransitionSystem<S2,A,P> _ts2;
+    private final Set<A> _handShakingActions;
+    private final Set<A> _actions;
+    private final Set<P> _ap;
+    private final Set<Pair<S1,S2>> _initial;
+
+    /**
+     * @param handShakingActions actions both components must take together, or
+     *                           {@code null} for pure interleaving.
+     */
+    public InterleavedTransitionSystem(IndexedTransitionSystem<S1,A,P> ts1, IndexedTransitionSystem<S2,A,P> ts2, Set<A> handShakingActions) {
+        _ts1 = ts1;
+        _ts2 = ts2;
+        _handShakingActions = handShakingActions == null ? Collections.emptySet() : handShakingActions;
+
+        Set<A> actions = new HashSet<>(ts1.getActions());
+        actions.addAll(ts2.getActions());
+        _actions = Collections.unmodifiableSet(actions);
+
+        Set<P> ap = new HashSet<>(ts1.getAtomicPropositions());
+        ap.addAll(ts2.getAtomicPropositions());
+        _ap = Collections.unmodifiableSet(ap);
+
+        Set<Pair<S1,S2>> initial = new HashSet<>();
+        for(S1 s1:ts1.getInitialStates())
+            for(S2 s2:ts2.getInitialStates())
+                initial.add(new Pair<>(s1,s2));
+        _initial = Collections.unmodifiableSet(initial);
+    }
+
+    @Override
+    public void transitions(Pair<S1,S2> states, Consumer<Transition<Pair<S1,S2>,A>> sink) {
+        for(Transition<S1,A> t1:_ts1.outgoing(states.first)) {
+            A action = t1.getAction();
+            if(_handShakingActions.contains(action)) {
+                for(S2 to2:_ts2.post(states.second, action))
+                    sink.accept(new Transition<>(states, action, new Pair<>(t1.getTo(), to2)));
+            } else {
+                sink.accept(new Transition<>(states, action, new Pair<>(t1.getTo(), states.second)));
+            }
+        }
+        for(Transition<S2,A> t2:_ts2.outgoing(states.second)) {
+            A action = t2.getAction();
+            if(!_handShakingActions.contains(action))
+                sink.accept(new Transition<>(states, action, new Pair<>(states.first, t2.getTo())));
+        }
+    }
+
+    @Override
+    public Set<P> getLabel(Pair<S1,S2> s) {
+        Set<P> label = new HashSet<>(_ts1.getLabel(s.first));
+        label.addAll(_ts2.getLabel(s.second));
+        return Collections.unmodifiableSet(label);
+    }
+
+    @Override
+    public Set<Pair<S1,S2>> getInitialStates() {
+        return _initial;
+    }
+
+    @Override
+    public Set<A> getActions() {
+        return _actions;
+    }
+
+    @Override
+    public Set<P> getAtomicPropositions() {
+        return _ap;
+    }
+}
@@ -0,0 +1,317 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * A read-only transition system whose successors are computed on demand.
+ * <p>
+ * {@link #outgoing}, {@link #post(Object, Object)}, {@link #getLabel} and the
+ * initial states never look beyond the asked-for state, so searches over the
+ * view only pay for what they visit. Queries that need the whole state space
+ * ({@link #getStates}, {@link #getTransitions}, {@link #incoming}, ...) explore
+ * the reachable part once and keep it.
+ * <p>
+ * All mutators except {@link #setName} throw {@link UnsupportedOperationException}.
+ */
+public abstract class LazyTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>
+        implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>, FrontierExplorer.TransitionGenerator<STATE,ACTION> {
+
+    private String _name;
+    private TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> _materialized;
+    // null when not instrumented
+    private FvmMetrics _metrics;
+
+    /**
+     * Generates the outgoing transitions of {@code from}.
+     */
+    @Override
+    public abstract void transitions(STATE from, Consumer<Transition<STATE,ACTION>> sink);
+
+    /**
+     * Builds the reachable part of this system into a new, mutable system.
+     *
+     * @param pool used for parallel exploration, or {@code null}.
+     */
+    public TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> materialize(ForkJoinPool pool) {
+        return materialize(pool, null);
+    }
+
+    /**
+     * Like {@link #materialize(ForkJoinPool)}, stopping early once
+     * {@code limit} runs out, with the part explored so far.
+     */
+    TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> materialize(ForkJoinPool pool, ExplorationLimit limit) {
+        TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> ts = new TransitionSystemImpl<>();
+        ts.setName(_name);
+        ts.addAllActions(declaredActions());
+        ts.addAllAtomicPropositions(declaredAtomicPropositions());
+        Set<STATE> initial = getInitialStates();
+        Set<STATE> reached = explore(pool, limit, initial, new FrontierExplorer.Visitor<STATE,ACTION>() {
+            @Override
+            public void newState(STATE s) {
+                ts.addState(s);
+                for(ATOMIC_PROPOSITION p:getLabel(s)) {
+                    ts.addAtomicProposition(p);
+                    ts.addToLabel(s, p);
+                }
+            }
+
+            @Override
+            public void transition(Transition<STATE,ACTION> t) {
+                ts.addAction(t.getAction());
+                ts.addTransition(t);
+            }
+        });
+        for(STATE s:initial)
+            if(reached.contains(s))
+                ts.addInitialState(s);
+        return ts;
+    }
+
+    /**
+     * Builds the reachable part of this system into a new, immutable
+     * {@link CompactTransitionSystem}, whose int core algorithms such as
+     * {@code reach} then use directly.
+     *
+     * @param pool used for parallel exploration, or {@code null}.
+     */
+    public CompactTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> materializeCompact(ForkJoinPool pool) {
+        return materializeCompact(pool, null);
+    }
+
+    /**
+     * Like {@link #materializeCompact(ForkJoinPool)}, stopping early once
+     * {@code limit} runs out, with the part explored so far.
+     */
+    CompactTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> materializeCompact(ForkJoinPool pool, ExplorationLimit limit) {
+        TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> builder = new TransitionSystemBuilder<>();
+        builder.name(_name);
+        builder.addActions(declaredActions());
+        builder.addAtomicPropositions(declaredAtomicPropositions());
+        Set<STATE> initial = getInitialStates();
+        Set<STATE> reached = explore(pool, limit, initial, new FrontierExplorer.Visitor<STATE,ACTION>() {
+            @Override
+            public void newState(STATE s) {
+                builder.addState(s);
+                for(ATOMIC_PROPOSITION p:getLabel(s)) {
+                    builder.addAtomicProposition(p);
+                    builder.addToLabel(s, p);
+                }
+            }
+
+            @Override
+            public void transition(Transition<STATE,ACTION> t) {
+                builder.addAction(t.getAction());
+                builder.addTransition(t);
+            }
+        });
+        for(STATE s:initial)
+            if(reached.contains(s))
+                builder.addInitialState(s);
+        return builder.build();
+    }
+
+    /*
+     * Explores the reachable part into target, counting it into the metrics,
+     * and returns the states reached.
+     */
+    private Set<STATE> explore(ForkJoinPool pool, ExplorationLimit limit, Set<STATE> initial, FrontierExplorer.Visitor<STATE,ACTION> target) {
+        FvmMetrics.Exploration run = _metrics == null ? null : _metrics.startExploration();
+        FrontierExplorer<STATE,ACTION> explorer = new FrontierExplorer<>(this, pool);
+        explorer.setLimit(limit);
+        try {
+            return explorer.explore(initial, run == null ? target : new FrontierExplorer.Visitor<STATE,ACTION>() {
+                @Override
+                public void newState(STATE s) {
+                    run.state();
+                    target.newState(s);
+                }
+
+                @Override
+                public void transition(Transition<STATE,ACTION> t) {
+                    run.transition();
+                    target.transition(t);
+                }
+            });
+        } finally {
+            if(run != null)
+                run.close();
+        }
+    }
+
+    /**
+     * Counts the work of this system into {@code metrics}, or stops counting
+     * if {@code null}. Set it before exploring.
+     */
+    public void setMetrics(FvmMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    /**
+     * @return the metrics this system counts into, or {@code null}.
+     */
+    protected FvmMetrics metrics() {
+        return _metrics;
+    }
+
+    /**
+     * Actions a materialized system starts with, on top of those its
+     * transitions use. Systems that do not know their alphabet up front
+     * return an empty set and derive {@link #getActions} from
+     * {@link #materialized}.
+     */
+    protected Set<ACTION> declaredActions() {
+        return getActions();
+    }
+
+    /**
+     * Atomic propositions a materialized system starts with, on top of those
+     * its labels use. See {@link #declaredActions}.
+     */
+    protected Set<ATOMIC_PROPOSITION> declaredAtomicPropositions() {
+        return getAtomicPropositions();
+    }
+
+    /**
+     * The reachable part of this system, explored on first use.
+     */
+    protected TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> materialized() {
+        if(_materialized == null)
+            _materialized = materialize(null);
+        _materialized.setName(_name);
+        return _materialized;
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> outgoing(STATE s) {
+        Set<Transition<STATE,ACTION>> result = new HashSet<>();
+        transitions(s, result::add);
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        Set<STATE> result = new HashSet<>();
+        transitions(s, t -> {
+            if(t.getAction().equals(a))
+                result.add(t.getTo());
+        });
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> incoming(STATE s) {
+        return materialized().incoming(s);
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        return materialized().pre(s, a);
+    }
+
+    @Override
+    public Set<STATE> getStates() {
+        return materialized().getStates();
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> getTransitions() {
+        return materialized().getTransitions();
+    }
+
+    @Override
+    public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
+        return materialized().getLabelingFunction();
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public void setName(String name) {
+        _name = name;
+    }
+
+    @Override
+    public void addAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addToLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException(getClass().getSimpleName() + " is a read-only view");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof TransitionSystem))
+            return false;
+        return materialized().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return materialized().hashCode();
+    }
+}
@@ -0,0 +1,577 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.automata.MultiColorAutomaton;
+import il.ac.bgu.cs.fvm.ltl.*;
+
+import java.util.*;
+
+/**
+ * Translates LTL formulas into generalized Büchi automata with the
+ * elementary-set construction.
+ * <p>
+ * Formulas are hash-consed into a table of int nodes, so equal subformulas
+ * share one node no matter how often they occur, and are simplified on the
+ * way in ({@code !!a = a}, {@code a & a = a}, {@code a U true = true},
+ * {@code false U b = b} and the like). The closure of every node is computed
+ * once and kept. An elementary set is a truth assignment to the positive
+ * subformulas of the closure, made in subformula order: conjunctions are
+ * forced by their operands, until formulas are forced unless only their
+ * left operand holds, and atomic propositions and next formulas branch.
+ * Successor sets are enumerated the same way, with the bits that the
+ * next-step rules dictate fixed up front and propagated to subformulas, so
+ * inconsistent sets are cut at the first conflicting subformula and never
+ * generated. Only states reachable from an initial state are built.
+ * <p>
+ * The automaton is then simplified: states that cannot reach a cycle visiting
+ * every acceptance set are dropped, acceptance sets that hold everywhere are
+ * dropped, and states with the same label, acceptance sets and successors are
+ * merged until nothing changes.
+ * <p>
+ * A translator keeps its node table, so translating several formulas with
+ * shared subformulas reuses their nodes and closures. It is not thread safe.
+ *
+ * @param <L> type of the atomic propositions
+ */
+public class LtlTranslator<L> {
+
+    private static final int TRUE_ = 0;
+    private static final int AP_ = 1;
+    private static final int NOT_ = 2;
+    private static final int AND_ = 3;
+    private static final int NEXT_ = 4;
+    private static final int UNTIL_ = 5;
+
+    private static final byte FREE = 0;
+    private static final byte FIXED_TRUE = 1;
+    private static final byte FIXED_FALSE = 2;
+
+    private int[] _kind = new int[64];
+    private int[] _left = new int[64];
+    private int[] _right = new int[64];
+    private final List<L> _names = new ArrayList<>();
+    private final List<BitSet> _closures = new ArrayList<>();
+    private int _size;
+
+    private final Map<Long, Integer> _composite = new HashMap<>();
+    private final Map<L, Integer> _aps = new HashMap<>();
+    private final Map<LTL<L>, Integer> _converted = new IdentityHashMap<>();
+
+    private final int _true;
+    private final int _false;
+
+    public LtlTranslator() {
+        _true = add(TRUE_, 0, 0, null);
+        _false = not(_true);
+    }
+
+    /**
+     * @return a generalized Büchi automaton accepting exactly the words that
+     * satisfy {@code ltl}. Its states are numbered from 0 and its acceptance
+     * sets are colours 0 to k-1; with no colours every infinite run accepts.
+     */
+    public MultiColorAutomaton<Integer, L> translate(LTL<L> ltl) {
+        BitSet closure = (BitSet) closure(node(ltl)).clone();
+        // propositions that simplification removed still belong to the alphabet
+        for(L name:propositions(ltl))
+            closure.set(ap(name));
+        return new Construction(node(ltl), closure).build();
+    }
+
+    private Set<L> propositions(LTL<L> ltl) {
+        Set<L> names = new HashSet<>();
+        Set<LTL<L>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<LTL<L>> stack = new ArrayDeque<>();
+        stack.push(ltl);
+        while(!stack.isEmpty()) {
+            LTL<L> f = stack.pop();
+            if(!seen.add(f))
+                continue;
+            if(f instanceof AP)
+                names.add(((AP<L>) f).getName());
+            else if(f instanceof Not)
+                stack.push(((Not<L>) f).getInner());
+            else if(f instanceof Next)
+                stack.push(((Next<L>) f).getInner());
+            else if(f instanceof And) {
+                stack.push(((And<L>) f).getLeft());
+                stack.push(((And<L>) f).getRight());
+            } else if(f instanceof Until) {
+                stack.push(((Until<L>) f).getLeft());
+                stack.push(((Until<L>) f).getRight());
+            }
+        }
+        return names;
+    }
+
+    /*
+     * Hash-consing
+     */
+
+    private int node(LTL<L> f) {
+        Integer known = _converted.get(f);
+        if(known != null)
+            return known;
+        int id;
+        if(f instanceof TRUE)
+            id = _true;
+        else if(f instanceof AP)
+            id = ap(((AP<L>) f).getName());
+        else if(f instanceof Not)
+            id = not(node(((Not<L>) f).getInner()));
+        else if(f instanceof And)
+            id = and(node(((And<L>) f).getLeft()), node(((And<L>) f).getRight()));
+        else if(f instanceof Next)
+            id = next(node(((Next<L>) f).getInner()));
+        else if(f instanceof Until)
+            id = until(node(((Until<L>) f).getLeft()), node(((Until<L>) f).getRight()));
+        else
+            throw new IllegalArgumentException("Unknown LTL operator: " + f.getClass().getName());
+        _converted.put(f, id);
+        return id;
+    }
+
+    private int ap(L name) {
+        Integer id = _aps.get(name);
+        if(id == null) {
+            id = add(AP_, 0, 0, name);
+            _aps.put(name, id);
+        }
+        return id;
+    }
+
+    private int not(int a) {
+        if(_kind[a] == NOT_)
+            return _left[a];
+        return composite(NOT_, a, 0);
+    }
+
+    private int and(int a, int b) {
+        if(a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if(a == b || a == _true)
+            return b;
+        if(a == _false || b == _false)
+            return _false;
+        if((_kind[b] == NOT_ && _left[b] == a) || (_kind[a] == NOT_ && _left[a] == b))
+            return _false;
+        return composite(AND_, a, b);
+    }
+
+    private int next(int a) {
+        if(a == _true || a == _false)
+            return a;
+        return composite(NEXT_, a, 0);
+    }
+
+    private int until(int a, int b) {
+        if(b == _true || b == _false || a == _false || a == b)
+            return b;
+        return composite(UNTIL_, a, b);
+    }
+
+    private int composite(int kind, int left, int right) {
+        long key = ((long) kind << 60) | ((long) left << 30) | right;
+        Integer id = _composite.get(key);
+        if(id == null) {
+            id = add(kind, left, right, null);
+            _composite.put(key, id);
+        }
+        return id;
+    }
+
+    private int add(int kind, int left, int right, L name) {
+        if(_size == _kind.length) {
+            _kind = Arrays.copyOf(_kind, _size * 2);
+            _left = Arrays.copyOf(_left, _size * 2);
+            _right = Arrays.copyOf(_right, _size * 2);
+        }
+        _kind[_size] = kind;
+        _left[_size] = left;
+        _right[_size] = right;
+        _names.add(name);
+        _closures.add(null);
+        return _size++;
+    }
+
+    /*
+     * The positive subformulas of a node, excluding negations and true,
+     * whose values follow from their operands.
+     */
+    private BitSet closure(int a) {
+        BitSet closure = _closures.get(a);
+        if(closure != null)
+            return closure;
+        closure = new BitSet();
+        switch(_kind[a]) {
+            case NOT_:
+            case NEXT_:
+                closure.or(closure(_left[a]));
+                break;
+            case AND_:
+            case UNTIL_:
+                closure.or(closure(_left[a]));
+                closure.or(closure(_right[a]));
+                break;
+            default:
+                break;
+        }
+        if(_kind[a] != NOT_ && _kind[a] != TRUE_)
+            closure.set(a);
+        _closures.set(a, closure);
+        return closure;
+    }
+
+    /*
+     * The construction for a single formula. Positions index the closure in
+     * node order, which puts every subformula before its superformulas.
+     */
+    private class Construction {
+        private final int _root;
+        private final int[] _order;
+        private final int[] _position;
+        private final int[] _nexts;
+        private final int[] _untils;
+
+        private final Map<BitSet, Integer> _ids = new HashMap<>();
+        private final List<boolean[]> _states = new ArrayList<>();
+        private final List<int[]> _successors = new ArrayList<>();
+
+        Construction(int root, BitSet closure) {
+            _root = root;
+            _order = closure.stream().toArray();
+            _position = new int[_size];
+            Arrays.fill(_position, -1);
+            for(int i = 0; i < _order.length; i++)
+                _position[_order[i]] = i;
+            _nexts = closure.stream().filter(a -> _kind[a] == NEXT_).toArray();
+            _untils = closure.stream().filter(a -> _kind[a] == UNTIL_).toArray();
+        }
+
+        MultiColorAutomaton<Integer, L> build() {
+            List<Integer> initial = new ArrayList<>();
+            byte[] fixed = new byte[_order.length];
+            if(fix(_root, true, fixed))
+                enumerate(0, new boolean[_order.length], fixed, initial);
+            // states are appended as they are found, so this is a BFS
+            for(int s = 0; s < _states.size(); s++) {
+                List<Integer> successors = new ArrayList<>();
+                boolean[] state = _states.get(s);
+                fixed = new byte[_order.length];
+                if(constrainSuccessors(state, fixed))
+                    enumerate(0, new boolean[_order.length], fixed, successors);
+                _successors.add(successors.stream().mapToInt(Integer::intValue).toArray());
+            }
+            return simplify(initial);
+        }
+
+        /*
+         * Fixes the bits of the successors of state that the next-step rules
+         * determine.
+         */
+        private boolean constrainSuccessors(boolean[] state, byte[] fixed) {
+            for(int x:_nexts)
+                if(!fix(_left[x], state[_position[x]], fixed))
+                    return false;
+            for(int u:_untils)
+                if(!value(_right[u], state) && value(_left[u], state) && !fix(u, state[_position[u]], fixed))
+                    return false;
+            return true;
+        }
+
+        /*
+         * Requires a to have value v, along with what that implies for its
+         * subformulas. False on a conflict.
+         */
+        private boolean fix(int a, boolean v, byte[] fixed) {
+            while(_kind[a] == NOT_) {
+                a = _left[a];
+                v = !v;
+            }
+            if(_kind[a] == TRUE_)
+                return v;
+            int i = _position[a];
+            byte want = v ? FIXED_TRUE : FIXED_FALSE;
+            if(fixed[i] != FREE)
+                return fixed[i] == want;
+            fixed[i] = want;
+            if(_kind[a] == AND_ && v)
+                return fix(_left[a], true, fixed) && fix(_right[a], true, fixed);
+            if(_kind[a] == UNTIL_ && !v)
+                return fix(_right[a], false, fixed);
+            return true;
+        }
+
+        private void enumerate(int i, boolean[] values, byte[] fixed, List<Integer> sink) {
+            if(i == _order.length) {
+                sink.add(intern(values));
+                return;
+            }
+            int a = _order[i];
+            boolean canBeTrue = fixed[i] != FIXED_FALSE;
+            boolean canBeFalse = fixed[i] != FIXED_TRUE;
+            if(_kind[a] == AND_) {
+                boolean v = value(_left[a], values) && value(_right[a], values);
+                canBeTrue &= v;
+                canBeFalse &= !v;
+            } else if(_kind[a] == UNTIL_) {
+                if(value(_right[a], values))
+                    canBeFalse = false;
+                else if(!value(_left[a], values))
+                    canBeTrue = false;
+            }
+            if(canBeTrue) {
+                values[i] = true;
+                enumerate(i + 1, values, fixed, sink);
+            }
+            if(canBeFalse) {
+                values[i] = false;
+                enumerate(i + 1, values, fixed, sink);
+            }
+        }
+
+        private boolean value(int a, boolean[] values) {
+            switch(_kind[a]) {
+                case TRUE_:
+                    return true;
+                case NOT_:
+                    return !value(_left[a], values);
+                default:
+                    return values[_position[a]];
+            }
+        }
+
+        private int intern(boolean[] values) {
+            BitSet key = new BitSet(values.length);
+            for(int i = 0; i < values.length; i++)
+                if(values[i])
+                    key.set(i);
+            Integer id = _ids.get(key);
+            if(id == null) {
+                id = _states.size();
+                _ids.put(key, id);
+                _states.add(values.clone());
+            }
+            return id;
+        }
+
+        private boolean accepts(int colour, int s) {
+            int u = _untils[colour];
+            boolean[] state = _states.get(s);
+            return !state[_position[u]] || value(_right[u], state);
+        }
+
+        /*
+         * Simplification
+         */
+
+        private MultiColorAutomaton<Integer, L> simplify(List<Integer> initial) {
+            int n = _states.size();
+            List<BitSet> colours = new ArrayList<>();
+            for(int c = 0; c < _untils.length; c++) {
+                BitSet colour = new BitSet(n);
+                for(int s = 0; s < n; s++)
+                    if(accepts(c, s))
+                        colour.set(s);
+                colours.add(colour);
+            }
+
+            BitSet live = live(colours);
+            List<BitSet> kept = new ArrayList<>();
+            for(BitSet colour:colours) {
+                colour.and(live);
+                BitSet missing = (BitSet) live.clone();
+                missing.andNot(colour);
+                if(!missing.isEmpty() && !kept.contains(colour))
+                    kept.add(colour);
+            }
+
+            int[] classes = merge(live, kept);
+            MultiColorAutomaton<Integer, L> gnba = new MultiColorAutomaton<>();
+            Map<BitSet, Set<L>> labels = new HashMap<>();
+            for(int s = live.nextSetBit(0); s >= 0; s = live.nextSetBit(s + 1)) {
+                gnba.addState(classes[s]);
+                Set<L> label = label(s, labels);
+                for(int t:_successors.get(s))
+                    if(live.get(t))
+                        gnba.addTransition(classes[s], label, classes[t]);
+                for(int c = 0; c < kept.size(); c++)
+                    if(kept.get(c).get(s))
+                        gnba.setAccepting(classes[s], c);
+            }
+            for(int s:initial)
+                if(live.get(s))
+                    gnba.setInitial(classes[s]);
+            return gnba;
+        }
+
+        private Set<L> label(int s, Map<BitSet, Set<L>> labels) {
+            boolean[] state = _states.get(s);
+            BitSet key = new BitSet();
+            for(int i = 0; i < _order.length; i++)
+                if(_kind[_order[i]] == AP_ && state[i])
+                    key.set(i);
+            return labels.computeIfAbsent(key, k -> {
+                Set<L> label = new HashSet<>();
+                k.stream().forEach(i -> label.add(_names.get(_order[i])));
+                return Collections.unmodifiableSet(label);
+            });
+        }
+
+        /*
+         * The states that can reach a cycle through every colour: those that
+         * reach a non-trivial SCC meeting every colour.
+         */
+        private BitSet live(List<BitSet> colours) {
+            int n = _states.size();
+            int[] component = components();
+            int count = 0;
+            for(int c:component)
+                count = Math.max(count, c + 1);
+            boolean[] cyclic = new boolean[count];
+            for(int s = 0; s < n; s++)
+                for(int t:_successors.get(s))
+                    if(component[s] == component[t])
+                        cyclic[component[s]] = true;
+            boolean[] good = cyclic.clone();
+            for(BitSet colour:colours) {
+                boolean[] meets = new boolean[count];
+                for(int s = colour.nextSetBit(0); s >= 0; s = colour.nextSetBit(s + 1))
+                    meets[component[s]] = true;
+                for(int c = 0; c < count; c++)
+                    good[c] &= meets[c];
+            }
+
+            int[][] predecessors = predecessors();
+            BitSet live = new BitSet(n);
+            int[] stack = new int[n];
+            int top = 0;
+            for(int s = 0; s < n; s++)
+                if(good[component[s]]) {
+                    live.set(s);
+                    stack[top++] = s;
+                }
+            while(top > 0)
+                for(int p:predecessors[stack[--top]])
+                    if(!live.get(p)) {
+                        live.set(p);
+                        stack[top++] = p;
+                    }
+            return live;
+        }
+
+        private int[][] predecessors() {
+            int n = _states.size();
+            int[] counts = new int[n];
+            for(int[] successors:_successors)
+                for(int t:successors)
+                    counts[t]++;
+            int[][] predecessors = new int[n][];
+            for(int s = 0; s < n; s++)
+                predecessors[s] = new int[counts[s]];
+            for(int s = 0; s < n; s++)
+                for(int t:_successors.get(s))
+                    predecessors[t][--counts[t]] = s;
+            return predecessors;
+        }
+
+        /*
+         * Tarjan's algorithm with explicit stacks.
+         */
+        private int[] components() {
+            int n = _states.size();
+            int[] index = new int[n];
+            int[] low = new int[n];
+            int[] component = new int[n];
+            Arrays.fill(index, -1);
+            int[] stack = new int[n];
+            boolean[] onStack = new boolean[n];
+            int[] callStack = new int[n];
+            int[] edge = new int[n];
+            int top = 0;
+            int next = 0;
+            int components = 0;
+            for(int root = 0; root < n; root++) {
+                if(index[root] >= 0)
+                    continue;
+                int depth = 0;
+                callStack[depth++] = root;
+                index[root] = low[root] = next++;
+                stack[top++] = root;
+                onStack[root] = true;
+                while(depth > 0) {
+                    int s = callStack[depth - 1];
+                    int[] successors = _successors.get(s);
+                    if(edge[s] < successors.length) {
+                        int t = successors[edge[s]++];
+                        if(index[t] < 0) {
+                            index[t] = low[t] = next++;
+                            stack[top++] = t;
+                            onStack[t] = true;
+                            callStack[depth++] = t;
+                        } else if(onStack[t]) {
+                            low[s] = Math.min(low[s], index[t]);
+                        }
+                        continue;
+                    }
+                    if(low[s] == index[s]) {
+                        int t;
+                        do {
+                            t = stack[--top];
+                            onStack[t] = false;
+                            component[t] = components;
+                        } while(t != s);
+                        components++;
+                    }
+                    depth--;
+                    if(depth > 0) {
+                        int parent = callStack[depth - 1];
+                        low[parent] = Math.min(low[parent], low[s]);
+                    }
+                }
+            }
+            return component;
+        }
+
+        /*
+         * Merges live states with the same label, colours and successor
+         * classes, until the partition is stable. Returns the class of every
+         * live state.
+         */
+        private int[] merge(BitSet live, List<BitSet> colours) {
+            int n = _states.size();
+            int[] classes = new int[n];
+            for(int s = 0; s < n; s++)
+                classes[s] = s;
+            int count = live.cardinality();
+            Map<BitSet, Set<L>> labels = new HashMap<>();
+            while(true) {
+                Map<List<Object>, Integer> signatures = new HashMap<>();
+                int[] refined = new int[n];
+                for(int s = live.nextSetBit(0); s >= 0; s = live.nextSetBit(s + 1)) {
+                    BitSet successors = new BitSet();
+                    for(int t:_successors.get(s))
+                        if(live.get(t))
+                            successors.set(classes[t]);
+                    BitSet in = new BitSet(colours.size());
+                    for(int c = 0; c < colours.size(); c++)
+                        if(colours.get(c).get(s))
+                            in.set(c);
+                    List<Object> signature = Arrays.asList(label(s, labels), in, successors);
+                    Integer id = signatures.get(signature);
+                    if(id == null) {
+                        id = signatures.size();
+                        signatures.put(signature, id);
+                    }
+                    refined[s] = id;
+                }
+                classes = refined;
+                if(signatures.size() == count)
+                    return classes;
+                count = signatures.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temporary file accessed through memory-mapped segments, which grows as it
+ * is written. The operating system pages the segments in and out, so the file
+ * may be far larger than the heap. Numbers are accessed at positions aligned
+ * to their size, which never straddle a segment; byte runs may.
+ * <p>
+ * The file is deleted when closed. Not thread safe.
+ */
+final class MappedFile implements Closeable {
+
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    private final Path _path;
+    private final FileChannel _channel;
+    private final List<MappedByteBuffer> _segments = new ArrayList<>();
+
+    MappedFile(Path directory, String prefix) {
+        try {
+            _path = Files.createTempFile(directory, prefix, ".dat");
+            _channel = FileChannel.open(_path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer segment(long position) {
+        int index = (int) (position >>> SEGMENT_BITS);
+        try {
+            while(_segments.size() <= index)
+                _segments.add(_channel.map(FileChannel.MapMode.READ_WRITE, (long) _segments.size() << SEGMENT_BITS, SEGMENT_SIZE));
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return _segments.get(index);
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (SEGMENT_SIZE - 1));
+    }
+
+    long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    void putLong(long position, long value) {
+        segment(position).putLong(offset(position), value);
+    }
+
+    int getInt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    void putInt(long position, int value) {
+        segment(position).putInt(offset(position), value);
+    }
+
+    void get(long position, byte[] bytes) {
+        for(int done = 0; done < bytes.length; ) {
+            int n = Math.min(bytes.length - done, SEGMENT_SIZE - offset(position));
+            MappedByteBuffer segment = segment(position);
+            for(int i = 0; i < n; i++)
+                bytes[done + i] = segment.get(offset(position) + i);
+            done += n;
+            position += n;
+        }
+    }
+
+    void put(long position, byte[] bytes) {
+        for(int done = 0; done < bytes.length; ) {
+            int n = Math.min(bytes.length - done, SEGMENT_SIZE - offset(position));
+            MappedByteBuffer segment = segment(position);
+            for(int i = 0; i < n; i++)
+                segment.put(offset(position) + i, bytes[done + i]);
+            done += n;
+            position += n;
+        }
+    }
+
+    @Override
+    public void close() {
+        _segments.clear();
+        try {
+            _channel.close();
+            Files.deleteIfExists(_path);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaLexer;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser.OptionContext;
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaParser.StmtContext;
+import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Compiles NanoPromela programs to program graphs.
+ * <p>
+ * Locations are the remaining program text, without whitespace, with
+ * {@code ""} as the exit location. They are built straight from the parse
+ * tree: a location is a chain of statements still to run, and its outgoing
+ * transitions are derived from the first statement of the chain, so only
+ * locations reachable from the program are created. Conditions of nested
+ * options read {@code (g) && (h)}, and a loop exits under
+ * {@code !((g1)||(g2)...)} with the empty action.
+ * <p>
+ * Programs are parsed in SLL mode, and again in full LL mode only if that
+ * fails. The graphs of the {@code cacheSize} most recently compiled sources
+ * are kept, keyed by the SHA-256 of their text; every call returns a fresh,
+ * mutable copy. Thread safe.
+ */
+public class NanoPromelaCompiler {
+
+    private static final ANTLRErrorListener FAIL = new BaseErrorListener() {
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int position,
+                                String msg, RecognitionException e) {
+            throw new IllegalArgumentException("Invalid NanoPromela at " + line + ":" + position + ": " + msg);
+        }
+    };
+
+    private final Map<ByteBuffer, Compiled> _cache;
+
+    public NanoPromelaCompiler(int cacheSize) {
+        _cache = cacheSize > 0 ? Collections.synchronizedMap(new ProgramGraphSteps.LruMap<>(cacheSize)) : null;
+    }
+
+    public ProgramGraph<String, String> compile(String source) {
+        char[] text = source.toCharArray();
+        return compile(digest().digest(source.getBytes(StandardCharsets.UTF_8)), text, text.length);
+    }
+
+    /**
+     * Reads {@code in} as UTF-8 in chunks, hashing the bytes on the way, so
+     * the source is held only once, as the characters the lexer reads. Does
+     * not close {@code in}.
+     */
+    public ProgramGraph<String, String> compile(InputStream in) throws IOException {
+        MessageDigest digest = digest();
+        Reader reader = new InputStreamReader(new DigestInputStream(in, digest), StandardCharsets.UTF_8);
+        char[] text = new char[1 << 13];
+        int length = 0;
+        for(int n; (n = reader.read(text, length, text.length - length)) != -1; ) {
+            length += n;
+            if(length == text.length)
+                text = Arrays.copyOf(text, text.length * 2);
+        }
+        return compile(digest.digest(), text, length);
+    }
+
+    private ProgramGraph<String, String> compile(byte[] digest, char[] text, int length) {
+        ByteBuffer key = ByteBuffer.wrap(digest);
+        Compiled compiled = _cache == null ? null : _cache.get(key);
+        if(compiled == null) {
+            compiled = new Translation(new ANTLRInputStream(text, length)).compile();
+            if(_cache != null)
+                _cache.put(key, compiled);
+        }
+        return compiled.toProgramGraph();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            // every Java platform provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * An immutable compiled graph.
+     */
+    private static final class Compiled {
+        private final String _initial;
+        private final Set<String> _locations;
+        private final List<PGTransition<String, String>> _transitions;
+
+        Compiled(String initial, Set<String> locations, List<PGTransition<String, String>> transitions) {
+            _initial = initial;
+            _locations = locations;
+            _transitions = transitions;
+        }
+
+        ProgramGraph<String, String> toProgramGraph() {
+            ProgramGraph<String, String> pg = new ProgramGraphImpl<>();
+            for(String l:_locations)
+                pg.addLocation(l);
+            pg.addInitialLocation(_initial);
+            for(PGTransition<String, String> t:_transitions)
+                pg.addTransition(new PGTransition<>(t.getFrom(), t.getCondition(), t.getAction(), t.getTo()));
+            return pg;
+        }
+    }
+
+    /*
+     * The statements still to run: a statement that is not a sequence, then
+     * the rest, null at the exit.
+     */
+    private static final class Location {
+        private final StmtContext _head;
+        private final Location _rest;
+        private final String _text;
+
+        Location(StmtContext head, Location rest, String headText) {
+            _head = head;
+            _rest = rest;
+            _text = rest == null ? headText : headText + ";" + rest._text;
+        }
+    }
+
+    private static final class Edge {
+        private final String _condition;
+        private final String _action;
+        private final Location _to;
+
+        Edge(String condition, String action, Location to) {
+            _condition = condition;
+            _action = action;
+            _to = to;
+        }
+    }
+
+    /*
+     * The compilation of one source.
+     */
+    private static final class Translation {
+        private final CommonTokenStream _tokens;
+        private final StmtContext _program;
+        // the text of all tokens, and where each token starts in it
+        private String _text;
+        private int[] _offsets;
+
+        Translation(CharStream input) {
+            NanoPromelaLexer lexer = new NanoPromelaLexer(input);
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(FAIL);
+            _tokens = new CommonTokenStream(lexer);
+            _program = parse();
+        }
+
+        private StmtContext parse() {
+            NanoPromelaParser parser = new NanoPromelaParser(_tokens);
+            parser.removeErrorListeners();
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.setErrorHandler(new BailErrorStrategy());
+            try {
+                return parser.spec().stmt();
+            } catch(ParseCancellationException e) {
+                // SLL is not enough, or the input is invalid; full LL tells which
+                parser.reset();
+                parser.addErrorListener(FAIL);
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                return parser.spec().stmt();
+            }
+        }
+
+        Compiled compile() {
+            List<Token> tokens = _tokens.getTokens();
+            StringBuilder text = new StringBuilder();
+            _offsets = new int[tokens.size() + 1];
+            for(int i = 0; i < tokens.size(); i++) {
+                _offsets[i] = text.length();
+                if(tokens.get(i).getType() != Token.EOF)
+                    text.append(tokens.get(i).getText());
+            }
+            _offsets[tokens.size()] = text.length();
+            _text = text.toString();
+
+            Location initial = location(_program, null);
+            Map<String, Location> seen = new HashMap<>();
+            seen.put(initial._text, initial);
+            ArrayDeque<Location> worklist = new ArrayDeque<>();
+            worklist.add(initial);
+            List<PGTransition<String, String>> transitions = new ArrayList<>();
+            while(!worklist.isEmpty()) {
+                Location from = worklist.poll();
+                for(Edge e:outgoing(from)) {
+                    String to = e._to == null ? "" : e._to._text;
+                    transitions.add(new PGTransition<>(from._text, e._condition, e._action, to));
+                    if(e._to != null && seen.putIfAbsent(to, e._to) == null)
+                        worklist.add(e._to);
+                }
+            }
+            Set<String> locations = new HashSet<>(seen.keySet());
+            for(PGTransition<String, String> t:transitions)
+                if(t.getTo().isEmpty())
+                    locations.add("");
+            return new Compiled(initial._text, locations, transitions);
+        }
+
+        private String text(ParserRuleContext ctx) {
+            return _text.substring(_offsets[ctx.getStart().getTokenIndex()], _offsets[ctx.getStop().getTokenIndex() + 1]);
+        }
+
+        /*
+         * stmt followed by rest, with sequences unfolded into the chain.
+         */
+        private Location location(StmtContext stmt, Location rest) {
+            while(stmt.stmt().size() == 2) {
+                rest = location(stmt.stmt(1), rest);
+                stmt = stmt.stmt(0);
+            }
+            return new Location(stmt, rest, text(stmt));
+        }
+
+        private List<Edge> outgoing(Location from) {
+            StmtContext head = from._head;
+            List<Edge> edges = new ArrayList<>();
+            if(head.ifstmt() != null) {
+                for(OptionContext option:head.ifstmt().option())
+                    guarded(option, from._rest, edges);
+            } else if(head.dostmt() != null) {
+                StringBuilder exit = new StringBuilder();
+                for(OptionContext option:head.dostmt().option()) {
+                    guarded(option, from, edges);
+                    if(exit.length() > 0)
+                        exit.append("||");
+                    exit.append('(').append(text(option.boolexpr())).append(')');
+                }
+                edges.add(new Edge("!(" + exit + ")", "", from._rest));
+            } else {
+                edges.add(new Edge("", text(head), from._rest));
+            }
+            return edges;
+        }
+
+        /*
+         * The first steps of option's statement followed by rest, under its guard.
+         */
+        private void guarded(OptionContext option, Location rest, List<Edge> edges) {
+            String guard = text(option.boolexpr());
+            for(Edge e:outgoing(location(option.stmt(), rest))) {
+                String condition = e._condition.isEmpty() ? "(" + guard + ")" : "(" + guard + ") && (" + e._condition + ")";
+                edges.add(new Edge(condition, e._action, e._to));
+            }
+        }
+    }
+}
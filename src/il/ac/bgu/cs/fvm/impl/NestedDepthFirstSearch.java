@@ -0,0 +1,204 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Looks for a reachable cycle through an accepting state with a nested
+ * depth-first search.
+ * <p>
+ * The outer (blue) search visits states in depth-first order. When it
+ * backtracks from an accepting state, an inner (red) search starts there and
+ * stops as soon as it reaches a state on the blue stack, which closes a cycle
+ * through the accepting state. Red states are shared by all inner searches,
+ * so every state is visited at most twice. Both searches keep explicit stacks
+ * and never recurse, and the graph is explored on the fly, so the search
+ * stops at the first accepting cycle without generating the rest.
+ *
+ * @param <S> type of the searched states
+ */
+public class NestedDepthFirstSearch<S> {
+
+    private static final byte BLUE = 1;
+    private static final byte RED = 2;
+    private static final byte ON_STACK = 4;
+
+    /**
+     * A path from an initial state to a cycle. The last state of the cycle
+     * steps back to its first state.
+     */
+    public static class Lasso<S> {
+        private final List<S> _prefix;
+        private final List<S> _cycle;
+
+        Lasso(List<S> prefix, List<S> cycle) {
+            _prefix = prefix;
+            _cycle = cycle;
+        }
+
+        public List<S> getPrefix() {
+            return _prefix;
+        }
+
+        public List<S> getCycle() {
+            return _cycle;
+        }
+    }
+
+    private final ReachabilityEngine.SuccessorFunction<S> _successors;
+    private final Predicate<? super S> _accepting;
+    private final Map<S, Byte> _colours = new HashMap<>();
+    // null keeps the order of the successor function
+    private Random _order;
+    private BooleanSupplier _cancelled = () -> false;
+
+    public NestedDepthFirstSearch(ReachabilityEngine.SuccessorFunction<S> successors, Predicate<? super S> accepting) {
+        _successors = successors;
+        _accepting = accepting;
+    }
+
+    /**
+     * Visits the successors of every state in an order drawn from
+     * {@code random}, or in generation order when {@code null}. The verdict
+     * does not depend on the order, but the time to find a cycle and the
+     * cycle found do.
+     */
+    public void setRandomOrder(Random random) {
+        _order = random;
+    }
+
+    /**
+     * Makes {@link #search} throw a {@link CancellationException} once
+     * {@code cancelled} holds. It is polled once per step.
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        _cancelled = cancelled;
+    }
+
+    /**
+     * @return an accepting cycle reachable from {@code initial}, or
+     * {@code null} if there is none.
+     * @throws CancellationException if the search was cancelled.
+     */
+    public Lasso<S> search(Iterable<? extends S> initial) {
+        List<Frame<S>> blue = new ArrayList<>();
+        for(S s:initial) {
+            if(has(s, BLUE))
+                continue;
+            push(blue, s, BLUE);
+            while(!blue.isEmpty()) {
+                checkCancelled();
+                Frame<S> top = blue.get(blue.size() - 1);
+                if(top.hasNext()) {
+                    S next = top.next();
+                    if(!has(next, BLUE))
+                        push(blue, next, BLUE);
+                    continue;
+                }
+                if(_accepting.test(top._state)) {
+                    Lasso<S> lasso = red(blue, top._state);
+                    if(lasso != null)
+                        return lasso;
+                }
+                unmark(top._state, ON_STACK);
+                blue.remove(blue.size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The inner search from seed, which is on top of the blue stack.
+     */
+    private Lasso<S> red(List<Frame<S>> blue, S seed) {
+        List<Frame<S>> red = new ArrayList<>();
+        mark(seed, RED);
+        red.add(frame(seed));
+        while(!red.isEmpty()) {
+            checkCancelled();
+            Frame<S> top = red.get(red.size() - 1);
+            if(!top.hasNext()) {
+                red.remove(red.size() - 1);
+                continue;
+            }
+            S next = top.next();
+            if(has(next, ON_STACK))
+                return lasso(blue, red, next);
+            if(!has(next, RED)) {
+                mark(next, RED);
+                red.add(frame(next));
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The blue stack runs from an initial state to the seed through target,
+     * and the red stack from the seed to a predecessor of target.
+     */
+    private Lasso<S> lasso(List<Frame<S>> blue, List<Frame<S>> red, S target) {
+        int start = 0;
+        while(!blue.get(start)._state.equals(target))
+            start++;
+        List<S> prefix = new ArrayList<>(start);
+        for(int i = 0; i < start; i++)
+            prefix.add(blue.get(i)._state);
+        List<S> cycle = new ArrayList<>(blue.size() - start + red.size() - 1);
+        for(int i = start; i < blue.size(); i++)
+            cycle.add(blue.get(i)._state);
+        for(int i = 1; i < red.size(); i++)
+            cycle.add(red.get(i)._state);
+        return new Lasso<>(prefix, cycle);
+    }
+
+    private void push(List<Frame<S>> stack, S s, byte colour) {
+        mark(s, (byte) (colour | ON_STACK));
+        stack.add(frame(s));
+    }
+
+    private Frame<S> frame(S s) {
+        Frame<S> frame = new Frame<>(s);
+        _successors.successors(s, frame._successors::add);
+        if(_order != null)
+            Collections.shuffle(frame._successors, _order);
+        return frame;
+    }
+
+    private void checkCancelled() {
+        if(_cancelled.getAsBoolean())
+            throw new CancellationException();
+    }
+
+    private boolean has(S s, byte colour) {
+        Byte c = _colours.get(s);
+        return c != null && (c & colour) != 0;
+    }
+
+    private void mark(S s, byte colour) {
+        _colours.merge(s, colour, (a, b) -> (byte) (a | b));
+    }
+
+    private void unmark(S s, byte colour) {
+        _colours.computeIfPresent(s, (k, c) -> (byte) (c & ~colour));
+    }
+
+    private static class Frame<S> {
+        private final S _state;
+        private final List<S> _successors = new ArrayList<>();
+        private int _next;
+
+        Frame(S state) {
+            _state = state;
+        }
+
+        boolean hasNext() {
+            return _next < _successors.size();
+        }
+
+        S next() {
+            return _successors.get(_next++);
+        }
+    }
+}
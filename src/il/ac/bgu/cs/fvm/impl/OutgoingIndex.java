@@ -0,0 +1,216 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+
+/**
+ * A read-only view of a transition system that lacks adjacency indexes,
+ * indexing its outgoing transitions in one pass. Incoming transitions are
+ * indexed on first use only, since the explorations that use this view
+ * follow transitions forward.
+ * <p>
+ * The view holds the system's own transition objects, so it costs a list per
+ * state rather than a copy. Changes to the system after the view is built
+ * are not seen by {@link #outgoing} and friends.
+ */
+class OutgoingIndex<STATE,ACTION,ATOMIC_PROPOSITION> implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> {
+
+    private final TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> _ts;
+    private final Map<STATE, List<Transition<STATE,ACTION>>> _outgoing;
+    private Map<STATE, List<Transition<STATE,ACTION>>> _incoming;
+
+    OutgoingIndex(TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> ts) {
+        this(ts, null);
+    }
+
+    /**
+     * Indexes {@code ts} within {@code limit} (may be {@code null}), throwing
+     * {@link ExplorationLimit.Stopped} once it runs out.
+     */
+    OutgoingIndex(TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> ts, ExplorationLimit limit) {
+        _ts = ts;
+        _outgoing = group(ts.getTransitions(), true, limit);
+    }
+
+    private static <S, A> Map<S, List<Transition<S,A>>> group(Set<Transition<S,A>> transitions, boolean bySource, ExplorationLimit limit) {
+        Map<S, List<Transition<S,A>>> result = new HashMap<>();
+        for(Transition<S,A> t:transitions) {
+            if(limit != null)
+                limit.check();
+            result.computeIfAbsent(bySource ? t.getFrom() : t.getTo(), k -> new ArrayList<>(2)).add(t);
+        }
+        return result;
+    }
+
+    private synchronized Map<STATE, List<Transition<STATE,ACTION>>> incomingIndex() {
+        if(_incoming == null)
+            _incoming = group(_ts.getTransitions(), false, null);
+        return _incoming;
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> outgoing(STATE s) {
+        return asSet(_outgoing.get(s));
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> incoming(STATE s) {
+        return asSet(incomingIndex().get(s));
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        Set<STATE> result = new HashSet<>();
+        for(Transition<STATE,ACTION> t:outgoing(s))
+            if(t.getAction().equals(a))
+                result.add(t.getTo());
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        Set<STATE> result = new HashSet<>();
+        for(Transition<STATE,ACTION> t:incoming(s))
+            if(t.getAction().equals(a))
+                result.add(t.getFrom());
+        return Collections.unmodifiableSet(result);
+    }
+
+    // the lists come from a set, so they hold no duplicates
+    private static <T> Set<T> asSet(List<T> list) {
+        if(list == null)
+            return Collections.emptySet();
+        return new AbstractSet<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return Collections.unmodifiableList(list).iterator();
+            }
+
+            @Override
+            public int size() {
+                return list.size();
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return _ts.getName();
+    }
+
+    @Override
+    public void setName(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public Set<ACTION> getActions() {
+        return Collections.unmodifiableSet(_ts.getActions());
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getAtomicPropositions() {
+        return Collections.unmodifiableSet(_ts.getAtomicPropositions());
+    }
+
+    @Override
+    public Set<STATE> getStates() {
+        return Collections.unmodifiableSet(_ts.getStates());
+    }
+
+    @Override
+    public Set<STATE> getInitialStates() {
+        return Collections.unmodifiableSet(_ts.getInitialStates());
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> getTransitions() {
+        return Collections.unmodifiableSet(_ts.getTransitions());
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getLabel(STATE s) {
+        return Collections.unmodifiableSet(_ts.getLabel(s));
+    }
+
+    @Override
+    public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
+        return Collections.unmodifiableMap(_ts.getLabelingFunction());
+    }
+
+    @Override
+    public void addAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addToLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("OutgoingIndex is a read-only view");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || _ts.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return _ts.hashCode();
+    }
+}
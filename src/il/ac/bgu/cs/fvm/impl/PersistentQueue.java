@@ -0,0 +1,156 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.*;
+
+/**
+ * An immutable FIFO queue that shares structure between versions: enqueueing
+ * and dequeueing return a new queue and leave the old one intact. Used for
+ * channel contents, so a state and its successors share the unchanged part of
+ * every channel.
+ * <p>
+ * Enqueueing takes constant time, and so does dequeueing unless the front
+ * list is used up, when the rear list is reversed in time linear in its
+ * length. Old versions stay in use, as every successor of a state dequeues
+ * from the same queue, so that reversal may be repeated on each and there is
+ * no amortized bound; the lists are as short as the channel, which keeps it
+ * cheap in practice. {@link #get(int)} walks the queue in linear time.
+ * <p>
+ * The queue is a read-only {@link List} from head to tail, and equals any
+ * list with the same elements, e.g. the {@link Vector}s that the NanoPromela
+ * evaluator produces.
+ */
+public final class PersistentQueue<T> extends AbstractList<T> {
+
+    private static final PersistentQueue<?> EMPTY = new PersistentQueue<>(null, null, 0);
+
+    // front holds the oldest elements in order, rear the newest in reverse
+    private final Node<T> _front;
+    private final Node<T> _rear;
+    private final int _size;
+    private int _hash;
+
+    private PersistentQueue(Node<T> front, Node<T> rear, int size) {
+        _front = front;
+        _rear = rear;
+        _size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentQueue<T> empty() {
+        return (PersistentQueue<T>) EMPTY;
+    }
+
+    public static <T> PersistentQueue<T> of(Collection<? extends T> items) {
+        PersistentQueue<T> q = empty();
+        for(T item:items)
+            q = q.enqueue(item);
+        return q;
+    }
+
+    public PersistentQueue<T> enqueue(T item) {
+        if(_front == null)
+            return new PersistentQueue<>(new Node<>(item, null), null, 1);
+        return new PersistentQueue<>(_front, new Node<>(item, _rear), _size + 1);
+    }
+
+    /**
+     * @return this queue without its head, in time linear in the length of
+     * the rear list when the front list has one element, else constant.
+     * @throws NoSuchElementException if the queue is empty.
+     */
+    public PersistentQueue<T> dequeue() {
+        if(_front == null)
+            throw new NoSuchElementException();
+        if(_front._next != null)
+            return new PersistentQueue<>(_front._next, _rear, _size - 1);
+        // the front is used up, so the rear becomes the new front
+        Node<T> front = null;
+        for(Node<T> n = _rear; n != null; n = n._next)
+            front = new Node<>(n._item, front);
+        return new PersistentQueue<>(front, null, _size - 1);
+    }
+
+    public T peek() {
+        if(_front == null)
+            throw new NoSuchElementException();
+        return _front._item;
+    }
+
+    @Override
+    public T get(int index) {
+        if(index < 0 || index >= _size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + _size);
+        Iterator<T> it = iterator();
+        for(int i = 0; i < index; i++)
+            it.next();
+        return it.next();
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Node<T> _next = _front;
+            private Object[] _rearItems;
+            private int _rearIndex;
+
+            @Override
+            public boolean hasNext() {
+                return _next != null || (_rearItems == null ? _rear != null : _rearIndex > 0);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if(_next != null) {
+                    T item = _next._item;
+                    _next = _next._next;
+                    return item;
+                }
+                if(_rearItems == null) {
+                    _rearItems = new Object[_size];
+                    for(Node<T> n = _rear; n != null; n = n._next)
+                        _rearItems[_rearIndex++] = n._item;
+                }
+                if(_rearIndex == 0)
+                    throw new NoSuchElementException();
+                return (T) _rearItems[--_rearIndex];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o == this)
+            return true;
+        if(!(o instanceof List) || ((List<?>) o).size() != _size)
+            return false;
+        if(o instanceof PersistentQueue && hashCode() != o.hashCode())
+            return false;
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = _hash;
+        if(hash == 0) {
+            hash = super.hashCode();
+            _hash = hash;
+        }
+        return hash;
+    }
+
+    private static final class Node<T> {
+        private final T _item;
+        private final Node<T> _next;
+
+        Node(T item, Node<T> next) {
+            _item = item;
+            _next = next;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reachability in a fixed amount of memory, trading exactness for coverage,
+ * in the manner of SPIN's hash compaction and bitstate hashing.
+ * <p>
+ * States are not stored; only 64-bit fingerprints of them are. In
+ * {@link Mode#HASH_COMPACTION} mode the fingerprints are kept in an
+ * open-addressing table, and two states are confused only when their
+ * fingerprints are equal. In {@link Mode#BITSTATE} mode every fingerprint
+ * sets {@code k} bits of a bit array, and a state counts as visited when all
+ * of its bits are set, which packs far more states into the same memory at a
+ * higher risk of confusion.
+ * <p>
+ * A confused state is skipped as if already visited, and so may be its
+ * successors. The result estimates this risk: each newly stored state had
+ * the chance that the table then held of making a new state look visited
+ * ({@code i / 2^64} for the {@code i}-th fingerprint, the fraction of set
+ * bits to the power {@code k} for bitstate), and the sum of these chances is
+ * the expected number of states wrongly skipped.
+ * <p>
+ * The search is a sequential depth-first search, and only the visited set is
+ * bounded by {@code memoryBytes}. The stack holds full states: every state
+ * that looked new waits there until it is expanded, so in the worst case it
+ * holds as many states as the visited set has fingerprints, e.g. for a wide
+ * state space whose successors mostly look new. Leave room on the heap for
+ * that on top of {@code memoryBytes}.
+ */
+public class ProbabilisticReachability<S> {
+
+    public enum Mode { HASH_COMPACTION, BITSTATE }
+
+    /**
+     * What a probabilistic search covered.
+     */
+    public static final class Result {
+        private final Mode _mode;
+        private final long _states;
+        private final long _transitions;
+        private final long _memoryBytes;
+        private final double _expectedOmissions;
+        private final boolean _complete;
+
+        private Result(Mode mode, long states, long transitions, long memoryBytes, double expectedOmissions, boolean complete) {
+            _mode = mode;
+            _states = states;
+            _transitions = transitions;
+            _memoryBytes = memoryBytes;
+            _expectedOmissions = expectedOmissions;
+            _complete = complete;
+        }
+
+        public Mode getMode() {
+            return _mode;
+        }
+
+        /**
+         * @return the number of states visited.
+         */
+        public long getStates() {
+            return _states;
+        }
+
+        public long getTransitions() {
+            return _transitions;
+        }
+
+        public long getMemoryBytes() {
+            return _memoryBytes;
+        }
+
+        /**
+         * @return the expected number of states wrongly taken for visited.
+         */
+        public double getExpectedOmissions() {
+            return _expectedOmissions;
+        }
+
+        /**
+         * @return the estimated probability that some state was wrongly taken
+         * for visited, and with it possibly part of the state space missed.
+         */
+        public double getOmissionProbability() {
+            return -Math.expm1(-_expectedOmissions);
+        }
+
+        /**
+         * @return {@code false} if the hash compaction table filled up and
+         * the search stopped early.
+         */
+        public boolean isComplete() {
+            return _complete;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d states, %d transitions in %d bytes, omission probability %.3g%s", _mode, _states,
+                    _transitions, _memoryBytes, getOmissionProbability(), _complete ? "" : " (table full, incomplete)");
+        }
+    }
+
+    public static final int DEFAULT_HASHES = 3;
+
+    // hash compaction stops at this load, where probing gets slow
+    private static final double MAX_LOAD = 0.9;
+
+    private final ReachabilityEngine.SuccessorFunction<S> _successors;
+    private final ToLongFunction<? super S> _fingerprint;
+    private final Mode _mode;
+    private final long _memoryBytes;
+    private final int _hashes;
+
+    /**
+     * @param fingerprint a 64-bit hash of states; equal states must have equal
+     *                    fingerprints, e.g. {@link #fingerprints(StateCodec)}.
+     * @param memoryBytes the memory given to the visited set.
+     * @param hashes      the number of bits set per state in bitstate mode.
+     */
+    public ProbabilisticReachability(ReachabilityEngine.SuccessorFunction<S> successors, ToLongFunction<? super S> fingerprint,
+                                     Mode mode, long memoryBytes, int hashes) {
+        if(memoryBytes < 8)
+            throw new IllegalArgumentException("Too little memory: " + memoryBytes);
+        if(hashes < 1)
+            throw new IllegalArgumentException("Need at least one hash: " + hashes);
+        _successors = successors;
+        _fingerprint = fingerprint;
+        _mode = mode;
+        _memoryBytes = memoryBytes;
+        _hashes = hashes;
+    }
+
+    public Result explore(Iterable<? extends S> initial) {
+        VisitedSet visited = _mode == Mode.HASH_COMPACTION ? new CompactionTable(_memoryBytes) : new BitstateFilter(_memoryBytes, _hashes);
+        ArrayDeque<S> stack = new ArrayDeque<>();
+        long[] transitions = {0};
+        try {
+            for(S s:initial)
+                if(visited.add(_fingerprint.applyAsLong(s)))
+                    stack.push(s);
+            while(!stack.isEmpty())
+                _successors.successors(stack.pop(), next -> {
+                    transitions[0]++;
+                    if(visited.add(_fingerprint.applyAsLong(next)))
+                        stack.push(next);
+                });
+        } catch(TableFull e) {
+            return new Result(_mode, visited.size(), transitions[0], visited.memoryBytes(), visited.expectedOmissions(), false);
+        }
+        return new Result(_mode, visited.size(), transitions[0], visited.memoryBytes(), visited.expectedOmissions(), true);
+    }
+
+    /**
+     * Fingerprints states by hashing their encoding. Not thread safe.
+     */
+    public static <S> ToLongFunction<S> fingerprints(StateCodec<S> codec) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        return s -> {
+            buffer.reset();
+            try {
+                codec.write(s, out);
+                out.flush();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // FNV-1a, then a finalizer so that every input bit reaches every output bit
+            long h = 0xcbf29ce484222325L;
+            for(byte b:buffer.toByteArray()) {
+                h ^= b & 0xFF;
+                h *= 0x100000001b3L;
+            }
+            return mix(h);
+        };
+    }
+
+    // MurmurHash3's 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class TableFull extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TableFull() {
+            super(null, null, false, false);
+        }
+    }
+
+    private interface VisitedSet {
+        /**
+         * @return whether {@code fingerprint} looked new, after storing it.
+         */
+        boolean add(long fingerprint);
+
+        long size();
+
+        long memoryBytes();
+
+        double expectedOmissions();
+    }
+
+    private static final class CompactionTable implements VisitedSet {
+        private final long[] _slots;
+        private final long _maxSize;
+        private long _size;
+        private double _omissions;
+
+        CompactionTable(long memoryBytes) {
+            // a power of two, so that probing can mask
+            long slots = Long.highestOneBit(Math.min(memoryBytes / 8, Integer.MAX_VALUE - 8));
+            _slots = new long[(int) slots];
+            _maxSize = (long) (slots * MAX_LOAD);
+        }
+
+        @Override
+        public boolean add(long fingerprint) {
+            // 0 marks free slots
+            if(fingerprint == 0)
+                fingerprint = 1;
+            int mask = _slots.length - 1;
+            for(int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+                long slot = _slots[i];
+                if(slot == fingerprint)
+                    return false;
+                if(slot == 0) {
+                    if(_size == _maxSize)
+                        throw new TableFull();
+                    // a new state would have been lost had it matched any stored fingerprint
+                    _omissions += _size * 0x1p-64;
+                    _slots[i] = fingerprint;
+                    _size++;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public long size() {
+            return _size;
+        }
+
+        @Override
+        public long memoryBytes() {
+            return 8L * _slots.length;
+        }
+
+        @Override
+        public double expectedOmissions() {
+            return _omissions;
+        }
+    }
+
+    private static final class BitstateFilter implements VisitedSet {
+        private final long[] _words;
+        private final long _bits;
+        private final int _hashes;
+        private long _set;
+        private long _size;
+        private double _omissions;
+
+        BitstateFilter(long memoryBytes, int hashes) {
+            _words = new long[(int) Math.min(memoryBytes / 8, Integer.MAX_VALUE - 8)];
+            _bits = 64L * _words.length;
+            _hashes = hashes;
+        }
+
+        @Override
+        public boolean add(long fingerprint) {
+            // double hashing: the i-th bit is h1 + i * h2
+            long h1 = fingerprint;
+            long h2 = mix(fingerprint ^ 0x9e3779b97f4a7c15L) | 1;
+            double full = Math.pow((double) _set / _bits, _hashes);
+            boolean fresh = false;
+            for(int i = 0; i < _hashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, _bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                if((_words[word] & mask) == 0) {
+                    _words[word] |= mask;
+                    _set++;
+                    fresh = true;
+                }
+            }
+            if(fresh) {
+                _omissions += full;
+                _size++;
+            }
+            return fresh;
+        }
+
+        @Override
+        public long size() {
+            return _size;
+        }
+
+        @Override
+        public long memoryBytes() {
+            return 8L * _words.length;
+        }
+
+        @Override
+        public double expectedOmissions() {
+            return _omissions;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.automata.Automaton;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The product {@code ts ⊗ aut} of a transition system and a Büchi automaton
+ * as a lazy view: product states are only created when a search reaches them.
+ * <p>
+ * State {@code <s,q>} steps to {@code <t,p>} by {@code a} whenever {@code ts}
+ * steps from {@code s} to {@code t} by {@code a} and {@code aut} moves from
+ * {@code q} to {@code p} reading the label of {@code t}. The atomic
+ * propositions are the automaton states, and {@code <s,q>} is labelled
+ * {@code {q}}.
+ */
+public class ProductTransitionSystem<Sts,Saut,A,P> extends LazyTransitionSystem<Pair<Sts,Saut>,A,Saut> {
+
+    private final IndexedTransitionSystem<Sts,A,P> _ts;
+    private final Map<Saut, Map<Set<P>, Set<Saut>>> _delta;
+    private final Set<Saut> _accepting;
+    private final Set<Pair<Sts,Saut>> _initial;
+
+    public ProductTransitionSystem(IndexedTransitionSystem<Sts,A,P> ts, Automaton<Saut,P> aut) {
+        _ts = ts;
+        _delta = aut.getTransitions();
+        _accepting = aut.getAcceptingStates();
+
+        Set<Pair<Sts,Saut>> initial = new HashSet<>();
+        for(Sts s:ts.getInitialStates()) {
+            Set<P> label = ts.getLabel(s);
+            for(Saut q0:aut.getInitialStates())
+                for(Saut q:next(q0, label))
+                    initial.add(new Pair<>(s, q));
+        }
+        _initial = Collections.unmodifiableSet(initial);
+    }
+
+    private Set<Saut> next(Saut q, Set<P> label) {
+        Map<Set<P>, Set<Saut>> moves = _delta.get(q);
+        if(moves == null)
+            return Collections.emptySet();
+        Set<Saut> to = moves.get(label);
+        return to == null ? Collections.<Saut>emptySet() : to;
+    }
+
+    /**
+     * @return whether {@code s} is an accepting state of the product, that is
+     * its automaton component is accepting.
+     */
+    public boolean isAccepting(Pair<Sts,Saut> s) {
+        return _accepting.contains(s.second);
+    }
+
+    @Override
+    public void transitions(Pair<Sts,Saut> from, Consumer<Transition<Pair<Sts,Saut>,A>> sink) {
+        for(Transition<Sts,A> t:_ts.outgoing(from.first)) {
+            Sts to = t.getTo();
+            for(Saut q:next(from.second, _ts.getLabel(to)))
+                sink.accept(new Transition<>(from, t.getAction(), new Pair<>(to, q)));
+        }
+    }
+
+    /**
+     * Generates the successors of {@code from} without building transitions.
+     */
+    public void successors(Pair<Sts,Saut> from, Consumer<? super Pair<Sts,Saut>> sink) {
+        for(Transition<Sts,A> t:_ts.outgoing(from.first)) {
+            Sts to = t.getTo();
+            for(Saut q:next(from.second, _ts.getLabel(to)))
+                sink.accept(new Pair<>(to, q));
+        }
+    }
+
+    @Override
+    public Set<Saut> getLabel(Pair<Sts,Saut> s) {
+        return Collections.singleton(s.second);
+    }
+
+    @Override
+    public Set<Pair<Sts,Saut>> getInitialStates() {
+        return _initial;
+    }
+
+    @Override
+    public Set<A> getActions() {
+        return Collections.unmodifiableSet(_ts.getActions());
+    }
+
+    @Override
+    public Set<Saut> getAtomicPropositions() {
+        return Collections.unmodifiableSet(_delta.keySet());
+    }
+}
@@ -15,22 +15,32 @@ public class ProgramGraphImpl<L,A> implements ProgramGraph<L,A> {
     private Set<L> _initial = new HashSet<>();
     private Set<PGTransition<L,A>> _transitions = new HashSet<>();
     private Set<List<String>> _inits = new HashSet<>();
+    // number of transition ends at each location
+    private Map<L, Integer> _incidence = new HashMap<>();
+    // set hashes, kept up to date by the mutators
+    private int _locationsHash;
+    private int _initialHash;
+    private int _transitionsHash;
+    private int _initsHash;
 
     @Override
     public void addInitalization(List<String> init) {
-        _inits.add(init);
+        if(_inits.add(init))
+            _initsHash += Objects.hashCode(init);
     }
 
     @Override
     public void addInitialLocation(L location) {
         if(!_locations.contains(location))
             throw new InvalidInitialStateException(location);
-        _initial.add(location);
+        if(_initial.add(location))
+            _initialHash += Objects.hashCode(location);
     }
 
     @Override
     public void addLocation(L l) {
-        _locations.add(l);
+        if(_locations.add(l))
+            _locationsHash += Objects.hashCode(l);
     }
 
     @Override
@@ -39,22 +49,26 @@ public class ProgramGraphImpl<L,A> implements ProgramGraph<L,A> {
             throw new FVMException("From not in PG for transition " +t.toString());
         if(!_locations.contains(t.getTo()))
             throw new FVMException("To not in PG for transition " +t.toString());
-        _transitions.add(t);
+        if(_transitions.add(t)) {
+            _incidence.merge(t.getFrom(), 1, Integer::sum);
+            _incidence.merge(t.getTo(), 1, Integer::sum);
+            _transitionsHash += t.hashCode();
+        }
     }
 
     @Override
     public Set<List<String>> getInitalizations() {
-        return _inits;
+        return Collections.unmodifiableSet(_inits);
     }
 
     @Override
     public Set<L> getInitialLocations() {
-        return _initial;
+        return Collections.unmodifiableSet(_initial);
     }
 
     @Override
     public Set<L> getLocations() {
-        return _locations;
+        return Collections.unmodifiableSet(_locations);
     }
 
     @Override
@@ -64,23 +78,32 @@ public class ProgramGraphImpl<L,A> implements ProgramGraph<L,A> {
 
     @Override
     public Set<PGTransition<L, A>> getTransitions() {
-        return _transitions;
+        // read-only, so callers cannot bypass the incidence counts
+        return Collections.unmodifiableSet(_transitions);
     }
 
     @Override
     public void removeLocation(L l) {
-        for(PGTransition t:_transitions) {
-            if(t.getFrom().equals(l) || t.getTo().equals(l))
-                throw new FVMException(l.toString() + " cannot be removed - is in " +t.toString());
+        if(_incidence.containsKey(l)) {
+            // only the failing case looks for the offending transition
+            for(PGTransition t:_transitions) {
+                if(t.getFrom().equals(l) || t.getTo().equals(l))
+                    throw new FVMException(l.toString() + " cannot be removed - is in " +t.toString());
+            }
         }
         if(_initial.contains(l))
             throw new FVMException(l.toString() + " cannot be removed - is in initial locations");
-        _locations.remove(l);
+        if(_locations.remove(l))
+            _locationsHash -= Objects.hashCode(l);
     }
 
     @Override
     public void removeTransition(PGTransition<L, A> t) {
-        _transitions.remove(t);
+        if(_transitions.remove(t)) {
+            _incidence.computeIfPresent(t.getFrom(), (k, n) -> n == 1 ? null : n - 1);
+            _incidence.computeIfPresent(t.getTo(), (k, n) -> n == 1 ? null : n - 1);
+            _transitionsHash -= t.hashCode();
+        }
     }
 
     @Override
@@ -90,14 +113,32 @@ public class ProgramGraphImpl<L,A> implements ProgramGraph<L,A> {
 
     @Override
     public boolean equals(Object o) {
+        if(o == this)
+            return true;
         if(!(o instanceof ProgramGraph)) {
             return false;
         }
+        if(o instanceof ProgramGraphImpl && hashCode() != o.hashCode())
+            return false;
         ProgramGraph<L,A> pg = (ProgramGraph<L, A>) o;
-        if(Objects.equals(getInitalizations(),pg.getInitalizations()) && Objects.equals(getInitialLocations(), pg.getInitialLocations())
-                && Objects.equals(getLocations(), pg.getLocations()) && Objects.equals(getName(),pg.getName())
-                && Objects.equals(getTransitions(), pg.getTransitions()))
+        if(!Objects.equals(getName(),pg.getName()) || _locations.size() != pg.getLocations().size()
+                || _transitions.size() != pg.getTransitions().size())
+            return false;
+        if(Objects.equals(_inits,pg.getInitalizations()) && Objects.equals(_initial, pg.getInitialLocations())
+                && Objects.equals(_locations, pg.getLocations()) && Objects.equals(_transitions, pg.getTransitions()))
             return true;
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        final int prime = 17;
+        int result = 1;
+        result = prime * result + _initsHash;
+        result = prime * result + _initialHash;
+        result = prime * result + _locationsHash;
+        result = prime * result + _transitionsHash;
+        result = prime * result + ((_name == null) ? 0 : _name.hashCode());
+        return result;
+    }
 }
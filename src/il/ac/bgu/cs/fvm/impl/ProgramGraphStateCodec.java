@@ -0,0 +1,108 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Encodes {@code (location, valuation)} states of program graphs.
+ * <p>
+ * Locations and variable names are few, so they are numbered in tables on the
+ * heap and written as their numbers. Variables are written in the order of
+ * their numbers, which makes the encoding canonical. Values may be integers,
+ * booleans, strings, {@code null} and lists of those, e.g. channel contents,
+ * which are read back as {@link PersistentQueue}s.
+ */
+public class ProgramGraphStateCodec<L> implements StateCodec<Pair<L, Map<String, Object>>> {
+
+    private static final int INTEGER = 0;
+    private static final int BOOLEAN = 1;
+    private static final int STRING = 2;
+    private static final int LIST = 3;
+    private static final int NULL = 4;
+
+    private final Map<L, Integer> _locationIds = new HashMap<>();
+    private final List<L> _locations = new ArrayList<>();
+    private final Map<String, Integer> _nameIds = new HashMap<>();
+    private final List<String> _names = new ArrayList<>();
+
+    @Override
+    public void write(Pair<L, Map<String, Object>> state, DataOutput out) throws IOException {
+        out.writeInt(_locationIds.computeIfAbsent(state.first, l -> {
+            _locations.add(l);
+            return _locations.size() - 1;
+        }));
+        int[] ids = new int[state.second.size()];
+        Object[] values = new Object[_names.size() + ids.length];
+        int n = 0;
+        for(Map.Entry<String, Object> e:state.second.entrySet()) {
+            int id = _nameIds.computeIfAbsent(e.getKey(), k -> {
+                _names.add(k);
+                return _names.size() - 1;
+            });
+            ids[n++] = id;
+            values[id] = e.getValue();
+        }
+        Arrays.sort(ids, 0, n);
+        out.writeInt(n);
+        for(int i = 0; i < n; i++) {
+            out.writeInt(ids[i]);
+            writeValue(values[ids[i]], out);
+        }
+    }
+
+    private static void writeValue(Object value, DataOutput out) throws IOException {
+        if(value == null) {
+            out.writeByte(NULL);
+        } else if(value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if(value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if(value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if(value instanceof List) {
+            out.writeByte(LIST);
+            out.writeInt(((List<?>) value).size());
+            for(Object item:(List<?>) value)
+                writeValue(item, out);
+        } else {
+            throw new IllegalArgumentException("Cannot encode value " + value + " of " + value.getClass().getName());
+        }
+    }
+
+    @Override
+    public Pair<L, Map<String, Object>> read(DataInput in) throws IOException {
+        L location = _locations.get(in.readInt());
+        int n = in.readInt();
+        Map<String, Object> valuation = new HashMap<>();
+        for(int i = 0; i < n; i++) {
+            String name = _names.get(in.readInt());
+            valuation.put(name, readValue(in));
+        }
+        return new Pair<>(location, valuation);
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        switch(in.readByte()) {
+            case INTEGER:
+                return in.readInt();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return in.readUTF();
+            case LIST:
+                PersistentQueue<Object> queue = PersistentQueue.empty();
+                for(int size = in.readInt(); size > 0; size--)
+                    queue = queue.enqueue(readValue(in));
+                return queue;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.programgraph.ActionDef;
+import il.ac.bgu.cs.fvm.programgraph.ConditionDef;
+import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedActDef;
+import il.ac.bgu.cs.fvm.programgraph.ParserBasedCondDef;
+import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The steps a single program graph can take from a location under a
+ * valuation: its outgoing transitions whose condition holds, with the
+ * valuation their action leads to.
+ * <p>
+ * Transitions are indexed by source location, the action definition matching
+ * each action is looked up once, and the steps of the {@code cacheSize} most
+ * recently asked-for {@code (location, valuation)} pairs are memoized. Thread
+ * safe.
+ * <p>
+ * Conditions under the parser based condition definition and actions matched
+ * by the parser based action definition are compiled up front by
+ * {@link CompiledNanoPromela}, so a step evaluates them on the slots of its
+ * valuation, loaded once, without parsing. Others go to their definitions.
+ */
+public class ProgramGraphSteps<L,A> {
+
+    /**
+     * A transition together with the valuation after its action.
+     */
+    public static final class Step<L,A> {
+        private final PGTransition<L,A> _transition;
+        private final Map<String,Object> _valuation;
+
+        Step(PGTransition<L,A> transition, Map<String,Object> valuation) {
+            _transition = transition;
+            _valuation = valuation;
+        }
+
+        public PGTransition<L,A> getTransition() {
+            return _transition;
+        }
+
+        public Map<String,Object> getValuation() {
+            return _valuation;
+        }
+    }
+
+    private final Set<ConditionDef> _conditionDefs;
+    private final Set<ActionDef> _actionDefs;
+    private final Map<L, List<PGTransition<L,A>>> _outgoing = new HashMap<>();
+    private final Map<L, List<Prepared<L,A>>> _local = new HashMap<>();
+    private final CompiledNanoPromela _compiled = new CompiledNanoPromela();
+    // compiled conditions; absent ones are interpreted
+    private final Map<String, CompiledNanoPromela.Condition> _conditions = new HashMap<>();
+    // the definition matching each action, looked up once per distinct action
+    private final Map<Object, Optional<ActionDef>> _matchingDefs = new ConcurrentHashMap<>();
+    private final Map<Pair<L,Map<String,Object>>, List<Step<L,A>>> _cache;
+    // null when not instrumented
+    private FvmMetrics _metrics;
+
+    /**
+     * @param cacheSize the maximal number of {@code (location, valuation)}
+     *                  pairs whose steps are memoized; 0 disables the cache.
+     */
+    public ProgramGraphSteps(ProgramGraph<L,A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, int cacheSize) {
+        this(pg, actionDefs, conditionDefs, cacheSize, a -> true);
+    }
+
+    /**
+     * @param local the actions the graph takes on its own. Only those are
+     *              turned into {@link #steps}; the others, e.g. handshakes,
+     *              are left to the caller and never passed to an action
+     *              definition.
+     */
+    public ProgramGraphSteps(ProgramGraph<L,A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, int cacheSize,
+                             Predicate<? super A> local) {
+        _actionDefs = actionDefs;
+        _conditionDefs = conditionDefs;
+        boolean parsedConditions = !conditionDefs.isEmpty()
+                && conditionDefs.stream().allMatch(def -> def instanceof ParserBasedCondDef);
+        for(PGTransition<L,A> t:pg.getTransitions()) {
+            _outgoing.computeIfAbsent(t.getFrom(), k -> new ArrayList<>()).add(t);
+            if(parsedConditions && !_conditions.containsKey(t.getCondition()))
+                _conditions.put(t.getCondition(), _compiled.condition(t.getCondition()));
+            if(local.test(t.getAction()))
+                _local.computeIfAbsent(t.getFrom(), k -> new ArrayList<>()).add(prepare(t));
+        }
+        _cache = cacheSize > 0 ? Collections.synchronizedMap(new LruMap<>(cacheSize)) : null;
+    }
+
+    /**
+     * Counts condition evaluations and action effects into {@code metrics},
+     * or stops counting if {@code null}.
+     */
+    public void setMetrics(FvmMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    private Prepared<L,A> prepare(PGTransition<L,A> t) {
+        CompiledNanoPromela.Action action = null;
+        try {
+            if(matchingDef(t.getAction()) instanceof ParserBasedActDef)
+                action = _compiled.action(t.getAction());
+        } catch(RuntimeException e) {
+            // a definition that cannot tell; ask again, and fail, if the transition is ever taken
+            _matchingDefs.remove(t.getAction());
+        }
+        return new Prepared<>(t, _conditions.get(t.getCondition()), action);
+    }
+
+    /**
+     * @return the definition matching {@code action}, or {@code null} if
+     * there is none.
+     */
+    public ActionDef matchingDef(Object action) {
+        return _matchingDefs.computeIfAbsent(action,
+                a -> _actionDefs.stream().filter(def -> def.isMatchingAction(a)).findFirst()).orElse(null);
+    }
+
+    /**
+     * @return whether {@code condition} holds under {@code valuation}.
+     */
+    public boolean holds(Map<String,Object> valuation, String condition) {
+        if(_metrics != null)
+            _metrics.condition();
+        CompiledNanoPromela.Condition compiled = _conditions.get(condition);
+        if(compiled != null)
+            return compiled.test(_compiled.load(valuation));
+        return ConditionDef.evaluate(_conditionDefs, valuation, condition);
+    }
+
+    /**
+     * @return the outgoing transitions of {@code location}, enabled or not.
+     */
+    public List<PGTransition<L,A>> outgoing(L location) {
+        List<PGTransition<L,A>> outgoing = _outgoing.get(location);
+        return outgoing == null ? Collections.emptyList() : outgoing;
+    }
+
+    /**
+     * @return the enabled steps of local actions from {@code location} under
+     * {@code valuation}. An action without a matching definition leaves the
+     * valuation unchanged, and one whose effect is {@code null} is disabled.
+     */
+    public List<Step<L,A>> steps(L location, Map<String,Object> valuation) {
+        Pair<L,Map<String,Object>> key = _cache == null ? null : new Pair<>(location, valuation);
+        List<Step<L,A>> steps = key == null ? null : _cache.get(key);
+        if(steps == null) {
+            steps = computeSteps(location, valuation);
+            if(key != null)
+                _cache.put(key, steps);
+        }
+        return steps;
+    }
+
+    private List<Step<L,A>> computeSteps(L location, Map<String,Object> valuation) {
+        List<Prepared<L,A>> candidates = _local.get(location);
+        if(candidates == null)
+            return Collections.emptyList();
+        List<Step<L,A>> result = new ArrayList<>(candidates.size());
+        Object[] slots = null;
+        FvmMetrics metrics = _metrics;
+        for(Prepared<L,A> p:candidates) {
+            PGTransition<L,A> t = p._transition;
+            if(metrics != null)
+                metrics.condition();
+            if(p._condition != null) {
+                if(slots == null)
+                    slots = _compiled.load(valuation);
+                if(!p._condition.test(slots))
+                    continue;
+            } else if(!ConditionDef.evaluate(_conditionDefs, valuation, t.getCondition())) {
+                continue;
+            }
+            Map<String,Object> next;
+            if(metrics != null)
+                metrics.effect();
+            if(p._action != null) {
+                if(slots == null)
+                    slots = _compiled.load(valuation);
+                Object[] after = p._action.apply(slots);
+                next = after == null ? null : _compiled.store(valuation, slots, after);
+            } else {
+                ActionDef def = matchingDef(t.getAction());
+                next = def == null ? valuation : def.effect(valuation, t.getAction());
+            }
+            if(next != null)
+                result.add(new Step<>(t, next));
+        }
+        return result;
+    }
+
+    private static final class Prepared<L,A> {
+        private final PGTransition<L,A> _transition;
+        // null when interpreted
+        private final CompiledNanoPromela.Condition _condition;
+        private final CompiledNanoPromela.Action _action;
+
+        Prepared(PGTransition<L,A> transition, CompiledNanoPromela.Condition condition, CompiledNanoPromela.Action action) {
+            _transition = transition;
+            _condition = condition;
+            _action = action;
+        }
+    }
+
+    static class LruMap<K,V> extends LinkedHashMap<K,V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int _capacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            _capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+            return size() > _capacity;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.exceptions.FVMException;
+import il.ac.bgu.cs.fvm.programgraph.ActionDef;
+import il.ac.bgu.cs.fvm.programgraph.ConditionDef;
+import il.ac.bgu.cs.fvm.programgraph.PGTransition;
+import il.ac.bgu.cs.fvm.programgraph.ProgramGraph;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The transition system of a program graph, evaluated lazily: a state's
+ * successors are computed only when asked for, and the most recently used
+ * successor lists are kept in a bounded cache.
+ * <p>
+ * States are {@code (location, valuation)} pairs and are labelled with the
+ * location and with {@code "var = value"} for every variable, like
+ * {@link FvmFacadeImpl#transitionSystemFromProgramGraph}. By default states are
+ * fresh pairs and the view retains nothing beyond its bounded cache. States
+ * can instead be interned in a {@link StateStore}, so equal states are a
+ * single object and share their packed valuation and label strings; the
+ * store keeps every state it has seen, so this only suits explorations that
+ * keep all states anyway. Even then it saves little (see {@link StateStore}),
+ * so the facade builders do not intern.
+ */
+public class ProgramGraphTransitionSystem<L,A> extends LazyTransitionSystem<Pair<L,Map<String,Object>>,A,String> {
+
+    private final ProgramGraphSteps<L,A> _steps;
+    private final Map<Pair<L,Map<String,Object>>, List<Transition<Pair<L,Map<String,Object>>,A>>> _cache;
+    private final Set<Pair<L,Map<String,Object>>> _initial = new HashSet<>();
+    private final StateStore<L> _store;
+
+    /**
+     * @param cacheSize the maximal number of states whose successors are
+     *                  memoized; 0 disables the cache.
+     */
+    public ProgramGraphTransitionSystem(ProgramGraph<L,A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, int cacheSize) {
+        this(pg, actionDefs, conditionDefs, cacheSize, false);
+    }
+
+    /**
+     * @param interned whether states are interned, and kept for the lifetime
+     *                 of this system; if not, every successor is a fresh pair
+     *                 over a plain map and nothing is retained beyond the
+     *                 successor cache.
+     */
+    public ProgramGraphTransitionSystem(ProgramGraph<L,A> pg, Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, int cacheSize, boolean interned) {
+        _store = interned ? new StateStore<>() : null;
+        // successors are memoized per state below, so the steps need no cache of their own
+        _steps = new ProgramGraphSteps<>(pg, actionDefs, conditionDefs, 0);
+        _cache = cacheSize > 0 ? Collections.synchronizedMap(new ProgramGraphSteps.LruMap<>(cacheSize)) : null;
+
+        for(L l:pg.getInitialLocations()) {
+            for(List<String> init:pg.getInitalizations()) {
+                Map<String,Object> valuation = new HashMap<>();
+                for(String str:init) {
+                    ActionDef a = _steps.matchingDef(str);
+                    if(a == null)
+                        throw new FVMException("No action definition matches initialization " + str);
+                    valuation = a.effect(valuation, str);
+                }
+                _initial.add(state(l, valuation));
+            }
+        }
+    }
+
+    @Override
+    public void transitions(Pair<L,Map<String,Object>> from, Consumer<Transition<Pair<L,Map<String,Object>>,A>> sink) {
+        List<Transition<Pair<L,Map<String,Object>>,A>> successors = _cache == null ? null : _cache.get(from);
+        if(successors == null) {
+            successors = computeTransitions(from);
+            if(_cache != null)
+                _cache.put(from, successors);
+        }
+        successors.forEach(sink);
+    }
+
+    private List<Transition<Pair<L,Map<String,Object>>,A>> computeTransitions(Pair<L,Map<String,Object>> from) {
+        List<ProgramGraphSteps.Step<L,A>> steps = _steps.steps(from.first, from.second);
+        if(steps.isEmpty())
+            return Collections.emptyList();
+        List<Transition<Pair<L,Map<String,Object>>,A>> result = new ArrayList<>(steps.size());
+        for(ProgramGraphSteps.Step<L,A> step:steps) {
+            PGTransition<L,A> t = step.getTransition();
+            result.add(new Transition<>(from, t.getAction(), state(t.getTo(), step.getValuation())));
+        }
+        return result;
+    }
+
+    @Override
+    public void setMetrics(FvmMetrics metrics) {
+        super.setMetrics(metrics);
+        _steps.setMetrics(metrics);
+    }
+
+    private Pair<L,Map<String,Object>> state(L location, Map<String,Object> valuation) {
+        return _store == null ? new Pair<>(location, valuation) : _store.intern(location, valuation);
+    }
+
+    @Override
+    public Set<String> getLabel(Pair<L,Map<String,Object>> s) {
+        if(_store != null)
+            return _store.label(s);
+        Set<String> label = new HashSet<>();
+        label.add(s.first.toString());
+        for(Map.Entry<String,Object> e:s.second.entrySet())
+            label.add(String.format("%s = %s", e.getKey(), e.getValue()));
+        return label;
+    }
+
+    /**
+     * The store holding the states of this system, e.g. to map them to
+     * integer ids; {@code null} if states are not interned.
+     */
+    public StateStore<L> getStateStore() {
+        return _store;
+    }
+
+    @Override
+    public Set<Pair<L,Map<String,Object>>> getInitialStates() {
+        return Collections.unmodifiableSet(_initial);
+    }
+
+    // the alphabet is whatever the reachable transitions use
+    @Override
+    public Set<A> getActions() {
+        return materialized().getActions();
+    }
+
+    @Override
+    public Set<String> getAtomicPropositions() {
+        return materialized().getAtomicPropositions();
+    }
+
+    @Override
+    protected Set<A> declaredActions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    protected Set<String> declaredAtomicPropositions() {
+        return Collections.emptySet();
+    }
+}
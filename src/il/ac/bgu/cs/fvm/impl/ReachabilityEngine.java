@@ -0,0 +1,245 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Explicit-worklist reachability. Never recurses, so the explored graph can be
+ * arbitrarily deep, and successors are pushed straight into the worklist
+ * instead of being collected into a fresh set at every step.
+ *
+ * @param <S> type of the explored states
+ */
+public class ReachabilityEngine<S> {
+
+    public enum Order { BFS, DFS }
+
+    /**
+     * Enumerates the successors of a state into {@code sink}.
+     */
+    @FunctionalInterface
+    public interface SuccessorFunction<S> {
+        void successors(S state, Consumer<? super S> sink);
+    }
+
+    /**
+     * Called every {@code interval} newly visited states, and once more when
+     * the exploration ends. {@code depth} is the number of steps from an
+     * initial state to the state just visited along the path the search took
+     * (for BFS, the shortest one); in the final call, how deep the search
+     * got.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(long visited, long pending, int depth);
+    }
+
+    public static final int UNBOUNDED = -1;
+
+    private final SuccessorFunction<S> _successors;
+    private Order _order = Order.DFS;
+    private int _maxDepth = UNBOUNDED;
+    private ProgressListener _listener;
+    private long _interval = 100_000;
+    // null when unbounded
+    private ExplorationLimit _limit;
+
+    public ReachabilityEngine(SuccessorFunction<S> successors) {
+        _successors = successors;
+    }
+
+    public void setOrder(Order order) {
+        _order = order;
+    }
+
+    /**
+     * @param maxDepth the maximal number of steps from an initial state that is
+     *                 explored, or {@link #UNBOUNDED}.
+     */
+    public void setMaxDepth(int maxDepth) {
+        if(maxDepth < 0 && maxDepth != UNBOUNDED)
+            throw new IllegalArgumentException("Negative depth bound: " + maxDepth);
+        _maxDepth = maxDepth;
+    }
+
+    public void setProgressListener(ProgressListener listener, long interval) {
+        if(interval <= 0)
+            throw new IllegalArgumentException("Progress interval must be positive: " + interval);
+        _listener = listener;
+        _interval = interval;
+    }
+
+    /**
+     * Stops explorations early, with the states found so far, once
+     * {@code limit} runs out.
+     */
+    void setLimit(ExplorationLimit limit) {
+        _limit = limit;
+    }
+
+    private void newState() {
+        if(_limit != null)
+            _limit.state();
+    }
+
+    // counts a new state against the limit before recording it, so a stopped search holds only counted states
+    private boolean add(Set<S> visited, S s) {
+        if(_limit == null)
+            return visited.add(s);
+        if(visited.contains(s))
+            return false;
+        newState();
+        return visited.add(s);
+    }
+
+    private void expanding() {
+        if(_limit != null)
+            _limit.check();
+    }
+
+    public Set<S> explore(Iterable<? extends S> initial) {
+        if(_order == Order.BFS)
+            return bfs(initial);
+        return _maxDepth == UNBOUNDED ? dfs(initial) : boundedDfs(initial);
+    }
+
+    private Set<S> bfs(Iterable<? extends S> initial) {
+        Set<S> visited = new HashSet<>();
+        ArrayDeque<S> queue = new ArrayDeque<>();
+        int[] depth = {0};
+        try {
+            for(S s:initial)
+                if(add(visited, s)) {
+                    queue.add(s);
+                }
+
+            long levelRemaining = queue.size();
+            Consumer<S> sink = next -> {
+                if(add(visited, next)) {
+                    queue.add(next);
+                    reportIfDue(visited.size(), queue.size(), depth[0] + 1);
+                }
+            };
+            while(!queue.isEmpty() && (_maxDepth == UNBOUNDED || depth[0] < _maxDepth)) {
+                expanding();
+                _successors.successors(queue.poll(), sink);
+                if(--levelRemaining == 0) {
+                    depth[0]++;
+                    levelRemaining = queue.size();
+                }
+            }
+        } catch(ExplorationLimit.Stopped e) {
+            // report what was found
+        }
+        report(visited.size(), queue.size(), depth[0]);
+        return visited;
+    }
+
+    private Set<S> dfs(Iterable<? extends S> initial) {
+        Set<S> visited = new HashSet<>();
+        ArrayDeque<S> stack = new ArrayDeque<>();
+        IntStack depths = new IntStack();
+        // the depth of the state being expanded, and the deepest one seen
+        int[] depth = new int[2];
+        Consumer<S> sink = next -> {
+            if(add(visited, next)) {
+                int nextDepth = depth[0] + 1;
+                stack.push(next);
+                depths.push(nextDepth);
+                depth[1] = Math.max(depth[1], nextDepth);
+                reportIfDue(visited.size(), stack.size(), nextDepth);
+            }
+        };
+        try {
+            for(S s:initial) {
+                depth[0] = -1;
+                sink.accept(s);
+                while(!stack.isEmpty()) {
+                    expanding();
+                    depth[0] = depths.pop();
+                    _successors.successors(stack.pop(), sink);
+                }
+            }
+        } catch(ExplorationLimit.Stopped e) {
+            // report what was found
+        }
+        report(visited.size(), stack.size(), depth[1]);
+        return visited;
+    }
+
+    /*
+     * With a depth bound, a state first met deep in the search may be met again
+     * closer to the initial states later on. Such states are re-expanded, so the
+     * result equals the bounded BFS result.
+     */
+    private Set<S> boundedDfs(Iterable<? extends S> initial) {
+        Map<S, Integer> bestDepth = new HashMap<>();
+        ArrayDeque<S> stack = new ArrayDeque<>();
+        IntStack depths = new IntStack();
+        int[] maxSeen = new int[1];
+        try {
+            boundedDfs(initial, bestDepth, stack, depths, maxSeen);
+        } catch(ExplorationLimit.Stopped e) {
+            // report what was found
+        }
+        report(bestDepth.size(), stack.size(), maxSeen[0]);
+        return bestDepth.keySet();
+    }
+
+    private void boundedDfs(Iterable<? extends S> initial, Map<S, Integer> bestDepth, ArrayDeque<S> stack, IntStack depths, int[] maxSeen) {
+        for(S s:initial) {
+            if(!bestDepth.containsKey(s)) {
+                newState();
+                bestDepth.put(s, 0);
+                stack.push(s);
+                depths.push(0);
+            }
+        }
+        while(!stack.isEmpty()) {
+            expanding();
+            S s = stack.pop();
+            int d = depths.pop();
+            if(d > bestDepth.get(s) || d >= _maxDepth)
+                continue;
+            int nextDepth = d + 1;
+            maxSeen[0] = Math.max(maxSeen[0], nextDepth);
+            _successors.successors(s, next -> {
+                Integer known = bestDepth.get(next);
+                if(known == null || known > nextDepth) {
+                    if(known == null)
+                        newState();
+                    bestDepth.put(next, nextDepth);
+                    stack.push(next);
+                    depths.push(nextDepth);
+                    if(known == null)
+                        reportIfDue(bestDepth.size(), stack.size(), nextDepth);
+                }
+            });
+        }
+    }
+
+    private void reportIfDue(long visited, long pending, int depth) {
+        if(_listener != null && visited % _interval == 0)
+            _listener.progress(visited, pending, depth);
+    }
+
+    private void report(long visited, long pending, int depth) {
+        if(_listener != null)
+            _listener.progress(visited, pending, depth);
+    }
+
+    private static class IntStack {
+        private int[] _items = new int[64];
+        private int _size;
+
+        void push(int i) {
+            if(_size == _items.length)
+                _items = Arrays.copyOf(_items, _size * 2);
+            _items[_size++] = i;
+        }
+
+        int pop() {
+            return _items[--_size];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes states to bytes and reads them back, for state tables kept off the
+ * heap such as {@link DiskTransitionSystem}'s.
+ * <p>
+ * Equal states must be written as equal bytes, since tables compare states by
+ * their encoding, and reading must give back a state equal to the written one.
+ */
+public interface StateCodec<S> {
+
+    void write(S state, DataOutput out) throws IOException;
+
+    S read(DataInput in) throws IOException;
+}
@@ -0,0 +1,79 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Runs independent {@link NestedDepthFirstSearch}es on a pool, one per
+ * worker, each visiting successors in its own random order.
+ * <p>
+ * Every worker decides emptiness on its own, so the first one to finish
+ * gives the verdict and the others are stopped right away: either it found
+ * an accepting cycle, or it searched the whole graph and there is none.
+ * Different orders send the workers into different parts of the graph,
+ * which finds counterexamples sooner on large products, while a graph
+ * without accepting cycles takes as long as a single sequential search.
+ * The workers share nothing but the successor function, which must be thread
+ * safe, and each keeps its own colours, so memory grows with the number of
+ * workers.
+ *
+ * @param <S> type of the searched states
+ */
+public class SwarmNestedDepthFirstSearch<S> {
+
+    private final ReachabilityEngine.SuccessorFunction<S> _successors;
+    private final Predicate<? super S> _accepting;
+    private final ForkJoinPool _pool;
+    private final long _seed;
+
+    /**
+     * @param seed seeds the orders of the workers. Worker 0 always keeps
+     *             generation order, so it searches like the sequential search.
+     */
+    public SwarmNestedDepthFirstSearch(ReachabilityEngine.SuccessorFunction<S> successors, Predicate<? super S> accepting,
+                                       ForkJoinPool pool, long seed) {
+        _successors = successors;
+        _accepting = accepting;
+        _pool = pool;
+        _seed = seed;
+    }
+
+    /**
+     * @return an accepting cycle reachable from {@code initial}, or
+     * {@code null} if there is none.
+     */
+    public NestedDepthFirstSearch.Lasso<S> search(Collection<? extends S> initial) {
+        AtomicBoolean done = new AtomicBoolean();
+        int workers = _pool.getParallelism();
+        List<Callable<Optional<NestedDepthFirstSearch.Lasso<S>>>> tasks = new ArrayList<>(workers);
+        for(int i = 0; i < workers; i++) {
+            NestedDepthFirstSearch<S> search = new NestedDepthFirstSearch<>(_successors, _accepting);
+            if(i > 0)
+                search.setRandomOrder(new Random(_seed + i));
+            search.setCancellation(done::get);
+            // the first worker decides for everybody
+            tasks.add(() -> {
+                NestedDepthFirstSearch.Lasso<S> lasso = search.search(initial);
+                done.set(true);
+                return Optional.ofNullable(lasso);
+            });
+        }
+        try {
+            return _pool.invokeAny(tasks).orElse(null);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while searching");
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            done.set(true);
+        }
+    }
+}
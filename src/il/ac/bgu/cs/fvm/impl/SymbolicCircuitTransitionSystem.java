@@ -0,0 +1,184 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.circuits.Circuit;
+import il.ac.bgu.cs.fvm.exceptions.FVMException;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+
+import static il.ac.bgu.cs.fvm.impl.bdd.BddManager.FALSE;
+import static il.ac.bgu.cs.fvm.impl.bdd.BddManager.TRUE;
+
+/**
+ * The transition system of a circuit, kept symbolically. It has the same
+ * states, actions, transitions and labels as
+ * {@link FvmFacadeImpl#transitionSystemFromCircuit}.
+ * <p>
+ * State bits are the inputs followed by the registers. The next-register and
+ * output functions are opaque Java code, so each is tabulated once over all
+ * input and register values into a BDD; no state or transition is enumerated
+ * after that, and reachability is a symbolic fixpoint.
+ * <p>
+ * Tabulating evaluates the circuit once per valuation of all state bits,
+ * reachable or not, so circuits with more than {@link #MAX_STATE_BITS}
+ * inputs and registers are rejected; their reachable states are better
+ * searched explicitly.
+ */
+public class SymbolicCircuitTransitionSystem extends SymbolicTransitionSystem<Pair<Map<String,Boolean>,Map<String,Boolean>>,Map<String,Boolean>,Object> {
+
+    /**
+     * The most inputs and registers a circuit may have, as tabulating it takes
+     * {@code 2^(inputs + registers)} evaluations.
+     */
+    public static final int MAX_STATE_BITS = 24;
+
+    private final String[] _inputs;
+    private final String[] _registers;
+    private final String[] _outputs;
+
+    public SymbolicCircuitTransitionSystem(Circuit c) {
+        super(c.getInputPortNames().size() + c.getRegisterNames().size());
+        _inputs = c.getInputPortNames().toArray(new String[0]);
+        _registers = c.getRegisterNames().toArray(new String[0]);
+        _outputs = c.getOutputPortNames().toArray(new String[0]);
+        if(_inputs.length + _registers.length > MAX_STATE_BITS)
+            throw new FVMException(String.format("Circuit has %d inputs and %d registers; tabulating it symbolically takes 2^%d evaluations, "
+                    + "more than the 2^%d allowed. Use the explicit transitionSystemFromCircuit, which visits reachable states only.",
+                    _inputs.length, _registers.length, _inputs.length + _registers.length, MAX_STATE_BITS));
+
+        int[] functions = tabulate(c, 0, new boolean[_inputs.length + _registers.length]);
+        int relation = TRUE;
+        for(int j = 0; j < _registers.length; j++)
+            relation = _bdd.and(relation, _bdd.equiv(_bdd.ithVar(nextVar(_inputs.length + j)), functions[j]));
+        setRelation(relation);
+
+        int initial = TRUE;
+        for(int j = 0; j < _registers.length; j++)
+            initial = _bdd.and(initial, _bdd.nithVar(currentVar(_inputs.length + j)));
+        setInitial(initial);
+
+        for(int i = 0; i < _inputs.length; i++)
+            setLabel(_inputs[i], _bdd.ithVar(currentVar(i)));
+        for(int j = 0; j < _registers.length; j++)
+            setLabel(_registers[j], _bdd.ithVar(currentVar(_inputs.length + j)));
+        for(int k = 0; k < _outputs.length; k++)
+            setLabel(_outputs[k], functions[_registers.length + k]);
+    }
+
+    /*
+     * Builds the BDDs of the next-register functions followed by the output
+     * functions, by Shannon expansion over the state bits, evaluating the
+     * circuit once per full assignment.
+     */
+    private int[] tabulate(Circuit c, int bit, boolean[] values) {
+        if(bit == values.length) {
+            Map<String,Boolean> inputs = map(_inputs, values, 0);
+            Map<String,Boolean> registers = map(_registers, values, _inputs.length);
+            Map<String,Boolean> next = c.updateRegisters(inputs, registers);
+            Map<String,Boolean> outputs = c.computeOutputs(inputs, registers);
+            int[] leaves = new int[_registers.length + _outputs.length];
+            for(int j = 0; j < _registers.length; j++)
+                leaves[j] = Boolean.TRUE.equals(next.get(_registers[j])) ? TRUE : FALSE;
+            for(int k = 0; k < _outputs.length; k++)
+                leaves[_registers.length + k] = Boolean.TRUE.equals(outputs.get(_outputs[k])) ? TRUE : FALSE;
+            return leaves;
+        }
+        values[bit] = false;
+        int[] low = tabulate(c, bit + 1, values);
+        values[bit] = true;
+        int[] high = tabulate(c, bit + 1, values);
+        int[] result = new int[low.length];
+        for(int f = 0; f < result.length; f++)
+            result[f] = _bdd.node(currentVar(bit), low[f], high[f]);
+        return result;
+    }
+
+    private static Map<String,Boolean> map(String[] names, boolean[] values, int offset) {
+        Map<String,Boolean> result = new HashMap<>();
+        for(int i = 0; i < names.length; i++)
+            result.put(names[i], values[offset + i]);
+        return result;
+    }
+
+    private static boolean encode(String[] names, Object o, boolean[] values, int offset) {
+        if(!(o instanceof Map) || ((Map<?,?>) o).size() != names.length)
+            return false;
+        for(int i = 0; i < names.length; i++) {
+            Object value = ((Map<?,?>) o).get(names[i]);
+            if(!(value instanceof Boolean))
+                return false;
+            values[offset + i] = (Boolean) value;
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean[] encode(Object s) {
+        if(!(s instanceof Pair))
+            return null;
+        boolean[] bits = new boolean[_inputs.length + _registers.length];
+        Pair<?,?> p = (Pair<?,?>) s;
+        return encode(_inputs, p.first, bits, 0) && encode(_registers, p.second, bits, _inputs.length) ? bits : null;
+    }
+
+    @Override
+    protected Pair<Map<String,Boolean>,Map<String,Boolean>> decode(boolean[] bits) {
+        return new Pair<>(map(_inputs, bits, 0), map(_registers, bits, _inputs.length));
+    }
+
+    // the action of a step is the input read next
+    @Override
+    protected Map<String,Boolean> action(boolean[] from, boolean[] to) {
+        return map(_inputs, to, 0);
+    }
+
+    @Override
+    protected int steps(Object a) {
+        boolean[] bits = new boolean[_inputs.length];
+        if(!encode(_inputs, a, bits, 0))
+            return FALSE;
+        int[] vars = new int[_inputs.length];
+        for(int i = 0; i < vars.length; i++)
+            vars[i] = nextVar(i);
+        return _bdd.minterm(vars, bits);
+    }
+
+    @Override
+    public Set<Map<String,Boolean>> getActions() {
+        int count = 1 << _inputs.length;
+        return new AbstractSet<Map<String,Boolean>>() {
+            @Override
+            public Iterator<Map<String,Boolean>> iterator() {
+                return new Iterator<Map<String,Boolean>>() {
+                    private int _next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return _next < count;
+                    }
+
+                    @Override
+                    public Map<String,Boolean> next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        boolean[] bits = new boolean[_inputs.length];
+                        for(int i = 0; i < bits.length; i++)
+                            bits[i] = (_next & 1 << i) != 0;
+                        _next++;
+                        return map(_inputs, bits, 0);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return encode(_inputs, o, new boolean[_inputs.length], 0);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+}
@@ -0,0 +1,392 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.impl.bdd.BddManager;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+
+import java.util.*;
+
+import static il.ac.bgu.cs.fvm.impl.bdd.BddManager.FALSE;
+
+/**
+ * A read-only transition system over states encoded as vectors of boolean
+ * variables, kept as BDDs.
+ * <p>
+ * Bit {@code i} of a state is BDD variable {@code 2i}, and its value after a
+ * step is variable {@code 2i+1}. The system is given by a BDD of its initial
+ * states, a BDD transition relation over current and next bits, and a BDD per
+ * atomic proposition. Subclasses supply the mapping between bit vectors and
+ * state and action objects.
+ * <p>
+ * {@link #image}, {@link #preimage} and {@link #reachable} work on whole sets
+ * of states at once. The {@link TransitionSystem} methods present the
+ * reachable part of the system as explicit objects, enumerating BDDs only as
+ * far as the caller asks for. Like {@link BddManager}, this class is not
+ * thread safe.
+ */
+public abstract class SymbolicTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> {
+
+    protected final BddManager _bdd = new BddManager();
+    private final int[] _current;
+    private final int[] _next;
+    private final int[] _both;
+    private final int _currentCube;
+    private final int _nextCube;
+    private final int _toNext;
+    private final int _toCurrent;
+
+    private String _name;
+    private int _initial = FALSE;
+    private int _relation = FALSE;
+    private final Map<ATOMIC_PROPOSITION, Integer> _labels = new LinkedHashMap<>();
+    private int _reachable = -1;
+    private TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> _materialized;
+
+    protected SymbolicTransitionSystem(int bits) {
+        _current = new int[bits];
+        _next = new int[bits];
+        _both = new int[bits * 2];
+        int[] toNext = new int[bits * 2];
+        int[] toCurrent = new int[bits * 2];
+        Arrays.fill(toNext, -1);
+        Arrays.fill(toCurrent, -1);
+        for(int i = 0; i < bits; i++) {
+            _current[i] = 2 * i;
+            _next[i] = 2 * i + 1;
+            _both[2 * i] = 2 * i;
+            _both[2 * i + 1] = 2 * i + 1;
+            toNext[2 * i] = 2 * i + 1;
+            toCurrent[2 * i + 1] = 2 * i;
+        }
+        _currentCube = _bdd.cube(_current);
+        _nextCube = _bdd.cube(_next);
+        _toNext = _bdd.renaming(toNext);
+        _toCurrent = _bdd.renaming(toCurrent);
+    }
+
+    /**
+     * @return the bit vector of {@code s}, or {@code null} if {@code s} is not
+     * a state of this system.
+     */
+    protected abstract boolean[] encode(Object s);
+
+    protected abstract STATE decode(boolean[] bits);
+
+    /**
+     * @return the action of the step from {@code from} to {@code to}.
+     */
+    protected abstract ACTION action(boolean[] from, boolean[] to);
+
+    /**
+     * @return the steps labelled {@code a}, as a BDD over current and next
+     * bits, or {@link BddManager#FALSE} if {@code a} is not an action.
+     */
+    protected abstract int steps(Object a);
+
+    protected void setInitial(int initial) {
+        _initial = initial;
+        _reachable = -1;
+    }
+
+    protected void setRelation(int relation) {
+        _relation = relation;
+        _reachable = -1;
+    }
+
+    /**
+     * @param states the states labelled with {@code p}, over current bits.
+     */
+    protected void setLabel(ATOMIC_PROPOSITION p, int states) {
+        _labels.put(p, states);
+    }
+
+    public BddManager getManager() {
+        return _bdd;
+    }
+
+    /**
+     * @return BDD variable of the current value of bit {@code i}.
+     */
+    public int currentVar(int i) {
+        return _current[i];
+    }
+
+    /**
+     * @return BDD variable of the next value of bit {@code i}.
+     */
+    public int nextVar(int i) {
+        return _next[i];
+    }
+
+    public int initialStates() {
+        return _initial;
+    }
+
+    public int relation() {
+        return _relation;
+    }
+
+    /**
+     * @return the BDD of a single state, or {@link BddManager#FALSE} if
+     * {@code s} is not a state of this system.
+     */
+    public int state(Object s) {
+        boolean[] bits = encode(s);
+        return bits == null ? FALSE : _bdd.minterm(_current, bits);
+    }
+
+    /**
+     * @return the successors of {@code states}.
+     */
+    public int image(int states) {
+        return _bdd.replace(_bdd.relProd(states, _relation, _currentCube), _toCurrent);
+    }
+
+    public int image(int states, ACTION a) {
+        return _bdd.replace(_bdd.relProd(states, _bdd.and(_relation, steps(a)), _currentCube), _toCurrent);
+    }
+
+    /**
+     * @return the predecessors of {@code states}, reachable or not.
+     */
+    public int preimage(int states) {
+        return _bdd.relProd(_relation, _bdd.replace(states, _toNext), _nextCube);
+    }
+
+    public int preimage(int states, ACTION a) {
+        return _bdd.relProd(_bdd.and(_relation, steps(a)), _bdd.replace(states, _toNext), _nextCube);
+    }
+
+    /**
+     * @return the reachable states, computed by a breadth-first fixpoint of
+     * {@link #image} over frontiers.
+     */
+    public int reachable() {
+        if(_reachable < 0) {
+            int reached = _initial;
+            int frontier = _initial;
+            while(frontier != FALSE) {
+                frontier = _bdd.and(image(frontier), _bdd.not(reached));
+                reached = _bdd.or(reached, frontier);
+            }
+            _reachable = reached;
+        }
+        return _reachable;
+    }
+
+    /**
+     * @return the states of a BDD over current bits, as a read-only set.
+     */
+    public Set<STATE> states(int states) {
+        return new AbstractSet<STATE>() {
+            @Override
+            public Iterator<STATE> iterator() {
+                List<STATE> result = new ArrayList<>();
+                _bdd.forEachSat(states, _current, bits -> result.add(decode(bits)));
+                return Collections.unmodifiableList(result).iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                boolean[] bits = encode(o);
+                return bits != null && _bdd.eval(states, v -> bits[v / 2]);
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(count(states), Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * @return the number of states in a BDD over current bits.
+     */
+    public double count(int states) {
+        return _bdd.satCount(states, _current);
+    }
+
+    /**
+     * @return the steps of a BDD over current and next bits, as transitions.
+     */
+    public Set<Transition<STATE,ACTION>> transitions(int steps) {
+        Set<Transition<STATE,ACTION>> result = new HashSet<>();
+        int bits = _current.length;
+        _bdd.forEachSat(steps, _both, values -> {
+            boolean[] from = new boolean[bits];
+            boolean[] to = new boolean[bits];
+            for(int i = 0; i < bits; i++) {
+                from[i] = values[2 * i];
+                to[i] = values[2 * i + 1];
+            }
+            result.add(new Transition<>(decode(from), action(from, to), decode(to)));
+        });
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> outgoing(STATE s) {
+        return transitions(_bdd.and(state(s), _relation));
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> incoming(STATE s) {
+        return transitions(_bdd.and(_bdd.and(reachable(), _relation), _bdd.replace(state(s), _toNext)));
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        return states(image(state(s), a));
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        return states(_bdd.and(reachable(), preimage(state(s), a)));
+    }
+
+    @Override
+    public Set<STATE> getStates() {
+        return states(reachable());
+    }
+
+    @Override
+    public Set<STATE> getInitialStates() {
+        return states(_initial);
+    }
+
+    @Override
+    public Set<Transition<STATE,ACTION>> getTransitions() {
+        return transitions(_bdd.and(reachable(), _relation));
+    }
+
+    /**
+     * @return the propositions that hold in some reachable state.
+     */
+    @Override
+    public Set<ATOMIC_PROPOSITION> getAtomicPropositions() {
+        Set<ATOMIC_PROPOSITION> result = new HashSet<>();
+        for(Map.Entry<ATOMIC_PROPOSITION, Integer> e:_labels.entrySet())
+            if(_bdd.and(e.getValue(), reachable()) != FALSE)
+                result.add(e.getKey());
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<ATOMIC_PROPOSITION> getLabel(STATE s) {
+        boolean[] bits = encode(s);
+        Set<ATOMIC_PROPOSITION> result = new HashSet<>();
+        if(bits != null)
+            for(Map.Entry<ATOMIC_PROPOSITION, Integer> e:_labels.entrySet())
+                if(_bdd.eval(e.getValue(), v -> bits[v / 2]))
+                    result.add(e.getKey());
+        return result;
+    }
+
+    @Override
+    public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
+        Map<STATE, Set<ATOMIC_PROPOSITION>> result = new HashMap<>();
+        for(STATE s:getStates())
+            result.put(s, getLabel(s));
+        return result;
+    }
+
+    /**
+     * Builds the reachable part of this system into a new, mutable system.
+     */
+    public TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> materialize() {
+        return TransitionSystemImpl.copyOf(this);
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public void setName(String name) {
+        _name = name;
+    }
+
+    @Override
+    public void addAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void addToLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAction(ACTION action) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeAtomicProposition(ATOMIC_PROPOSITION p) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeInitialState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeState(STATE state) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeTransition(Transition<STATE,ACTION> t) {
+        throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException(getClass().getSimpleName() + " is a read-only view");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof TransitionSystem))
+            return false;
+        return materialized().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return materialized().hashCode();
+    }
+
+    private TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> materialized() {
+        if(_materialized == null)
+            _materialized = materialize();
+        _materialized.setName(_name);
+        return _materialized;
+    }
+}
@@ -0,0 +1,223 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.exceptions.*;
+import il.ac.bgu.cs.fvm.transitionsystem.Transition;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Collects the parts of a transition system in bulk and builds an immutable
+ * {@link CompactTransitionSystem}.
+ * <p>
+ * Unlike the mutators of {@link TransitionSystemImpl}, the {@code add}
+ * methods do not validate anything: states, actions and propositions may be
+ * referenced before they are declared, and everything is checked once by
+ * {@link #build}, which throws the same exceptions as
+ * {@link TransitionSystemImpl} would have. Internally every object is mapped
+ * to an int id as it is first seen, and transitions and labels are kept as
+ * id arrays.
+ * <p>
+ * A builder can be used for a single {@link #build} only.
+ */
+public class TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> {
+
+    private String _name;
+    private final Ids<STATE> _states;
+    private final Ids<ACTION> _actions = new Ids<>(16);
+    private final Ids<ATOMIC_PROPOSITION> _aps = new Ids<>(16);
+    private final IntList _transitions;
+    private final IntList _initial = new IntList(4);
+    private final IntList _labels;
+    private boolean _built;
+
+    public TransitionSystemBuilder() {
+        this(16, 16);
+    }
+
+    /**
+     * Presizes the builder for the given numbers of states and transitions.
+     */
+    public TransitionSystemBuilder(int expectedStates, int expectedTransitions) {
+        _states = new Ids<>(expectedStates);
+        _transitions = new IntList(3 * expectedTransitions);
+        _labels = new IntList(2 * expectedStates);
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> name(String name) {
+        _name = name;
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addState(STATE s) {
+        _states.declare(s);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addStates(Iterable<? extends STATE> states) {
+        for(STATE s:states)
+            _states.declare(s);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addStates(Stream<? extends STATE> states) {
+        states.sequential().forEach(_states::declare);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addInitialState(STATE s) {
+        _initial.add(_states.id(s));
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addAction(ACTION a) {
+        _actions.declare(a);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addActions(Iterable<? extends ACTION> actions) {
+        for(ACTION a:actions)
+            _actions.declare(a);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addAtomicProposition(ATOMIC_PROPOSITION p) {
+        _aps.declare(p);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addAtomicPropositions(Iterable<? extends ATOMIC_PROPOSITION> aps) {
+        for(ATOMIC_PROPOSITION p:aps)
+            _aps.declare(p);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addTransition(STATE from, ACTION action, STATE to) {
+        _transitions.add(_states.id(from));
+        _transitions.add(_actions.id(action));
+        _transitions.add(_states.id(to));
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addTransition(Transition<STATE,ACTION> t) {
+        return addTransition(t.getFrom(), t.getAction(), t.getTo());
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addTransitions(Iterable<? extends Transition<STATE,ACTION>> transitions) {
+        for(Transition<STATE,ACTION> t:transitions)
+            addTransition(t);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addTransitions(Stream<? extends Transition<STATE,ACTION>> transitions) {
+        transitions.sequential().forEach(this::addTransition);
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addToLabel(STATE s, ATOMIC_PROPOSITION p) {
+        _labels.add(_states.id(s));
+        _labels.add(_aps.id(p));
+        return this;
+    }
+
+    public TransitionSystemBuilder<STATE,ACTION,ATOMIC_PROPOSITION> addLabels(Map<? extends STATE, ? extends Collection<? extends ATOMIC_PROPOSITION>> labels) {
+        for(Map.Entry<? extends STATE, ? extends Collection<? extends ATOMIC_PROPOSITION>> e:labels.entrySet())
+            for(ATOMIC_PROPOSITION p:e.getValue())
+                addToLabel(e.getKey(), p);
+        return this;
+    }
+
+    /**
+     * Validates everything added so far and builds the system.
+     *
+     * @throws InvalidTransitionException if a transition uses an undeclared
+     *                                    state or action.
+     * @throws InvalidInitialStateException if an initial state is undeclared.
+     * @throws StateNotFoundException if a label is added to an undeclared state.
+     * @throws InvalidLablingPairException if a label uses an undeclared proposition.
+     */
+    public CompactTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> build() throws FVMException {
+        if(_built)
+            throw new IllegalStateException("This builder was already used");
+        _built = true;
+        for(int i = 0; i < _transitions.size(); i += 3) {
+            int from = _transitions.get(i), action = _transitions.get(i + 1), to = _transitions.get(i + 2);
+            if(!_states.declared(from) || !_actions.declared(action) || !_states.declared(to))
+                throw new InvalidTransitionException(new Transition<>(_states.get(from), _actions.get(action), _states.get(to)));
+        }
+        for(int i = 0; i < _initial.size(); i++)
+            if(!_states.declared(_initial.get(i)))
+                throw new InvalidInitialStateException(_states.get(_initial.get(i)));
+        for(int i = 0; i < _labels.size(); i += 2) {
+            if(!_states.declared(_labels.get(i)))
+                throw new StateNotFoundException(_states.get(_labels.get(i)));
+            if(!_aps.declared(_labels.get(i + 1)))
+                throw new InvalidLablingPairException(_states.get(_labels.get(i)), _aps.get(_labels.get(i + 1)));
+        }
+        return new CompactTransitionSystem<>(_name, _states._ids, _states._objects, _actions._ids, _actions._objects,
+                _aps._ids, _aps._objects, _transitions.toArray(), _initial.toArray(), _labels.toArray());
+    }
+
+    /**
+     * Dense ids for the objects seen so far, and which of them were declared.
+     */
+    private static class Ids<T> {
+        private final HashMap<T, Integer> _ids;
+        private final ArrayList<T> _objects;
+        private final BitSet _declared = new BitSet();
+
+        Ids(int expected) {
+            _ids = new HashMap<>(Math.max(16, (int) (expected / 0.75f) + 1));
+            _objects = new ArrayList<>(expected);
+        }
+
+        int id(T o) {
+            Integer id = _ids.get(o);
+            if(id == null) {
+                id = _objects.size();
+                _ids.put(o, id);
+                _objects.add(o);
+            }
+            return id;
+        }
+
+        void declare(T o) {
+            _declared.set(id(o));
+        }
+
+        boolean declared(int id) {
+            return _declared.get(id);
+        }
+
+        T get(int id) {
+            return _objects.get(id);
+        }
+    }
+
+    private static class IntList {
+        private int[] _items;
+        private int _size;
+
+        IntList(int capacity) {
+            _items = new int[Math.max(4, capacity)];
+        }
+
+        void add(int i) {
+            if(_size == _items.length)
+                _items = Arrays.copyOf(_items, _size * 2);
+            _items[_size++] = i;
+        }
+
+        int get(int index) {
+            return _items[index];
+        }
+
+        int size() {
+            return _size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(_items, _size);
+        }
+    }
+}
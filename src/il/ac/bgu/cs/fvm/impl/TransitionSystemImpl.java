@@ -7,16 +7,58 @@ import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
 
 import java.util.*;
 
-public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>  {
+public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements IndexedTransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION>  {
 
     private String _name;
     private Set<ACTION> _actions = new HashSet<>();
     private Set<STATE> _initial = new HashSet<>();
     private Set<STATE> _states = new HashSet<>();
-    private Set<Transition<STATE,ACTION>> _transitions = new HashSet<>();
     private Set<ATOMIC_PROPOSITION> _ap = new HashSet<>();
     private HashMap<STATE, Set<ATOMIC_PROPOSITION>> _labels = new HashMap<>();
 
+    /*
+     * The transitions, stored once per direction: successors and predecessors
+     * of every state by action. getTransitions, outgoing and incoming are
+     * views over them.
+     */
+    private HashMap<STATE, Map<ACTION, Set<STATE>>> _post = new HashMap<>();
+    private HashMap<STATE, Map<ACTION, Set<STATE>>> _pre = new HashMap<>();
+    private int _transitionCount;
+    // how many transitions use each action, and how many labels each proposition
+    private HashMap<ACTION, Integer> _actionUses = new HashMap<>();
+    private HashMap<ATOMIC_PROPOSITION, Integer> _apUses = new HashMap<>();
+
+    /*
+     * Structural hashes of the components, kept equal to their hashCode() on
+     * every mutation: a set hashes to the sum of its elements' hashes, and the
+     * labeling function to the sum of (state hash ^ label set hash).
+     */
+    private int _actionsHash;
+    private int _initialHash;
+    private int _statesHash;
+    private int _transitionsHash;
+    private int _apHash;
+    private int _labelsHash;
+
+    /**
+     * Copies {@code ts} into a new, indexed transition system.
+     */
+    public static <S, A, P> TransitionSystemImpl<S, A, P> copyOf(TransitionSystem<S, A, P> ts) {
+        TransitionSystemImpl<S, A, P> copy = new TransitionSystemImpl<>();
+        copy.setName(ts.getName());
+        copy.addAllStates(ts.getStates());
+        copy.addAllActions(ts.getActions());
+        copy.addAllAtomicPropositions(ts.getAtomicPropositions());
+        for(S s:ts.getInitialStates())
+            copy.addInitialState(s);
+        for(Transition<S, A> t:ts.getTransitions())
+            copy.addTransition(t);
+        for(Map.Entry<S, Set<P>> e:ts.getLabelingFunction().entrySet())
+            for(P p:e.getValue())
+                copy.addToLabel(e.getKey(), p);
+        return copy;
+    }
+
     @Override
     public String getName() {
         return _name;
@@ -30,43 +72,56 @@ public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements Tr
 
     @Override
     public void addAction(ACTION action) {
-        _actions.add(action);
+        if(_actions.add(action))
+            _actionsHash += Objects.hashCode(action);
     }
 
     @Override
     public void addInitialState(STATE state) throws FVMException {
-        if(_states.contains(state))
-            _initial.add(state);
+        if(_states.contains(state)) {
+            if(_initial.add(state))
+                _initialHash += Objects.hashCode(state);
+        }
         else
             throw new InvalidInitialStateException("New initial state does not exist in statess");
     }
 
     @Override
     public void addState(STATE state) {
-        _states.add(state);
-        _labels.put(state, new HashSet<ATOMIC_PROPOSITION>());
+        // re-adding a state keeps its labels
+        if(_states.add(state)) {
+            _labels.put(state, new HashSet<ATOMIC_PROPOSITION>());
+            _statesHash += Objects.hashCode(state);
+            _labelsHash += Objects.hashCode(state);
+        }
     }
 
     @Override
     public void addTransition(Transition<STATE, ACTION> t) throws FVMException {
         if(!(_states.contains(t.getFrom()) && _states.contains(t.getTo()) && _actions.contains(t.getAction())))
             throw new InvalidTransitionException(t);
-        _transitions.add(t);
+        if(_post.computeIfAbsent(t.getFrom(), k -> new HashMap<>()).computeIfAbsent(t.getAction(), k -> new HashSet<>()).add(t.getTo())) {
+            _pre.computeIfAbsent(t.getTo(), k -> new HashMap<>()).computeIfAbsent(t.getAction(), k -> new HashSet<>()).add(t.getFrom());
+            _transitionCount++;
+            _actionUses.merge(t.getAction(), 1, Integer::sum);
+            _transitionsHash += t.hashCode();
+        }
     }
 
     @Override
     public Set<ACTION> getActions() {
-        return _actions;
+        return Collections.unmodifiableSet(_actions);
     }
 
     @Override
     public void addAtomicProposition(ATOMIC_PROPOSITION p) {
-        _ap.add(p);
+        if(_ap.add(p))
+            _apHash += Objects.hashCode(p);
     }
 
     @Override
     public Set<ATOMIC_PROPOSITION> getAtomicPropositions() {
-        return _ap;
+        return Collections.unmodifiableSet(_ap);
     }
 
     @Override
@@ -75,59 +130,263 @@ public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements Tr
             throw new StateNotFoundException("Label added to non-existing state");
         if(!_ap.contains(l))
             throw new InvalidLablingPairException(s,l);
-        _labels.get(s).add(l);
+        Set<ATOMIC_PROPOSITION> label = _labels.get(s);
+        int before = label.hashCode();
+        if(label.add(l)) {
+            _apUses.merge(l, 1, Integer::sum);
+            relabelled(s, before, label);
+        }
     }
 
     @Override
     public Set<ATOMIC_PROPOSITION> getLabel(STATE s) {
         if(!_labels.containsKey(s))
             throw new StateNotFoundException(s);
-        return _labels.get(s);
+        return Collections.unmodifiableSet(_labels.get(s));
     }
 
     @Override
     public Set<STATE> getInitialStates() {
-        return _initial;
+        return Collections.unmodifiableSet(_initial);
     }
 
     @Override
     public Map<STATE, Set<ATOMIC_PROPOSITION>> getLabelingFunction() {
-        return _labels;
+        return new AbstractMap<STATE, Set<ATOMIC_PROPOSITION>>() {
+            @Override
+            public Set<Entry<STATE, Set<ATOMIC_PROPOSITION>>> entrySet() {
+                return new AbstractSet<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                    @Override
+                    public Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>> iterator() {
+                        Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>> entries = _labels.entrySet().iterator();
+                        return new Iterator<Entry<STATE, Set<ATOMIC_PROPOSITION>>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return entries.hasNext();
+                            }
+
+                            @Override
+                            public Entry<STATE, Set<ATOMIC_PROPOSITION>> next() {
+                                Entry<STATE, Set<ATOMIC_PROPOSITION>> e = entries.next();
+                                return new SimpleImmutableEntry<>(e.getKey(), Collections.unmodifiableSet(e.getValue()));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return _labels.size();
+                    }
+                };
+            }
+
+            @Override
+            public Set<ATOMIC_PROPOSITION> get(Object key) {
+                Set<ATOMIC_PROPOSITION> label = _labels.get(key);
+                return label == null ? null : Collections.unmodifiableSet(label);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return _labels.containsKey(key);
+            }
+
+            @Override
+            public int hashCode() {
+                return _labelsHash;
+            }
+        };
     }
 
     @Override
     public Set<STATE> getStates() {
-        return _states;
+        return Collections.unmodifiableSet(_states);
     }
 
     @Override
     public Set<Transition<STATE, ACTION>> getTransitions() {
-        return _transitions;
+        return new AbstractSet<Transition<STATE, ACTION>>() {
+            @Override
+            public Iterator<Transition<STATE, ACTION>> iterator() {
+                Iterator<Map.Entry<STATE, Map<ACTION, Set<STATE>>>> states = _post.entrySet().iterator();
+                return new Iterator<Transition<STATE, ACTION>>() {
+                    private Iterator<Transition<STATE, ACTION>> _current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while(!_current.hasNext() && states.hasNext()) {
+                            Map.Entry<STATE, Map<ACTION, Set<STATE>>> e = states.next();
+                            _current = new Adjacent(e.getKey(), e.getValue(), true);
+                        }
+                        return _current.hasNext();
+                    }
+
+                    @Override
+                    public Transition<STATE, ACTION> next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        return _current.next();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if(!(o instanceof Transition))
+                    return false;
+                Transition<?, ?> t = (Transition<?, ?>) o;
+                return TransitionSystemImpl.contains(_post.get(t.getFrom()), t.getAction(), t.getTo());
+            }
+
+            @Override
+            public int size() {
+                return _transitionCount;
+            }
+
+            @Override
+            public int hashCode() {
+                return _transitionsHash;
+            }
+        };
+    }
+
+    @Override
+    public Set<Transition<STATE, ACTION>> outgoing(STATE s) {
+        return adjacent(s, _post, true);
+    }
+
+    @Override
+    public Set<Transition<STATE, ACTION>> incoming(STATE s) {
+        return adjacent(s, _pre, false);
+    }
+
+    @Override
+    public Set<STATE> post(STATE s, ACTION a) {
+        Map<ACTION, Set<STATE>> byAction = _post.get(s);
+        return readOnly(byAction == null ? null : byAction.get(a));
+    }
+
+    @Override
+    public Set<STATE> pre(STATE s, ACTION a) {
+        Map<ACTION, Set<STATE>> byAction = _pre.get(s);
+        return readOnly(byAction == null ? null : byAction.get(a));
+    }
+
+    /*
+     * The transitions leaving (forward) or entering s, read off its entry in
+     * the matching index.
+     */
+    private Set<Transition<STATE, ACTION>> adjacent(STATE s, Map<STATE, Map<ACTION, Set<STATE>>> index, boolean forward) {
+        return new AbstractSet<Transition<STATE, ACTION>>() {
+            @Override
+            public Iterator<Transition<STATE, ACTION>> iterator() {
+                Map<ACTION, Set<STATE>> byAction = index.get(s);
+                return byAction == null ? Collections.emptyIterator() : new Adjacent(s, byAction, forward);
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if(!(o instanceof Transition))
+                    return false;
+                Transition<?, ?> t = (Transition<?, ?>) o;
+                return forward ? Objects.equals(t.getFrom(), s) && TransitionSystemImpl.contains(index.get(s), t.getAction(), t.getTo())
+                               : Objects.equals(t.getTo(), s) && TransitionSystemImpl.contains(index.get(s), t.getAction(), t.getFrom());
+            }
+
+            @Override
+            public int size() {
+                Map<ACTION, Set<STATE>> byAction = index.get(s);
+                int size = 0;
+                if(byAction != null)
+                    for(Set<STATE> states:byAction.values())
+                        size += states.size();
+                return size;
+            }
+        };
+    }
+
+    private static boolean contains(Map<?, ? extends Set<?>> byAction, Object action, Object state) {
+        if(byAction == null)
+            return false;
+        Set<?> states = byAction.get(action);
+        return states != null && states.contains(state);
+    }
+
+    /*
+     * Walks the entry of one state in _post (forward) or _pre, building its
+     * transitions as it goes.
+     */
+    private class Adjacent implements Iterator<Transition<STATE, ACTION>> {
+        private final STATE _state;
+        private final boolean _forward;
+        private final Iterator<Map.Entry<ACTION, Set<STATE>>> _actions;
+        private ACTION _action;
+        private Iterator<STATE> _others = Collections.emptyIterator();
+
+        Adjacent(STATE state, Map<ACTION, Set<STATE>> byAction, boolean forward) {
+            _state = state;
+            _forward = forward;
+            _actions = byAction.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(!_others.hasNext() && _actions.hasNext()) {
+                Map.Entry<ACTION, Set<STATE>> e = _actions.next();
+                _action = e.getKey();
+                _others = e.getValue().iterator();
+            }
+            return _others.hasNext();
+        }
+
+        @Override
+        public Transition<STATE, ACTION> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            STATE other = _others.next();
+            return _forward ? new Transition<>(_state, _action, other) : new Transition<>(other, _action, _state);
+        }
+    }
+
+    private static <T> Set<T> readOnly(Set<T> set) {
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
     }
 
     @Override
     public void removeAction(ACTION action) throws FVMException {
-        for(Transition t:_transitions)
-            if(t.getAction().equals(action))
-                throw new DeletionOfAttachedActionException(action,TransitionSystemPart.TRANSITIONS);
+        if(_actionUses.containsKey(action))
+            throw new DeletionOfAttachedActionException(action,TransitionSystemPart.TRANSITIONS);
+        if(_actions.remove(action))
+            _actionsHash -= Objects.hashCode(action);
     }
 
     @Override
     public void removeAtomicProposition(ATOMIC_PROPOSITION p) throws FVMException {
-        for(Set<ATOMIC_PROPOSITION> labels:_labels.values())
-            if(labels.contains(p))
-                throw new DeletionOfAttachedAtomicPropositionException(p,TransitionSystemPart.LABELING_FUNCTION);
-        _ap.remove(p);
+        if(_apUses.containsKey(p))
+            throw new DeletionOfAttachedAtomicPropositionException(p,TransitionSystemPart.LABELING_FUNCTION);
+        if(_ap.remove(p))
+            _apHash -= Objects.hashCode(p);
     }
 
     @Override
     public void removeInitialState(STATE state) {
-        _initial.remove(state);
+        if(_initial.remove(state))
+            _initialHash -= Objects.hashCode(state);
     }
 
     @Override
     public void removeLabel(STATE s, ATOMIC_PROPOSITION l) {
-        _labels.get(s).remove(l);
+        Set<ATOMIC_PROPOSITION> label = _labels.get(s);
+        int before = label.hashCode();
+        if(label.remove(l)) {
+            decrement(_apUses, l);
+            relabelled(s, before, label);
+        }
+    }
+
+    private void relabelled(STATE s, int before, Set<ATOMIC_PROPOSITION> label) {
+        int h = Objects.hashCode(s);
+        _labelsHash += (h ^ label.hashCode()) - (h ^ before);
     }
 
     @Override
@@ -136,26 +395,100 @@ public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements Tr
             throw new DeletionOfAttachedStateException(state,TransitionSystemPart.INITIAL_STATES);
         if(_labels.get(state).size()>0)
             throw new DeletionOfAttachedStateException(state,TransitionSystemPart.LABELING_FUNCTION);
-        for(Transition t:_transitions)
-            if(t.getFrom().equals(state) || t.getTo().equals(state))
-                throw new DeletionOfAttachedStateException(state,TransitionSystemPart.TRANSITIONS);
-        _states.remove(state);
-        _labels.remove(state);
+        if(_post.containsKey(state) || _pre.containsKey(state))
+            throw new DeletionOfAttachedStateException(state,TransitionSystemPart.TRANSITIONS);
+        if(_states.remove(state)) {
+            _labels.remove(state);
+            _statesHash -= Objects.hashCode(state);
+            _labelsHash -= Objects.hashCode(state);
+        }
     }
 
     @Override
     public void removeTransition(Transition<STATE, ACTION> t) {
-        _transitions.remove(t);
+        if(!contains(_post.get(t.getFrom()), t.getAction(), t.getTo()))
+            return;
+        removeFromIndex(_post, t.getFrom(), t.getAction(), t.getTo());
+        removeFromIndex(_pre, t.getTo(), t.getAction(), t.getFrom());
+        _transitionCount--;
+        decrement(_actionUses, t.getAction());
+        _transitionsHash -= t.hashCode();
+    }
+
+    private static <K> void decrement(Map<K, Integer> uses, K key) {
+        uses.computeIfPresent(key, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Removes every state not in {@code keep}, together with its transitions,
+     * labels and initial mark, in time linear in what is removed. Actions and
+     * atomic propositions are kept.
+     */
+    public void retainStates(Set<? extends STATE> keep) {
+        List<STATE> doomed = new ArrayList<>();
+        for(STATE s:_states)
+            if(!keep.contains(s))
+                doomed.add(s);
+        for(STATE s:doomed) {
+            for(Transition<STATE, ACTION> t:new ArrayList<>(outgoing(s)))
+                removeTransition(t);
+            for(Transition<STATE, ACTION> t:new ArrayList<>(incoming(s)))
+                removeTransition(t);
+            Set<ATOMIC_PROPOSITION> label = _labels.remove(s);
+            for(ATOMIC_PROPOSITION p:label)
+                decrement(_apUses, p);
+            _labelsHash -= Objects.hashCode(s) ^ label.hashCode();
+            removeInitialState(s);
+            _states.remove(s);
+            _statesHash -= Objects.hashCode(s);
+        }
+    }
+
+    /**
+     * Removes the states that cannot be reached from an initial state; see
+     * {@link #retainStates}.
+     */
+    public void removeUnreachable() {
+        retainStates(new ReachabilityEngine<STATE>((s, sink) -> {
+            for(Transition<STATE, ACTION> t:outgoing(s))
+                sink.accept(t.getTo());
+        }).explore(_initial));
+    }
+
+    private static <K, V> void removeFromIndex(Map<K, Set<V>> index, K key, V value) {
+        Set<V> values = index.get(key);
+        values.remove(value);
+        if(values.isEmpty())
+            index.remove(key);
+    }
+
+    private static <K, A, V> void removeFromIndex(Map<K, Map<A, Set<V>>> index, K key, A action, V value) {
+        Map<A, Set<V>> byAction = index.get(key);
+        removeFromIndex(byAction, action, value);
+        if(byAction.isEmpty())
+            index.remove(key);
     }
 
+    /**
+     * Systems whose hash is cached are told apart by their hashes first, and
+     * collections are only walked when everything cheaper agrees.
+     */
     @Override
     public boolean equals(Object o) {
+        if(o == this)
+            return true;
         if(!(o instanceof TransitionSystem))
             return false;
+        if(hasCachedHash(o) && hashCode() != o.hashCode())
+            return false;
         TransitionSystem<STATE,ACTION,ATOMIC_PROPOSITION> ts = (TransitionSystem<STATE, ACTION, ATOMIC_PROPOSITION>) o;
+        if(!Objects.equals(_name,ts.getName()))
+            return false;
+        if(_states.size() != ts.getStates().size() || _transitionCount != ts.getTransitions().size())
+            return false;
         if(!Objects.equals(this._labels,ts.getLabelingFunction()))
             return false;
-        if(!Objects.equals(this._transitions,ts.getTransitions()))
+        if(!getTransitions().equals(ts.getTransitions()))
             return false;
         if(!Objects.equals(this._states,ts.getStates()))
             return false;
@@ -165,23 +498,25 @@ public class TransitionSystemImpl<STATE,ACTION,ATOMIC_PROPOSITION> implements Tr
             return false;
         if(!Objects.equals(_ap,ts.getAtomicPropositions()))
             return false;
-        if(!Objects.equals(_name,ts.getName()))
-            return false;
         return true;
     }
 
+    static boolean hasCachedHash(Object o) {
+        return o instanceof TransitionSystemImpl || o instanceof CompactTransitionSystem;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 17;
         int result = 1;
-        result = prime * result + ((_labels == null) ? 0 : _labels.hashCode());
-        result = prime * result + ((_transitions == null) ? 0 : _transitions.hashCode());
-        result = prime * result + ((_states == null) ? 0 : _states.hashCode());
-        result = prime * result + ((_initial == null) ? 0 : _initial.hashCode());
-        result = prime * result + ((_actions == null) ? 0 : _actions.hashCode());
-        result = prime * result + ((_ap == null) ? 0 : _ap.hashCode());
+        result = prime * result + _labelsHash;
+        result = prime * result + _transitionsHash;
+        result = prime * result + _statesHash;
+        result = prime * result + _initialHash;
+        result = prime * result + _actionsHash;
+        result = prime * result + _apHash;
         result = prime * result + ((_name == null) ? 0 : _name.hashCode());
         return result;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.nanopromela.NanoPromelaLexer;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+
+import java.util.*;
+
+/**
+ * The variables and channels a NanoPromela action or condition may read and
+ * write, over-approximated from its tokens: every name it mentions is read,
+ * and assignment targets, variables read from a channel and the channels
+ * used by {@code ?} or {@code !} are written.
+ * <p>
+ * Two accesses are independent when neither writes what the other reads or
+ * writes, so actions with independent accesses commute and cannot enable or
+ * disable each other's guards.
+ * <p>
+ * The tokens say nothing about what a custom {@code ActionDef} or
+ * {@code ConditionDef} does with the text, so callers use these accesses for
+ * text run by the parser-based definitions only, and {@link #UNKNOWN}
+ * otherwise.
+ */
+public final class VariableAccess {
+
+    /**
+     * The access of an action that is not NanoPromela text: it may touch
+     * anything.
+     */
+    public static final VariableAccess UNKNOWN = new VariableAccess(null, null);
+
+    public static final VariableAccess NONE = new VariableAccess(Collections.emptySet(), Collections.emptySet());
+
+    // null for UNKNOWN
+    private final Set<String> _reads;
+    private final Set<String> _writes;
+
+    private VariableAccess(Set<String> reads, Set<String> writes) {
+        _reads = reads;
+        _writes = writes;
+    }
+
+    public static VariableAccess ofAction(Object action) {
+        if(!(action instanceof String))
+            return UNKNOWN;
+        List<? extends Token> tokens = tokens((String) action);
+        if(tokens == null)
+            return UNKNOWN;
+        Set<String> reads = new HashSet<>();
+        Set<String> writes = new HashSet<>();
+        for(int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if(!isName(t))
+                continue;
+            reads.add(t.getText());
+            String next = i + 1 < tokens.size() ? tokens.get(i + 1).getText() : "";
+            String previous = i > 0 ? tokens.get(i - 1).getText() : "";
+            if(next.equals(":=") || next.equals("?") || next.equals("!")
+                    || (t.getType() == NanoPromelaLexer.VARNAME && previous.equals("?")))
+                writes.add(t.getText());
+        }
+        return new VariableAccess(reads, writes);
+    }
+
+    public static VariableAccess ofCondition(String condition) {
+        List<? extends Token> tokens = tokens(condition);
+        if(tokens == null)
+            return UNKNOWN;
+        Set<String> reads = new HashSet<>();
+        for(Token t:tokens)
+            if(isName(t))
+                reads.add(t.getText());
+        return new VariableAccess(reads, Collections.emptySet());
+    }
+
+    private static List<? extends Token> tokens(String text) {
+        NanoPromelaLexer lexer = new NanoPromelaLexer(new ANTLRInputStream(text));
+        lexer.removeErrorListeners();
+        List<? extends Token> tokens = lexer.getAllTokens();
+        for(Token t:tokens)
+            if(t.getType() == NanoPromelaLexer.OTHER)
+                return null;
+        return tokens;
+    }
+
+    private static boolean isName(Token t) {
+        return t.getType() == NanoPromelaLexer.VARNAME || t.getType() == NanoPromelaLexer.CHANNAME
+                || t.getType() == NanoPromelaLexer.ZEROCAPACITYCHANNAME;
+    }
+
+    public boolean isKnown() {
+        return _reads != null;
+    }
+
+    /**
+     * @return the names this access reads; meaningless if not known.
+     */
+    public Set<String> getReads() {
+        return _reads == null ? Collections.emptySet() : Collections.unmodifiableSet(_reads);
+    }
+
+    /**
+     * @return the names this access writes; meaningless if not known.
+     */
+    public Set<String> getWrites() {
+        return _writes == null ? Collections.emptySet() : Collections.unmodifiableSet(_writes);
+    }
+
+    /**
+     * @return an access that reads and writes whatever this one or
+     * {@code other} does.
+     */
+    public VariableAccess union(VariableAccess other) {
+        if(!isKnown() || !other.isKnown())
+            return UNKNOWN;
+        Set<String> reads = new HashSet<>(_reads);
+        reads.addAll(other._reads);
+        Set<String> writes = new HashSet<>(_writes);
+        writes.addAll(other._writes);
+        return new VariableAccess(reads, writes);
+    }
+
+    public boolean isIndependentOf(VariableAccess other) {
+        if(!isKnown() || !other.isKnown())
+            return false;
+        return Collections.disjoint(_writes, other._reads) && Collections.disjoint(_writes, other._writes)
+                && Collections.disjoint(other._writes, _reads);
+    }
+
+    /**
+     * @return whether this access writes any of {@code names}.
+     */
+    public boolean writesAny(Set<String> names) {
+        return !isKnown() || !Collections.disjoint(_writes, names);
+    }
+}
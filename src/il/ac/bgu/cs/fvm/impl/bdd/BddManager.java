@@ -0,0 +1,405 @@
+package il.ac.bgu.cs.fvm.impl.bdd;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A minimal reduced ordered binary decision diagram package.
+ * <p>
+ * BDDs are plain {@code int} node ids owned by a manager: {@link #FALSE} and
+ * {@link #TRUE} are the terminals, and variables are non-negative ints ordered
+ * by value. Nodes are hash-consed, so two BDDs denote the same function iff
+ * their ids are equal. Results of the recursive operations are kept in a
+ * lossy, fixed-size cache.
+ * <p>
+ * Nodes are never freed: a manager is meant to live as long as the system
+ * built on it. Managers are not thread safe.
+ */
+public class BddManager {
+
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int TERMINAL_VAR = Integer.MAX_VALUE;
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+    private static final int OP_EXISTS = 3;
+    private static final int OP_REL_PROD = 4;
+    private static final int OP_REPLACE = 5;
+
+    private int[] _var = new int[1024];
+    private int[] _low = new int[1024];
+    private int[] _high = new int[1024];
+    private int _count;
+
+    private int[] _unique = new int[2048];
+    private int _uniqueSize;
+
+    private static final int CACHE_SIZE = 1 << 18;
+    private final int[] _cacheOp = new int[CACHE_SIZE];
+    private final int[] _cacheA = new int[CACHE_SIZE];
+    private final int[] _cacheB = new int[CACHE_SIZE];
+    private final int[] _cacheC = new int[CACHE_SIZE];
+    private final int[] _cacheResult = new int[CACHE_SIZE];
+
+    private final List<int[]> _renamings = new ArrayList<>();
+
+    public BddManager() {
+        _var[FALSE] = _var[TRUE] = TERMINAL_VAR;
+        _count = 2;
+        Arrays.fill(_cacheOp, -1);
+    }
+
+    /**
+     * @return the number of nodes allocated so far, terminals included.
+     */
+    public int nodeCount() {
+        return _count;
+    }
+
+    public int var(int node) {
+        return _var[node];
+    }
+
+    public int low(int node) {
+        return _low[node];
+    }
+
+    public int high(int node) {
+        return _high[node];
+    }
+
+    public int ithVar(int v) {
+        return mk(v, FALSE, TRUE);
+    }
+
+    public int nithVar(int v) {
+        return mk(v, TRUE, FALSE);
+    }
+
+    /**
+     * @return the conjunction of the given (positive) variables.
+     */
+    public int cube(int... vars) {
+        int[] sorted = vars.clone();
+        Arrays.sort(sorted);
+        int result = TRUE;
+        for(int i = sorted.length - 1; i >= 0; i--)
+            result = mk(sorted[i], FALSE, result);
+        return result;
+    }
+
+    /**
+     * @return the conjunction of {@code vars[i]} or its negation, as
+     * {@code values[i]} says.
+     */
+    public int minterm(int[] vars, boolean[] values) {
+        int result = TRUE;
+        for(int i = 0; i < vars.length; i++)
+            result = and(result, values[i] ? ithVar(vars[i]) : nithVar(vars[i]));
+        return result;
+    }
+
+    /**
+     * @return the node testing {@code v}, with {@code low} and {@code high} as
+     * its else and then branches. Both must only test variables after
+     * {@code v}.
+     */
+    public int node(int v, int low, int high) {
+        if(v < 0 || v >= _var[low] || v >= _var[high])
+            throw new IllegalArgumentException("Variable " + v + " is out of order");
+        return mk(v, low, high);
+    }
+
+    private int mk(int v, int low, int high) {
+        if(low == high)
+            return low;
+        int mask = _unique.length - 1;
+        int slot = hash(v, low, high) & mask;
+        for(int n = _unique[slot]; n != 0; n = _unique[slot]) {
+            if(_var[n] == v && _low[n] == low && _high[n] == high)
+                return n;
+            slot = (slot + 1) & mask;
+        }
+        if(_count == _var.length) {
+            _var = Arrays.copyOf(_var, _count * 2);
+            _low = Arrays.copyOf(_low, _count * 2);
+            _high = Arrays.copyOf(_high, _count * 2);
+        }
+        int n = _count++;
+        _var[n] = v;
+        _low[n] = low;
+        _high[n] = high;
+        _unique[slot] = n;
+        if(++_uniqueSize * 2 > _unique.length)
+            rehash();
+        return n;
+    }
+
+    private void rehash() {
+        int[] unique = new int[_unique.length * 2];
+        int mask = unique.length - 1;
+        for(int n:_unique) {
+            if(n != 0) {
+                int slot = hash(_var[n], _low[n], _high[n]) & mask;
+                while(unique[slot] != 0)
+                    slot = (slot + 1) & mask;
+                unique[slot] = n;
+            }
+        }
+        _unique = unique;
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1 + b * 0x85EBCA6B + c * 0xC2B2AE35;
+        return h ^ (h >>> 15);
+    }
+
+    private int cacheSlot(int op, int a, int b, int c) {
+        return hash(a + op, b, c) & (CACHE_SIZE - 1);
+    }
+
+    private int cached(int slot, int op, int a, int b, int c) {
+        if(_cacheOp[slot] == op && _cacheA[slot] == a && _cacheB[slot] == b && _cacheC[slot] == c)
+            return _cacheResult[slot];
+        return -1;
+    }
+
+    private int store(int slot, int op, int a, int b, int c, int result) {
+        _cacheOp[slot] = op;
+        _cacheA[slot] = a;
+        _cacheB[slot] = b;
+        _cacheC[slot] = c;
+        _cacheResult[slot] = result;
+        return result;
+    }
+
+    public int not(int a) {
+        return apply(OP_XOR, a, TRUE);
+    }
+
+    public int and(int a, int b) {
+        return apply(OP_AND, a, b);
+    }
+
+    public int or(int a, int b) {
+        return apply(OP_OR, a, b);
+    }
+
+    public int xor(int a, int b) {
+        return apply(OP_XOR, a, b);
+    }
+
+    /**
+     * @return {@code a <-> b}.
+     */
+    public int equiv(int a, int b) {
+        return not(xor(a, b));
+    }
+
+    public int ite(int f, int g, int h) {
+        return or(and(f, g), and(not(f), h));
+    }
+
+    private int apply(int op, int a, int b) {
+        switch(op) {
+            case OP_AND:
+                if(a == FALSE || b == FALSE)
+                    return FALSE;
+                if(a == TRUE || a == b)
+                    return b;
+                if(b == TRUE)
+                    return a;
+                break;
+            case OP_OR:
+                if(a == TRUE || b == TRUE)
+                    return TRUE;
+                if(a == FALSE || a == b)
+                    return b;
+                if(b == FALSE)
+                    return a;
+                break;
+            default:
+                if(a == b)
+                    return FALSE;
+                if(a == FALSE)
+                    return b;
+                if(b == FALSE)
+                    return a;
+        }
+        // all three operations are commutative
+        if(a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        int slot = cacheSlot(op, a, b, 0);
+        int result = cached(slot, op, a, b, 0);
+        if(result >= 0)
+            return result;
+        int v = Math.min(_var[a], _var[b]);
+        int low = apply(op, _var[a] == v ? _low[a] : a, _var[b] == v ? _low[b] : b);
+        int high = apply(op, _var[a] == v ? _high[a] : a, _var[b] == v ? _high[b] : b);
+        return store(slot, op, a, b, 0, mk(v, low, high));
+    }
+
+    /**
+     * Existential quantification of the variables of {@code cube}.
+     */
+    public int exists(int a, int cube) {
+        if(a == FALSE || a == TRUE)
+            return a;
+        while(cube != TRUE && _var[cube] < _var[a])
+            cube = _high[cube];
+        if(cube == TRUE)
+            return a;
+        int slot = cacheSlot(OP_EXISTS, a, cube, 0);
+        int result = cached(slot, OP_EXISTS, a, cube, 0);
+        if(result >= 0)
+            return result;
+        if(_var[cube] == _var[a]) {
+            int low = exists(_low[a], _high[cube]);
+            result = low == TRUE ? TRUE : or(low, exists(_high[a], _high[cube]));
+        }
+        else
+            result = mk(_var[a], exists(_low[a], cube), exists(_high[a], cube));
+        return store(slot, OP_EXISTS, a, cube, 0, result);
+    }
+
+    /**
+     * {@code exists(and(a, b), cube)}, without building the conjunction.
+     */
+    public int relProd(int a, int b, int cube) {
+        if(a == FALSE || b == FALSE)
+            return FALSE;
+        if(a == TRUE || a == b)
+            return exists(b, cube);
+        if(b == TRUE)
+            return exists(a, cube);
+        if(a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        int v = Math.min(_var[a], _var[b]);
+        while(cube != TRUE && _var[cube] < v)
+            cube = _high[cube];
+        if(cube == TRUE)
+            return and(a, b);
+        int slot = cacheSlot(OP_REL_PROD, a, b, cube);
+        int result = cached(slot, OP_REL_PROD, a, b, cube);
+        if(result >= 0)
+            return result;
+        int a0 = _var[a] == v ? _low[a] : a;
+        int a1 = _var[a] == v ? _high[a] : a;
+        int b0 = _var[b] == v ? _low[b] : b;
+        int b1 = _var[b] == v ? _high[b] : b;
+        if(_var[cube] == v) {
+            int low = relProd(a0, b0, _high[cube]);
+            result = low == TRUE ? TRUE : or(low, relProd(a1, b1, _high[cube]));
+        }
+        else
+            result = mk(v, relProd(a0, b0, cube), relProd(a1, b1, cube));
+        return store(slot, OP_REL_PROD, a, b, cube, result);
+    }
+
+    /**
+     * Registers a variable renaming for {@link #replace}.
+     *
+     * @param map {@code map[v]} is the new name of variable {@code v}, or -1
+     *            to keep it.
+     * @return the renaming's id.
+     */
+    public int renaming(int[] map) {
+        _renamings.add(map.clone());
+        return _renamings.size() - 1;
+    }
+
+    public int replace(int a, int renaming) {
+        if(a == FALSE || a == TRUE)
+            return a;
+        int slot = cacheSlot(OP_REPLACE, a, renaming, 0);
+        int result = cached(slot, OP_REPLACE, a, renaming, 0);
+        if(result >= 0)
+            return result;
+        int[] map = _renamings.get(renaming);
+        int v = _var[a];
+        int target = v < map.length && map[v] >= 0 ? map[v] : v;
+        result = ite(ithVar(target), replace(_high[a], renaming), replace(_low[a], renaming));
+        return store(slot, OP_REPLACE, a, renaming, 0, result);
+    }
+
+    /**
+     * @param value the value of every variable.
+     */
+    public boolean eval(int a, IntPredicate value) {
+        while(a != FALSE && a != TRUE)
+            a = value.test(_var[a]) ? _high[a] : _low[a];
+        return a == TRUE;
+    }
+
+    /**
+     * @param vars ascending variables that include the support of {@code a}.
+     * @return the number of assignments to {@code vars} that satisfy {@code a}.
+     */
+    public double satCount(int a, int[] vars) {
+        return satCount(a, vars, 0, new HashMap<>());
+    }
+
+    private double satCount(int a, int[] vars, int from, Map<Integer,Double> memo) {
+        if(a == FALSE)
+            return 0;
+        if(a == TRUE)
+            return Math.pow(2, vars.length - from);
+        int pos = position(vars, from, _var[a]);
+        Double below = memo.get(a);
+        if(below == null) {
+            below = satCount(_low[a], vars, pos + 1, memo) + satCount(_high[a], vars, pos + 1, memo);
+            memo.put(a, below);
+        }
+        return below * Math.pow(2, pos - from);
+    }
+
+    /**
+     * Passes every assignment to {@code vars} that satisfies {@code a} to
+     * {@code sink}; {@code values[i]} is the value of {@code vars[i]}.
+     *
+     * @param vars ascending variables that include the support of {@code a}.
+     */
+    public void forEachSat(int a, int[] vars, Consumer<boolean[]> sink) {
+        forEachSat(a, vars, 0, new boolean[vars.length], sink);
+    }
+
+    private void forEachSat(int a, int[] vars, int from, boolean[] values, Consumer<boolean[]> sink) {
+        if(a == FALSE)
+            return;
+        if(from == vars.length) {
+            sink.accept(values.clone());
+            return;
+        }
+        if(_var[a] == vars[from]) {
+            values[from] = false;
+            forEachSat(_low[a], vars, from + 1, values, sink);
+            values[from] = true;
+            forEachSat(_high[a], vars, from + 1, values, sink);
+        }
+        else {
+            if(_var[a] < vars[from])
+                throw new IllegalArgumentException("Variable " + _var[a] + " is not enumerated");
+            values[from] = false;
+            forEachSat(a, vars, from + 1, values, sink);
+            values[from] = true;
+            forEachSat(a, vars, from + 1, values, sink);
+        }
+    }
+
+    private static int position(int[] vars, int from, int v) {
+        for(int i = from; i < vars.length; i++)
+            if(vars[i] == v)
+                return i;
+        throw new IllegalArgumentException("Variable " + v + " is not counted");
+    }
+}
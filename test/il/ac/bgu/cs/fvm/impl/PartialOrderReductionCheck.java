@@ -0,0 +1,76 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.programgraph.*;
+import il.ac.bgu.cs.fvm.transitionsystem.TransitionSystem;
+import il.ac.bgu.cs.fvm.util.Pair;
+
+import java.util.*;
+
+/**
+ * Checks that partial-order reduction keeps the behaviour of actions run by
+ * custom definitions, whose variable accesses cannot be read off their text.
+ * <p>
+ * Component A takes {@code bump}, which a custom definition runs as
+ * {@code x := 1}; component B sets {@code y} only while {@code x == 0}. The
+ * reduced system must still reach {@code y = 1}.
+ */
+public class PartialOrderReductionCheck {
+
+    public static void main(String[] args) {
+        FvmFacadeImpl fvm = new FvmFacadeImpl();
+
+        ProgramGraph<String,String> a = fvm.createProgramGraph();
+        a.addLocation("a0");
+        a.addLocation("a1");
+        a.addInitialLocation("a0");
+        a.addTransition(new PGTransition<>("a0", "", "bump", "a1"));
+        a.addInitalization(Arrays.asList("x := 0"));
+
+        ProgramGraph<String,String> b = fvm.createProgramGraph();
+        b.addLocation("b0");
+        b.addLocation("b1");
+        b.addInitialLocation("b0");
+        b.addTransition(new PGTransition<>("b0", "x == 0", "y := 1", "b1"));
+        b.addInitalization(Arrays.asList("y := 0"));
+
+        // the custom definition comes first, as the parser rejects "bump"
+        Set<ActionDef> actionDefs = new LinkedHashSet<>();
+        actionDefs.add(new ActionDef() {
+            @Override
+            public boolean isMatchingAction(Object action) {
+                return "bump".equals(action);
+            }
+
+            @Override
+            public Map<String,Object> effect(Map<String,Object> eval, Object action) {
+                Map<String,Object> result = new HashMap<>(eval);
+                result.put("x", 1);
+                return result;
+            }
+        });
+        actionDefs.add(new ParserBasedActDef());
+        Set<ConditionDef> conditionDefs = Collections.singleton(new ParserBasedCondDef());
+        List<ProgramGraph<String,String>> pgs = Arrays.asList(a, b);
+
+        TransitionSystem<Pair<List<String>,Map<String,Object>>,String,String> full = fvm.transitionSystemFromProgramGraphs(pgs, actionDefs, conditionDefs);
+        fvm.setPartialOrderReduction(Collections.singleton("y"));
+        TransitionSystem<Pair<List<String>,Map<String,Object>>,String,String> reduced = fvm.transitionSystemFromProgramGraphs(pgs, actionDefs, conditionDefs);
+
+        check(full.getStates().size() == 4, "full system has 4 states, not " + full.getStates().size());
+        check(reachesY(full), "full system reaches y = 1");
+        check(reachesY(reduced), "reduced system reaches y = 1");
+        System.out.println("PartialOrderReductionCheck: ok");
+    }
+
+    private static boolean reachesY(TransitionSystem<Pair<List<String>,Map<String,Object>>,String,String> ts) {
+        for(Pair<List<String>,Map<String,Object>> s:ts.getStates())
+            if(Integer.valueOf(1).equals(s.second.get("y")))
+                return true;
+        return false;
+    }
+
+    private static void check(boolean condition, String what) {
+        if(!condition)
+            throw new AssertionError("Failed: " + what);
+    }
+}
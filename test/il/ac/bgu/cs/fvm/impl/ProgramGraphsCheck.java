@@ -0,0 +1,37 @@
+package il.ac.bgu.cs.fvm.impl;
+
+import il.ac.bgu.cs.fvm.programgraph.*;
+
+import java.util.*;
+
+/**
+ * Checks that {@code transitionSystemFromProgramGraphs} has as many states as
+ * {@code transitionSystemFromProgramGraph} over the interleaved graphs, with
+ * and without initializations.
+ */
+public class ProgramGraphsCheck {
+
+    public static void main(String[] args) throws Exception {
+        FvmFacadeImpl fvm = new FvmFacadeImpl();
+        Set<ActionDef> actionDefs = Collections.singleton(new ParserBasedActDef());
+        Set<ConditionDef> conditionDefs = Collections.singleton(new ParserBasedCondDef());
+
+        ProgramGraph<String,String> pg1 = fvm.programGraphFromNanoPromelaString("x := 1; y := 2");
+        ProgramGraph<String,String> pg2 = fvm.programGraphFromNanoPromelaString("z := 3");
+        compare(fvm, pg1, pg2, actionDefs, conditionDefs, "without initializations");
+        pg1.addInitalization(Arrays.asList("x := 0"));
+        compare(fvm, pg1, pg2, actionDefs, conditionDefs, "with one graph initialized");
+        pg2.addInitalization(Arrays.asList("z := 0"));
+        pg2.addInitalization(Arrays.asList("z := 5"));
+        compare(fvm, pg1, pg2, actionDefs, conditionDefs, "with both graphs initialized");
+        System.out.println("ProgramGraphsCheck: ok");
+    }
+
+    private static void compare(FvmFacadeImpl fvm, ProgramGraph<String,String> pg1, ProgramGraph<String,String> pg2,
+                                Set<ActionDef> actionDefs, Set<ConditionDef> conditionDefs, String what) {
+        int interleaved = fvm.transitionSystemFromProgramGraph(fvm.interleave(pg1, pg2), actionDefs, conditionDefs).getStates().size();
+        int direct = fvm.transitionSystemFromProgramGraphs(Arrays.asList(pg1, pg2), actionDefs, conditionDefs).getStates().size();
+        if(interleaved != direct)
+            throw new AssertionError("Failed " + what + ": " + interleaved + " states interleaved, " + direct + " direct");
+    }
+}